@@ -17,15 +17,18 @@ import { Database } from 'lucide-react';
 import DatabaseConnectionForm from './components/DatabaseConnectionForm';
 import ComparisonForm from './components/ComparisonForm';
 import ResultsTable from './components/ResultsTable';
+import PreviewSummary from './components/PreviewSummary';
 import { api } from './api';
 import type {
   DatabaseConnection,
   DatabaseContext,
   ComparisonOptions,
-  ComparisonResult,
+  ComparisonPreview,
+  JobStatus,
 } from './types';
 
 const steps = ['Connect Databases', 'Configure Comparison', 'View Results'];
+const JOB_POLL_INTERVAL_MS = 1000;
 
 function App() {
   const prefersDarkMode = useMediaQuery('(prefers-color-scheme: dark)');
@@ -53,7 +56,8 @@ function App() {
     selectedTable: '',
     columns: [],
   });
-  const [results, setResults] = React.useState<ComparisonResult[]>([]);
+  const [job, setJob] = React.useState<JobStatus | null>(null);
+  const [preview, setPreview] = React.useState<ComparisonPreview | null>(null);
 
   const handleSourceConnect = async (connection: DatabaseConnection) => {
     try {
@@ -95,13 +99,23 @@ function App() {
     }
   };
 
+  // Runs as a background job whose results stay on the server; the table pages through them as they are found
   const handleCompare = async (options: ComparisonOptions) => {
     try {
       setIsLoading(true);
-      const results = await api.compare(options);
-      setResults(results);
+      let status = await api.submitJob(options);
+      setJob(status);
       setActiveStep(2);
-      toast.success('Comparison completed!');
+      while (status.status === 'queued' || status.status === 'running') {
+        await new Promise((resolve) => setTimeout(resolve, JOB_POLL_INTERVAL_MS));
+        status = await api.getJob(status.jobId);
+        setJob(status);
+      }
+      if (status.status === 'completed') {
+        toast.success('Comparison completed!');
+      } else {
+        toast.error(status.message ?? `Comparison ${status.status.replace('_', ' ')}`);
+      }
     } catch (error) {
       toast.error('Failed to compare tables');
       console.error(error);
@@ -110,8 +124,17 @@ function App() {
     }
   };
 
-  const handleExport = () => {
-    toast.success('Results exported successfully!');
+  // The full comparison only runs once the user asks for it after seeing the estimates
+  const handlePreview = async (options: ComparisonOptions) => {
+    try {
+      setIsLoading(true);
+      setPreview(await api.preview(options));
+    } catch (error) {
+      toast.error('Failed to preview comparison');
+      console.error(error);
+    } finally {
+      setIsLoading(false);
+    }
   };
 
   const bothDatabasesConnected = sourceDb.connection && targetDb.connection;
@@ -175,12 +198,19 @@ function App() {
                 targetTables={targetDb.tables}
                 targetColumns={targetDb.columns}
                 onCompare={handleCompare}
+                onPreview={handlePreview}
                 isLoading={isLoading}
               />
             )}
 
-            {activeStep === 2 && results.length > 0 && (
-              <ResultsTable results={results} onExport={handleExport} />
+            {activeStep === 1 && preview && <PreviewSummary preview={preview} />}
+
+            {activeStep === 2 && job && (
+              <ResultsTable
+                jobId={job.jobId}
+                differences={job.differences}
+                exportUrl={job.finishedAt ? api.getJobExportUrl(job.jobId) : null}
+              />
             )}
           </Box>
         </Box>
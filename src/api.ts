@@ -1,5 +1,17 @@
 import axios from 'axios';
-import { DatabaseConnection, ComparisonOptions } from './types';
+import {
+  DatabaseConnection,
+  ComparisonOptions,
+  ComparisonPreview,
+  ComparisonResult,
+  ComparisonSummary,
+  DatabaseComparisonRequest,
+  DatabaseComparisonStatus,
+  JobStatus,
+  PoolStats,
+  ResultFilter,
+  ResultPage,
+} from './types';
 
 const API_BASE_URL = 'http://localhost:8080/api';
 
@@ -9,6 +21,11 @@ export const api = {
     return response.data;
   },
 
+  getPools: async (): Promise<PoolStats[]> => {
+    const response = await axios.get(`${API_BASE_URL}/pools`);
+    return response.data;
+  },
+
   getTables: async (dbName: string) => {
     const response = await axios.get(`${API_BASE_URL}/tables/${dbName}`);
     return response.data;
@@ -19,8 +36,113 @@ export const api = {
     return response.data;
   },
 
+  prefetchMetadata: async (dbName: string, schema?: string) => {
+    const response = await axios.post(`${API_BASE_URL}/metadata/${dbName}/prefetch`, null, { params: { schema } });
+    return response.data;
+  },
+
+  // Drops cached tables and columns so the next lookup sees schema changes
+  invalidateMetadata: async (dbName: string, table?: string) => {
+    const response = await axios.delete(`${API_BASE_URL}/metadata/${dbName}`, { params: { table } });
+    return response.data;
+  },
+
   compare: async (options: ComparisonOptions) => {
     const response = await axios.post(`${API_BASE_URL}/compare`, options);
     return response.data;
   },
+
+  // Runs the full comparison but returns only counts and a few example keys, however many rows differ
+  summarize: async (options: ComparisonOptions): Promise<ComparisonSummary> => {
+    const response = await axios.post(`${API_BASE_URL}/compare/summary`, options);
+    return response.data;
+  },
+
+  // Estimates from samples only; nothing is compared in full
+  preview: async (options: ComparisonOptions): Promise<ComparisonPreview> => {
+    const response = await axios.post(`${API_BASE_URL}/compare/preview`, options);
+    return response.data;
+  },
+
+  // Reads newline-delimited results as the server finds them, handing over each received chunk
+  compareStream: async (
+    options: ComparisonOptions,
+    onResults: (results: ComparisonResult[]) => void,
+  ) => {
+    const response = await fetch(`${API_BASE_URL}/compare/stream`, {
+      method: 'POST',
+      headers: { 'Content-Type': 'application/json' },
+      body: JSON.stringify(options),
+    });
+    if (!response.ok || !response.body) {
+      throw new Error(`Comparison failed with status ${response.status}`);
+    }
+
+    const parse = (lines: string[]) => {
+      const results: ComparisonResult[] = [];
+      for (const line of lines) {
+        if (!line.trim()) continue;
+        const item = JSON.parse(line);
+        if (item.error) {
+          throw new Error(item.error);
+        }
+        results.push(item);
+      }
+      if (results.length > 0) {
+        onResults(results);
+      }
+    };
+
+    const reader = response.body.pipeThrough(new TextDecoderStream()).getReader();
+    let buffered = '';
+    for (;;) {
+      const { value, done } = await reader.read();
+      if (done) break;
+      const lines = (buffered + value).split('\n');
+      buffered = lines.pop() ?? '';
+      parse(lines);
+    }
+    parse([buffered]);
+  },
+
+  submitJob: async (options: ComparisonOptions): Promise<JobStatus> => {
+    const response = await axios.post(`${API_BASE_URL}/jobs`, options);
+    return response.data;
+  },
+
+  getJob: async (jobId: string): Promise<JobStatus> => {
+    const response = await axios.get(`${API_BASE_URL}/jobs/${jobId}`);
+    return response.data;
+  },
+
+  // Pages are numbered from 0; filters are applied on the server, so only the requested page is sent
+  getJobResults: async (jobId: string, page: number, size: number, filter: ResultFilter = {}): Promise<ResultPage> => {
+    const response = await axios.get(`${API_BASE_URL}/jobs/${jobId}/results`, {
+      params: { page, size, status: filter.status, column: filter.column || undefined },
+    });
+    return response.data;
+  },
+
+  // Served as an attachment once the job has finished, so it can be used as a plain download link
+  getJobExportUrl: (jobId: string): string => `${API_BASE_URL}/jobs/${jobId}/export`,
+
+  cancelJob: async (jobId: string): Promise<JobStatus> => {
+    const response = await axios.delete(`${API_BASE_URL}/jobs/${jobId}`);
+    return response.data;
+  },
+
+  submitDatabaseComparison: async (request: DatabaseComparisonRequest): Promise<DatabaseComparisonStatus> => {
+    const response = await axios.post(`${API_BASE_URL}/database-comparisons`, request);
+    return response.data;
+  },
+
+  getDatabaseComparison: async (comparisonId: string): Promise<DatabaseComparisonStatus> => {
+    const response = await axios.get(`${API_BASE_URL}/database-comparisons/${comparisonId}`);
+    return response.data;
+  },
+
+  cancelDatabaseComparison: async (comparisonId: string): Promise<DatabaseComparisonStatus> => {
+    const response = await axios.delete(`${API_BASE_URL}/database-comparisons/${comparisonId}`);
+    return response.data;
+  },
 };
\ No newline at end of file
@@ -21,6 +21,7 @@ interface Props {
   targetTables: string[];
   targetColumns: string[];
   onCompare: (options: ComparisonOptions) => void;
+  onPreview: (options: ComparisonOptions) => void;
   isLoading: boolean;
 }
 
@@ -30,6 +31,7 @@ export default function ComparisonForm({
   targetTables,
   targetColumns,
   onCompare,
+  onPreview,
   isLoading,
 }: Props) {
   const [options, setOptions] = React.useState<ComparisonOptions>({
@@ -117,16 +119,26 @@ export default function ComparisonForm({
               <InputLabel>Export Format</InputLabel>
               <Select
                 value={options.exportFormat}
-                onChange={(e) => setOptions({ ...options, exportFormat: e.target.value as 'json' | 'excel' | 'csv' })}
+                onChange={(e) => setOptions({ ...options, exportFormat: e.target.value as ComparisonOptions['exportFormat'] })}
                 label="Export Format"
               >
                 <MenuItem value="json">JSON</MenuItem>
+                <MenuItem value="jsonl">JSON Lines</MenuItem>
                 <MenuItem value="excel">Excel</MenuItem>
                 <MenuItem value="csv">CSV</MenuItem>
+                <MenuItem value="columnar">Columnar (binary)</MenuItem>
               </Select>
             </FormControl>
 
-            <Box display="flex" justifyContent="flex-end">
+            <Box display="flex" justifyContent="flex-end" gap={2}>
+              <Button
+                variant="outlined"
+                color="primary"
+                disabled={isLoading || options.matchingAlgorithm === 'fuzzy'}
+                onClick={() => onPreview(options)}
+              >
+                Preview
+              </Button>
               <Button
                 type="submit"
                 variant="contained"
@@ -106,6 +106,7 @@ export default function DatabaseConnectionForm({ title, onConnect, isLoading, is
                 <MenuItem value="mysql">MySQL</MenuItem>
                 <MenuItem value="postgresql">PostgreSQL</MenuItem>
                 <MenuItem value="sqlserver">SQL Server</MenuItem>
+                <MenuItem value="h2">H2</MenuItem>
               </Select>
             </FormControl>
             <TextField
@@ -76,6 +76,7 @@ export default function DatabaseForm({ onConnect, isLoading }: Props) {
                 <MenuItem value="mysql">MySQL</MenuItem>
                 <MenuItem value="postgresql">PostgreSQL</MenuItem>
                 <MenuItem value="sqlserver">SQL Server</MenuItem>
+                <MenuItem value="h2">H2</MenuItem>
               </Select>
             </FormControl>
             <TextField
@@ -0,0 +1,81 @@
+import {
+  Card,
+  CardContent,
+  CardHeader,
+  Table,
+  TableBody,
+  TableCell,
+  TableHead,
+  TableRow,
+  Typography,
+  Box,
+  Chip,
+} from '@mui/material';
+import { ComparisonPreview, RateEstimate } from '../types';
+
+interface Props {
+  preview: ComparisonPreview;
+}
+
+const percent = (rate: number) => `${(rate * 100).toFixed(2)}%`;
+
+// Estimated rows are only known when the database reports a row count for the table
+const rows = (estimate: RateEstimate) =>
+  estimate.estimatedRows === null
+    ? '—'
+    : `${estimate.estimatedRows.toLocaleString()} (${estimate.estimatedRowsLower?.toLocaleString()} – ${estimate.estimatedRowsUpper?.toLocaleString()})`;
+
+export default function PreviewSummary({ preview }: Props) {
+  const estimates: [string, RateEstimate][] = [
+    ['Mismatched', preview.mismatched],
+    ['Missing in Target', preview.missingTarget],
+    ['Missing in Source', preview.missingSource],
+  ];
+  const columns = Object.entries(preview.columnMismatchRates).filter(([, rate]) => rate > 0);
+
+  return (
+    <Card elevation={3}>
+      <CardHeader
+        title="Comparison Preview"
+        subheader={`Sampled ${preview.sourceRowsSampled.toLocaleString()} source and ${preview.targetRowsSampled.toLocaleString()} target rows in ${preview.durationMillis} ms`}
+        action={<Chip label={preview.samplingMethod} size="small" />}
+      />
+      <CardContent>
+        <Table size="small">
+          <TableHead>
+            <TableRow>
+              <TableCell>Difference</TableCell>
+              <TableCell>Rate (95% interval)</TableCell>
+              <TableCell>Estimated Rows</TableCell>
+            </TableRow>
+          </TableHead>
+          <TableBody>
+            {estimates.map(([label, estimate]) => (
+              <TableRow key={label}>
+                <TableCell>{label}</TableCell>
+                <TableCell>
+                  {percent(estimate.rate)} ({percent(estimate.lower)} – {percent(estimate.upper)})
+                </TableCell>
+                <TableCell>{rows(estimate)}</TableCell>
+              </TableRow>
+            ))}
+          </TableBody>
+        </Table>
+
+        <Box mt={2}>
+          <Typography variant="body2" color="text.secondary">
+            Distinct keys: about {preview.estimatedDistinctSourceKeys.toLocaleString()} in source,{' '}
+            {preview.estimatedDistinctTargetKeys.toLocaleString()} in target
+          </Typography>
+          {columns.length > 0 && (
+            <Box display="flex" flexWrap="wrap" gap={1} mt={1}>
+              {columns.map(([column, rate]) => (
+                <Chip key={column} label={`${column}: ${percent(rate)}`} color="error" variant="outlined" size="small" />
+              ))}
+            </Box>
+          )}
+        </Box>
+      </CardContent>
+    </Card>
+  );
+}
@@ -9,29 +9,58 @@ import {
   TableRow,
   TablePagination,
   TextField,
+  MenuItem,
   Box,
   Button,
   Chip,
 } from '@mui/material';
 import { Download } from 'lucide-react';
-import { ComparisonResult } from '../types';
+import { api } from '../api';
+import { ComparisonResult, ResultFilter } from '../types';
 
 interface Props {
-  results: ComparisonResult[];
-  onExport: () => void;
+  jobId: string;
+  // Results found so far; the page is fetched again whenever it grows
+  differences: number;
+  // Only set once the job has finished and its export file is complete
+  exportUrl: string | null;
 }
 
-export default function ResultsTable({ results, onExport }: Props) {
+// Only the current page is ever held; paging and filters are served by the job results API
+export default function ResultsTable({ jobId, differences, exportUrl }: Props) {
   const [page, setPage] = React.useState(0);
   const [rowsPerPage, setRowsPerPage] = React.useState(10);
-  const [search, setSearch] = React.useState('');
+  const [filter, setFilter] = React.useState<ResultFilter>({});
+  const [columnInput, setColumnInput] = React.useState('');
+  const [results, setResults] = React.useState<ComparisonResult[]>([]);
+  const [total, setTotal] = React.useState(0);
+  const [error, setError] = React.useState<string | null>(null);
 
-  const filteredResults = results.filter((result) =>
-    Object.values(result.differences).some((diff) =>
-      diff.sourceValue.toLowerCase().includes(search.toLowerCase()) ||
-      diff.targetValue.toLowerCase().includes(search.toLowerCase())
-    )
-  );
+  React.useEffect(() => {
+    let cancelled = false;
+    api.getJobResults(jobId, page, rowsPerPage, filter)
+      .then((received) => {
+        if (!cancelled) {
+          setResults(received.results);
+          setTotal(received.totalResults);
+          setError(null);
+        }
+      })
+      .catch((e) => {
+        if (!cancelled) {
+          setError(filter.column ? `No column named ${filter.column}` : 'Failed to load results');
+          console.error(e);
+        }
+      });
+    return () => {
+      cancelled = true;
+    };
+  }, [jobId, page, rowsPerPage, filter, differences]);
+
+  const applyFilter = (next: ResultFilter) => {
+    setFilter(next);
+    setPage(0);
+  };
 
   const getStatusColor = (status: string) => {
     switch (status) {
@@ -56,18 +85,46 @@ export default function ResultsTable({ results, onExport }: Props) {
   return (
     <Box>
       <Box display="flex" justifyContent="space-between" alignItems="center" mb={2}>
-        <TextField
-          label="Search"
-          variant="outlined"
-          size="small"
-          value={search}
-          onChange={(e) => setSearch(e.target.value)}
-        />
+        <Box display="flex" gap={2}>
+          <TextField
+            select
+            label="Status"
+            variant="outlined"
+            size="small"
+            sx={{ minWidth: 180 }}
+            value={filter.status ?? ''}
+            onChange={(e) => applyFilter({
+              ...filter,
+              status: (e.target.value || undefined) as ResultFilter['status'],
+            })}
+          >
+            <MenuItem value="">All</MenuItem>
+            <MenuItem value="mismatched">Mismatched</MenuItem>
+            <MenuItem value="missing_source">Missing in Source</MenuItem>
+            <MenuItem value="missing_target">Missing in Target</MenuItem>
+          </TextField>
+          <TextField
+            label="Column differs"
+            variant="outlined"
+            size="small"
+            value={columnInput}
+            error={!!error && !!filter.column}
+            helperText={error}
+            onChange={(e) => setColumnInput(e.target.value)}
+            onBlur={() => applyFilter({ ...filter, column: columnInput.trim() || undefined })}
+            onKeyDown={(e) => {
+              if (e.key === 'Enter') {
+                applyFilter({ ...filter, column: columnInput.trim() || undefined });
+              }
+            }}
+          />
+        </Box>
         <Button
           variant="contained"
           color="primary"
           startIcon={<Download size={20} />}
-          onClick={onExport}
+          href={exportUrl ?? undefined}
+          disabled={!exportUrl}
         >
           Export Results
         </Button>
@@ -83,37 +140,36 @@ export default function ResultsTable({ results, onExport }: Props) {
             </TableRow>
           </TableHead>
           <TableBody>
-            {filteredResults
-              .slice(page * rowsPerPage, page * rowsPerPage + rowsPerPage)
-              .map((result) => (
-                <TableRow key={result.id}>
-                  <TableCell>{result.id}</TableCell>
-                  <TableCell>
-                    <Chip
-                      label={getStatusLabel(result.status)}
-                      color={getStatusColor(result.status)}
-                      size="small"
-                    />
-                  </TableCell>
-                  <TableCell>
-                    {Object.entries(result.differences).map(([column, { sourceValue, targetValue }]) => (
-                      <div key={column}>
-                        <strong>{column}:</strong> {sourceValue} → {targetValue}
-                      </div>
-                    ))}
-                  </TableCell>
-                </TableRow>
-              ))}
+            {results.map((result) => (
+              <TableRow key={result.id}>
+                <TableCell>{result.id}</TableCell>
+                <TableCell>
+                  <Chip
+                    label={getStatusLabel(result.status)}
+                    color={getStatusColor(result.status)}
+                    size="small"
+                  />
+                </TableCell>
+                <TableCell>
+                  {Object.entries(result.differences).map(([column, { sourceValue, targetValue }]) => (
+                    <div key={column}>
+                      <strong>{column}:</strong> {sourceValue} → {targetValue}
+                    </div>
+                  ))}
+                </TableCell>
+              </TableRow>
+            ))}
           </TableBody>
         </Table>
       </TableContainer>
 
       <TablePagination
         component="div"
-        count={filteredResults.length}
+        count={total}
         page={page}
         onPageChange={(_, newPage) => setPage(newPage)}
         rowsPerPage={rowsPerPage}
+        rowsPerPageOptions={[10, 25, 100, 500]}
         onRowsPerPageChange={(e) => {
           setRowsPerPage(parseInt(e.target.value, 10));
           setPage(0);
@@ -121,4 +177,4 @@ export default function ResultsTable({ results, onExport }: Props) {
       />
     </Box>
   );
-}
\ No newline at end of file
+}
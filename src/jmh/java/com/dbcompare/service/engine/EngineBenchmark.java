@@ -0,0 +1,67 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonOptions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import javax.sql.DataSource;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole comparisons of two in-memory H2 tables, from the first query to the last result. Engines
+ * come from a minimal Spring context, so they run with the same configuration defaults as the
+ * application. The rows counter counts the rows read on both sides.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class EngineBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"8"})
+    public int columns;
+
+    @Param({"0.01"})
+    public double mismatchRate;
+
+    @Param({"long", "string"})
+    public String keyType;
+
+    @Param({"merge", "hash"})
+    public String mode;
+
+    private AnnotationConfigApplicationContext engines;
+    private DataSource dataSource;
+    private ComparisonOptions options;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SyntheticTable table = new SyntheticTable(rows, columns, mismatchRate, keyType);
+        dataSource = table.loadIntoH2("engine");
+        options = table.options();
+        engines = new AnnotationConfigApplicationContext(MergeJoinEngine.class, GraceHashEngine.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engines.close();
+    }
+
+    @Benchmark
+    public void compare(RowCounter counter, Blackhole blackhole) throws Exception {
+        ComparisonContext context = new ComparisonContext(options, blackhole::consume);
+        context.useKeyColumns(options.getKeyColumns());
+        switch (mode) {
+            case "merge" -> engines.getBean(MergeJoinEngine.class).compare(dataSource, dataSource, context);
+            case "hash" -> engines.getBean(GraceHashEngine.class).compare(dataSource, dataSource, context);
+            default -> throw new IllegalArgumentException("Unsupported comparison mode: " + mode);
+        }
+        counter.rows += context.getSourceRowsRead() + context.getTargetRowsRead();
+    }
+}
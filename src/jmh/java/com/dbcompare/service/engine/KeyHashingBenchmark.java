@@ -0,0 +1,75 @@
+package com.dbcompare.service.engine;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Key encoding, hashing and ordering: what every engine does for each row before comparing values.
+ * Each invocation handles the whole table; the rows counter gives the rate per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class KeyHashingBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int rows;
+
+    @Param({"long", "decimal", "string", "composite"})
+    public String keyType;
+
+    private KeyCodec codec;
+    private List<Object[]> sourceKeys;
+    private List<Object[]> targetKeys;
+    private RowKey[] encoded;
+    private Map<RowKey, Integer> index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticTable table = new SyntheticTable(rows, 3, 0.01, keyType);
+        codec = new KeyCodec(table.keyTypes());
+        sourceKeys = table.sourceKeys();
+        targetKeys = table.targetKeys();
+
+        encoded = new RowKey[sourceKeys.size()];
+        index = new HashMap<>(sourceKeys.size() * 2);
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = codec.encode(sourceKeys.get(i));
+            index.put(encoded[i], i);
+        }
+    }
+
+    @Benchmark
+    public void encode(RowCounter counter, Blackhole blackhole) {
+        for (Object[] key : sourceKeys) {
+            blackhole.consume(codec.encode(key));
+        }
+        counter.rows += sourceKeys.size();
+    }
+
+    // Encodes each target key and looks it up among the source keys, as a hash join probes its build side
+    @Benchmark
+    public void encodeAndProbe(RowCounter counter, Blackhole blackhole) {
+        for (Object[] key : targetKeys) {
+            blackhole.consume(index.get(codec.encode(key)));
+        }
+        counter.rows += targetKeys.size();
+    }
+
+    // Compares each key with the next, as a merge checks key order and advances its cursors
+    @Benchmark
+    public void compareInOrder(RowCounter counter, Blackhole blackhole) {
+        for (int i = 1; i < encoded.length; i++) {
+            blackhole.consume(encoded[i - 1].compareTo(encoded[i]));
+        }
+        counter.rows += encoded.length;
+    }
+}
@@ -0,0 +1,65 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonOptions;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Value comparison of key-matched rows and construction of the results for those that differ, as
+ * every keyed engine ends up calling it. Rows missing from the target are reported as such.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RowComparisonBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"4", "16"})
+    public int columns;
+
+    @Param({"0.0", "0.01", "0.25"})
+    public double mismatchRate;
+
+    private ComparisonOptions options;
+    private String[][] sourceRows;
+    private String[][] targetRows;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticTable table = new SyntheticTable(rows, columns, mismatchRate, "long");
+        options = table.options();
+
+        // Pairs rows by key; the target side is null where the row is missing
+        List<Object[]> targetKeys = table.targetKeys();
+        sourceRows = table.sourceRows().toArray(String[][]::new);
+        targetRows = new String[sourceRows.length][];
+        int target = 0;
+        for (int i = 0; i < sourceRows.length && target < targetKeys.size(); i++) {
+            if (targetKeys.get(target)[0].equals(table.sourceKeys().get(i)[0])) {
+                targetRows[i] = table.targetRows().get(target++);
+            }
+        }
+    }
+
+    @Benchmark
+    public void compareRows(RowCounter counter, Blackhole blackhole) {
+        ComparisonContext context = new ComparisonContext(options, blackhole::consume);
+        context.useKeyColumns(options.getKeyColumns());
+        for (int i = 0; i < sourceRows.length; i++) {
+            if (targetRows[i] == null) {
+                context.missingTarget(sourceRows[i]);
+            } else {
+                context.compareRows(sourceRows[i], targetRows[i]);
+            }
+        }
+        counter.rows += sourceRows.length;
+    }
+}
@@ -0,0 +1,79 @@
+package com.dbcompare.service.engine;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a table into keys and rows from an in-memory H2 database, the way the engines load their
+ * input: ordered through a {@link KeyedCursor} for merges, and as one unordered streaming scan for
+ * hash partitioning. The database is the same for both, so differences come from the read path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class RowLoadingBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"4", "16"})
+    public int columns;
+
+    @Param({"long", "decimal", "string", "composite"})
+    public String keyType;
+
+    private DataSource dataSource;
+    private List<String> columnNames;
+    private KeyCodec codec;
+    // Only collects the phase times of the cursor's reader
+    private ComparisonContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        SyntheticTable table = new SyntheticTable(rows, columns, 0.0, keyType);
+        dataSource = table.loadIntoH2("row-loading");
+        columnNames = table.columns();
+        codec = new KeyCodec(table.keyTypes());
+        context = new ComparisonContext(table.options(), result -> {});
+    }
+
+    @Benchmark
+    public void orderedCursor(RowCounter counter, Blackhole blackhole) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = MergeJoinEngine.prepareOrderedQuery(conn, SyntheticTable.SOURCE_TABLE, columnNames, codec, KeyRange.ALL);
+             KeyedCursor cursor = new KeyedCursor(stmt, codec, columnNames.size(), null, "benchmark-reader", context)) {
+            while (cursor.next()) {
+                blackhole.consume(cursor.key());
+                blackhole.consume(cursor.row());
+                counter.rows++;
+            }
+        }
+    }
+
+    @Benchmark
+    public void streamingScan(RowCounter counter, Blackhole blackhole) throws SQLException {
+        String query = "SELECT " + String.join(", ", columnNames) + " FROM " + SyntheticTable.SOURCE_TABLE;
+        try (Connection conn = dataSource.getConnection();
+             PreparedStatement stmt = SqlDialect.of(conn).prepareStreaming(conn, query);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                blackhole.consume(codec.read(rs, 1));
+                for (int i = 1; i <= columnNames.size(); i++) {
+                    blackhole.consume(rs.getString(i));
+                }
+                counter.rows++;
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ColumnMapping;
+import com.dbcompare.model.ComparisonOptions;
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.StringJoiner;
+
+/**
+ * Source and target rows for benchmarks, generated from a fixed seed so every run sees the same
+ * data. Rows are in key order. Of the rows picked by the mismatch rate, one in four is missing from
+ * the target and the others differ from the source in one value column. Value columns cycle through
+ * integers, decimals and text.
+ */
+final class SyntheticTable {
+    private static final long SEED = 20240301L;
+    static final String SOURCE_TABLE = "source_rows";
+    static final String TARGET_TABLE = "target_rows";
+    private static final String WORDS = "abcdefghijklmnopqrstuvwxyz ";
+
+    private final String keyType;
+    private final int keyColumnCount;
+    private final List<String> columns = new ArrayList<>();
+    private final List<String[]> sourceRows = new ArrayList<>();
+    private final List<String[]> targetRows = new ArrayList<>();
+    private final List<Object[]> sourceKeys = new ArrayList<>();
+    private final List<Object[]> targetKeys = new ArrayList<>();
+
+    // Key types are "long", "decimal", "string", or "composite" for a long and a string column
+    SyntheticTable(int rows, int columnCount, double mismatchRate, String keyType) {
+        this.keyType = keyType;
+        this.keyColumnCount = keyType.equals("composite") ? 2 : 1;
+        if (columnCount <= keyColumnCount) {
+            throw new IllegalArgumentException("A " + keyType + " key needs more than " + columnCount + " columns");
+        }
+        for (int i = 0; i < columnCount; i++) {
+            columns.add(i < keyColumnCount ? "k" + i : "c" + i);
+        }
+
+        Random random = new Random(SEED);
+        for (int row = 0; row < rows; row++) {
+            Object[] key = key(row);
+            String[] values = new String[columnCount];
+            for (int i = 0; i < keyColumnCount; i++) {
+                values[i] = key[i].toString();
+            }
+            for (int i = keyColumnCount; i < columnCount; i++) {
+                values[i] = value(random, i);
+            }
+            sourceRows.add(values);
+            sourceKeys.add(key);
+
+            if (random.nextDouble() >= mismatchRate) {
+                targetRows.add(copy(values));
+                targetKeys.add(key);
+            } else if (random.nextInt(4) > 0) {
+                String[] changed = copy(values);
+                int column = keyColumnCount + random.nextInt(columnCount - keyColumnCount);
+                changed[column] = value(random, column);
+                targetRows.add(changed);
+                targetKeys.add(key);
+            }
+        }
+    }
+
+    KeyType[] keyTypes() {
+        return switch (keyType) {
+            case "long" -> new KeyType[]{KeyType.LONG};
+            case "decimal" -> new KeyType[]{KeyType.DECIMAL};
+            case "string" -> new KeyType[]{KeyType.STRING};
+            case "composite" -> new KeyType[]{KeyType.LONG, KeyType.STRING};
+            default -> throw new IllegalArgumentException("Unsupported key type: " + keyType);
+        };
+    }
+
+    int keyColumnCount() {
+        return keyColumnCount;
+    }
+
+    List<String> columns() {
+        return columns;
+    }
+
+    List<String[]> sourceRows() {
+        return sourceRows;
+    }
+
+    List<String[]> targetRows() {
+        return targetRows;
+    }
+
+    List<Object[]> sourceKeys() {
+        return sourceKeys;
+    }
+
+    List<Object[]> targetKeys() {
+        return targetKeys;
+    }
+
+    // Options comparing the two tables column by column on the generated key
+    ComparisonOptions options() {
+        List<ColumnMapping> mappings = new ArrayList<>();
+        for (String column : columns) {
+            ColumnMapping mapping = new ColumnMapping();
+            mapping.setSourceColumn(column);
+            mapping.setTargetColumn(column);
+            mappings.add(mapping);
+        }
+
+        ComparisonOptions options = new ComparisonOptions();
+        options.setSourceTable(SOURCE_TABLE);
+        options.setTargetTable(TARGET_TABLE);
+        options.setColumnMappings(mappings);
+        options.setKeyColumns(columns.subList(0, keyColumnCount));
+        options.setMatchingAlgorithm("exact");
+        options.setExportFormat("json");
+        return options;
+    }
+
+    // An in-memory H2 database holding the rows as SOURCE_TABLE and TARGET_TABLE, typed like the generated values
+    DataSource loadIntoH2(String databaseName) throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + databaseName + ";DB_CLOSE_DELAY=-1");
+        try (Connection conn = dataSource.getConnection()) {
+            load(conn, SOURCE_TABLE, sourceRows);
+            load(conn, TARGET_TABLE, targetRows);
+        }
+        return dataSource;
+    }
+
+    private void load(Connection conn, String table, List<String[]> rows) throws SQLException {
+        StringJoiner definition = new StringJoiner(", ");
+        StringJoiner placeholders = new StringJoiner(", ");
+        for (int i = 0; i < columns.size(); i++) {
+            definition.add(columns.get(i) + " " + sqlType(i) + (i < keyColumnCount ? " NOT NULL" : ""));
+            placeholders.add("?");
+        }
+        definition.add("PRIMARY KEY (" + String.join(", ", columns.subList(0, keyColumnCount)) + ")");
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + table);
+            stmt.execute("CREATE TABLE " + table + " (" + definition + ")");
+        }
+        try (PreparedStatement insert = conn.prepareStatement(
+            "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders + ")")) {
+            int batched = 0;
+            for (String[] row : rows) {
+                for (int i = 0; i < row.length; i++) {
+                    insert.setString(i + 1, row[i]);
+                }
+                insert.addBatch();
+                if (++batched % 10_000 == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+        }
+    }
+
+    // Zero-padded text keys sort like the numbers they were made from
+    private Object[] key(int row) {
+        return switch (keyType) {
+            case "long" -> new Object[]{(long) row};
+            case "decimal" -> new Object[]{BigDecimal.valueOf(row * 25L, 2)};
+            case "string" -> new Object[]{String.format("key-%010d", row)};
+            case "composite" -> new Object[]{(long) row / 16, String.format("part-%02d", row % 16)};
+            default -> throw new IllegalArgumentException("Unsupported key type: " + keyType);
+        };
+    }
+
+    private String sqlType(int column) {
+        if (column < keyColumnCount) {
+            return switch (keyTypes()[column]) {
+                case LONG -> "BIGINT";
+                case DECIMAL -> "DECIMAL(20, 2)";
+                case STRING -> "VARCHAR(32)";
+            };
+        }
+        return switch (column % 3) {
+            case 0 -> "BIGINT";
+            case 1 -> "DECIMAL(18, 4)";
+            default -> "VARCHAR(64)";
+        };
+    }
+
+    // Rows read from two databases never share strings, so equal values must not be the same instance
+    private static String[] copy(String[] values) {
+        String[] copy = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            copy[i] = new String(values[i]);
+        }
+        return copy;
+    }
+
+    private static String value(Random random, int column) {
+        return switch (column % 3) {
+            case 0 -> Long.toString(random.nextInt(1_000_000));
+            case 1 -> BigDecimal.valueOf(random.nextInt(100_000_000), 4).toPlainString();
+            default -> {
+                char[] text = new char[8 + random.nextInt(24)];
+                for (int i = 0; i < text.length; i++) {
+                    text[i] = WORDS.charAt(random.nextInt(WORDS.length()));
+                }
+                yield new String(text);
+            }
+        };
+    }
+}
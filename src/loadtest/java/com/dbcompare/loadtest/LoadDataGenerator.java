@@ -0,0 +1,207 @@
+package com.dbcompare.loadtest;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.StringJoiner;
+
+/**
+ * Fills a source and a target table with rows generated from a seed, streaming them into the
+ * databases so tables of any size can be made. Source keys are even numbers; of the rows that drift,
+ * half differ in one value column, a quarter are missing from the target, and a quarter have a
+ * neighbouring odd key in the target only. Skew concentrates the drift: the key space is cut into
+ * blocks whose share of it falls off with a Zipf exponent of the skew, over blocks in random order, so
+ * 0 spreads differences evenly and higher values crowd them into a few key ranges.
+ */
+final class LoadDataGenerator {
+    private static final int BLOCKS = 1024;
+    private static final int BATCH_SIZE = 10_000;
+    private static final String WORDS = "abcdefghijklmnopqrstuvwxyz ";
+
+    private final long rows;
+    private final int valueColumns;
+    private final double drift;
+    private final double skew;
+    private final long seed;
+
+    LoadDataGenerator(long rows, int valueColumns, double drift, double skew, long seed) {
+        if (rows <= 0 || valueColumns <= 0) {
+            throw new IllegalArgumentException("Rows and value columns must be positive: " + rows + ", " + valueColumns);
+        }
+        if (!(drift >= 0 && drift <= 1) || !(skew >= 0)) {
+            throw new IllegalArgumentException("Drift must be within [0, 1] and skew not negative: " + drift + ", " + skew);
+        }
+        this.rows = rows;
+        this.valueColumns = valueColumns;
+        this.drift = drift;
+        this.skew = skew;
+        this.seed = seed;
+    }
+
+    // Every column, the key first
+    List<String> columns() {
+        List<String> columns = new ArrayList<>();
+        columns.add("id");
+        for (int i = 1; i <= valueColumns; i++) {
+            columns.add("c" + i);
+        }
+        return columns;
+    }
+
+    // Replaces both tables; the counts are those the comparison must report
+    Expected generate(Connection source, String sourceTable, Connection target, String targetTable) throws SQLException {
+        double[] blockDrift = blockDrift();
+        Random random = new Random(seed);
+        Expected expected = new Expected();
+
+        try (PreparedStatement sourceInsert = create(source, sourceTable);
+             PreparedStatement targetInsert = create(target, targetTable)) {
+            Object[] values = new Object[valueColumns + 1];
+            for (long row = 0; row < rows; row++) {
+                values[0] = row * 2;
+                for (int i = 1; i <= valueColumns; i++) {
+                    values[i] = value(random, i);
+                }
+                add(sourceInsert, values);
+                expected.sourceRows++;
+
+                int block = (int) (row * BLOCKS / rows);
+                int kind = random.nextDouble() < blockDrift[block] ? random.nextInt(4) : -1;
+                if (kind == 2) {
+                    expected.missingTarget++;
+                } else {
+                    if (kind == 0 || kind == 1) {
+                        int column = 1 + random.nextInt(valueColumns);
+                        values[column] = changed(values[column]);
+                        expected.mismatched++;
+                    }
+                    add(targetInsert, values);
+                    expected.targetRows++;
+                }
+                if (kind == 3) {
+                    values[0] = row * 2 + 1;
+                    add(targetInsert, values);
+                    expected.targetRows++;
+                    expected.missingSource++;
+                }
+
+                if ((row + 1) % BATCH_SIZE == 0) {
+                    flush(sourceInsert);
+                    flush(targetInsert);
+                }
+            }
+            flush(sourceInsert);
+            flush(targetInsert);
+        }
+        return expected;
+    }
+
+    // Chance that a row of each block drifts, averaging the drift over all rows until a block saturates
+    private double[] blockDrift() {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < BLOCKS; i++) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(seed ^ 0x5DEECE66DL));
+
+        double[] weights = new double[BLOCKS];
+        double total = 0;
+        for (int rank = 0; rank < BLOCKS; rank++) {
+            weights[order.get(rank)] = Math.pow(rank + 1, -skew);
+            total += weights[order.get(rank)];
+        }
+        double[] chance = new double[BLOCKS];
+        for (int i = 0; i < BLOCKS; i++) {
+            chance[i] = Math.min(1, drift * BLOCKS * weights[i] / total);
+        }
+        return chance;
+    }
+
+    private PreparedStatement create(Connection conn, String table) throws SQLException {
+        List<String> columns = columns();
+        StringJoiner definition = new StringJoiner(", ");
+        StringJoiner placeholders = new StringJoiner(", ");
+        for (int i = 0; i < columns.size(); i++) {
+            definition.add(columns.get(i) + " " + sqlType(i));
+            placeholders.add("?");
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            int dot = table.indexOf('.');
+            if (dot > 0) {
+                stmt.execute("CREATE SCHEMA IF NOT EXISTS " + table.substring(0, dot));
+            }
+            stmt.execute("DROP TABLE IF EXISTS " + table);
+            stmt.execute("CREATE TABLE " + table + " (" + definition + ", PRIMARY KEY (id))");
+        }
+        conn.setAutoCommit(false);
+        return conn.prepareStatement("INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (" + placeholders + ")");
+    }
+
+    private static void add(PreparedStatement insert, Object[] values) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            insert.setObject(i + 1, values[i]);
+        }
+        insert.addBatch();
+    }
+
+    private static void flush(PreparedStatement insert) throws SQLException {
+        insert.executeBatch();
+        insert.getConnection().commit();
+    }
+
+    private static String sqlType(int column) {
+        if (column == 0) {
+            return "BIGINT NOT NULL";
+        }
+        return switch (column % 3) {
+            case 0 -> "BIGINT";
+            case 1 -> "DECIMAL(18, 4)";
+            default -> "VARCHAR(64)";
+        };
+    }
+
+    private static Object value(Random random, int column) {
+        return switch (column % 3) {
+            case 0 -> (long) random.nextInt(1_000_000);
+            case 1 -> BigDecimal.valueOf(random.nextInt(100_000_000), 4);
+            default -> {
+                char[] text = new char[8 + random.nextInt(24)];
+                for (int i = 0; i < text.length; i++) {
+                    text[i] = WORDS.charAt(random.nextInt(WORDS.length()));
+                }
+                yield new String(text);
+            }
+        };
+    }
+
+    // Always a different value of the same type, so every changed row is a mismatch
+    private static Object changed(Object value) {
+        if (value instanceof Long number) {
+            return number + 1;
+        }
+        if (value instanceof BigDecimal decimal) {
+            return decimal.add(BigDecimal.ONE);
+        }
+        return value + "x";
+    }
+
+    // Row counts of both tables and the differences between them
+    static final class Expected {
+        long sourceRows;
+        long targetRows;
+        long mismatched;
+        long missingSource;
+        long missingTarget;
+
+        long differences() {
+            return mismatched + missingSource + missingTarget;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package com.dbcompare.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.h2.tools.Server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load test: generates a source and a target database, serves them from an H2 TCP server
+ * in this process, starts the application in a JVM of its own and drives /api/compare over HTTP in
+ * every mode asked for. Each mode is run a few times after a warm-up, and the differences it reports
+ * are checked against those generated. The report records latency, throughput over the rows of both
+ * tables, and the peak heap of the application, which is sampled from its metrics endpoint while the
+ * comparison runs, so short peaks between samples can be missed.
+ * <p>
+ * Settings are system properties, all optional: loadtest.rows, loadtest.columns, loadtest.drift,
+ * loadtest.skew, loadtest.seed, loadtest.modes (comma separated), loadtest.warmups,
+ * loadtest.iterations, loadtest.heap (-Xmx of the application), loadtest.directory, and
+ * loadtest.baseline with loadtest.tolerance. Given a baseline, a report from an earlier run, a mode
+ * whose median latency or peak heap grew by more than the tolerance fails the run, as does a wrong
+ * result; the exit status is then 1.
+ */
+public final class LoadTest {
+    private static final String USER = "sa";
+    private static final String PASSWORD = "loadtest";
+    private static final String SOURCE_DATABASE = "src";
+    private static final String TARGET_DATABASE = "tgt";
+    private static final String TABLE = "load_rows";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final long rows = Long.getLong("loadtest.rows", 200_000);
+    private final int columns = Integer.getInteger("loadtest.columns", 8);
+    private final double drift = Double.parseDouble(System.getProperty("loadtest.drift", "0.01"));
+    private final double skew = Double.parseDouble(System.getProperty("loadtest.skew", "1.0"));
+    private final long seed = Long.getLong("loadtest.seed", 20240301L);
+    private final List<String> modes = Arrays.asList(System.getProperty("loadtest.modes", "hash,merge,checksum,keys").split(","));
+    private final int warmups = Integer.getInteger("loadtest.warmups", 1);
+    private final int iterations = Integer.getInteger("loadtest.iterations", 3);
+    private final String heap = System.getProperty("loadtest.heap", "1g");
+    private final Path directory = Path.of(System.getProperty("loadtest.directory", "target/loadtest")).toAbsolutePath();
+    private final String baseline = System.getProperty("loadtest.baseline");
+    private final double tolerance = Double.parseDouble(System.getProperty("loadtest.tolerance", "0.25"));
+    private final List<String> failures = new ArrayList<>();
+    private String baseUrl;
+
+    public static void main(String[] args) throws Exception {
+        LoadTest test = new LoadTest();
+        test.run();
+        if (!test.failures.isEmpty()) {
+            test.failures.forEach(failure -> System.err.println("FAILED: " + failure));
+            System.exit(1);
+        }
+    }
+
+    private void run() throws Exception {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.filter(file -> file.toString().endsWith(".db")).toList()) {
+                Files.delete(file);
+            }
+        }
+
+        LoadDataGenerator generator = new LoadDataGenerator(rows, columns, drift, skew, seed);
+        long start = System.nanoTime();
+        LoadDataGenerator.Expected expected;
+        try (Connection source = DriverManager.getConnection(fileUrl(SOURCE_DATABASE), USER, PASSWORD);
+             Connection target = DriverManager.getConnection(fileUrl(TARGET_DATABASE), USER, PASSWORD)) {
+            expected = generator.generate(source, SOURCE_DATABASE + "." + TABLE, target, TARGET_DATABASE + "." + TABLE);
+        }
+        System.out.printf(Locale.ROOT, "Generated %d source and %d target rows with %d differences in %d ms%n",
+            expected.sourceRows, expected.targetRows, expected.differences(), (System.nanoTime() - start) / 1_000_000);
+
+        int databasePort = freePort();
+        Server server = Server.createTcpServer("-tcpPort", Integer.toString(databasePort), "-baseDir", directory.toString(), "-ifExists").start();
+        Process app = null;
+        try {
+            int appPort = freePort();
+            baseUrl = "http://localhost:" + appPort;
+            app = startApplication(appPort);
+            connect(SOURCE_DATABASE, databasePort);
+            connect(TARGET_DATABASE, databasePort);
+
+            ObjectNode report = mapper.createObjectNode();
+            report.put("rows", rows);
+            report.put("columns", columns);
+            report.put("drift", drift);
+            report.put("skew", skew);
+            report.put("heap", heap);
+            ObjectNode results = report.putObject("modes");
+            for (String mode : modes) {
+                results.set(mode.trim(), measure(mode.trim(), generator, expected));
+            }
+
+            Path reportFile = directory.resolve("report.json");
+            mapper.writerWithDefaultPrettyPrinter().writeValue(reportFile.toFile(), report);
+            System.out.println("Report written to " + reportFile);
+            if (baseline != null) {
+                compareWithBaseline(results, mapper.readTree(new File(baseline)).path("modes"));
+            }
+        } finally {
+            if (app != null) {
+                app.destroy();
+                app.waitFor();
+            }
+            server.stop();
+        }
+    }
+
+    private ObjectNode measure(String mode, LoadDataGenerator generator, LoadDataGenerator.Expected expected) throws Exception {
+        String request = mapper.writeValueAsString(comparison(mode, generator));
+        long[] latencies = new long[iterations];
+        long peakHeap = 0;
+        for (int i = -warmups; i < iterations; i++) {
+            HeapSampler sampler = new HeapSampler();
+            sampler.start();
+            long start = System.nanoTime();
+            HttpResponse<InputStream> response;
+            try {
+                response = http.send(post("/api/compare", request), HttpResponse.BodyHandlers.ofInputStream());
+                if (response.statusCode() != 200) {
+                    response.body().close();
+                    throw new IllegalStateException("Comparison in " + mode + " mode failed with status " + response.statusCode());
+                }
+                check(mode, mapper.readTree(response.body()), expected);
+            } finally {
+                sampler.finish();
+            }
+            if (i >= 0) {
+                latencies[i] = (System.nanoTime() - start) / 1_000_000;
+                peakHeap = Math.max(peakHeap, sampler.peak.get());
+            }
+        }
+
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        long median = sorted[(sorted.length - 1) / 2];
+        long rowsPerSecond = median == 0 ? 0 : (expected.sourceRows + expected.targetRows) * 1000 / median;
+        System.out.printf(Locale.ROOT, "%-10s median %6d ms  max %6d ms  %10d rows/s  peak heap %5d MB%n",
+            mode, median, sorted[sorted.length - 1], rowsPerSecond, peakHeap / (1024 * 1024));
+
+        ObjectNode result = mapper.createObjectNode();
+        ArrayNode runs = result.putArray("latencyMillis");
+        Arrays.stream(latencies).forEach(runs::add);
+        result.put("medianMillis", median);
+        result.put("maxMillis", sorted[sorted.length - 1]);
+        result.put("rowsPerSecond", rowsPerSecond);
+        result.put("peakHeapBytes", peakHeap);
+        return result;
+    }
+
+    // Results are counted by status rather than held, so large drifts do not weigh on this process
+    private void check(String mode, JsonNode results, LoadDataGenerator.Expected expected) {
+        long mismatched = 0;
+        long missingSource = 0;
+        long missingTarget = 0;
+        for (JsonNode result : results) {
+            switch (result.path("status").asText()) {
+                case "mismatched" -> mismatched++;
+                case "missing_source" -> missingSource++;
+                case "missing_target" -> missingTarget++;
+                default -> { }
+            }
+        }
+        if (mismatched != expected.mismatched || missingSource != expected.missingSource || missingTarget != expected.missingTarget) {
+            failures.add(String.format(Locale.ROOT,
+                "%s mode reported %d mismatched, %d missing in source and %d missing in target rows instead of %d, %d and %d",
+                mode, mismatched, missingSource, missingTarget, expected.mismatched, expected.missingSource, expected.missingTarget));
+        }
+    }
+
+    private void compareWithBaseline(JsonNode results, JsonNode baseline) {
+        results.fields().forEachRemaining(entry -> {
+            JsonNode before = baseline.path(entry.getKey());
+            if (before.isMissingNode()) {
+                return;
+            }
+            checkGrowth(entry.getKey(), "median latency", before.path("medianMillis").asLong(), entry.getValue().path("medianMillis").asLong());
+            checkGrowth(entry.getKey(), "peak heap", before.path("peakHeapBytes").asLong(), entry.getValue().path("peakHeapBytes").asLong());
+        });
+    }
+
+    private void checkGrowth(String mode, String measure, long before, long now) {
+        if (before > 0 && now > before * (1 + tolerance)) {
+            failures.add(String.format(Locale.ROOT, "%s mode %s grew from %d to %d, more than %.0f%%",
+                mode, measure, before, now, tolerance * 100));
+        }
+    }
+
+    private ObjectNode comparison(String mode, LoadDataGenerator generator) {
+        ObjectNode options = mapper.createObjectNode();
+        options.put("sourceTable", SOURCE_DATABASE + "." + TABLE);
+        options.put("targetTable", TARGET_DATABASE + "." + TABLE);
+        ArrayNode mappings = options.putArray("columnMappings");
+        for (String column : generator.columns()) {
+            mappings.addObject().put("sourceColumn", column).put("targetColumn", column);
+        }
+        options.putArray("keyColumns").add("id");
+        options.put("matchingAlgorithm", "exact");
+        options.put("exportFormat", "json");
+        options.put("comparisonMode", mode);
+        return options;
+    }
+
+    // The application runs on the classpath of this one, which the loadtest profile writes out
+    private Process startApplication(int port) throws Exception {
+        Path log = directory.resolve("application.log");
+        Process process = new ProcessBuilder(
+            Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-Xmx" + heap,
+            "-cp", System.getProperty("java.class.path"),
+            "com.dbcompare.DatabaseComparisonApplication",
+            "--server.port=" + port,
+            "--logging.level.com.dbcompare=INFO"
+        ).redirectErrorStream(true).redirectOutput(log.toFile()).start();
+
+        long deadline = System.nanoTime() + Duration.ofMinutes(2).toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Application exited with status " + process.exitValue() + ", see " + log);
+            }
+            try {
+                if (http.send(get("/actuator/health"), HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return process;
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(250);
+        }
+        process.destroy();
+        throw new IllegalStateException("Application did not start within 2 minutes, see " + log);
+    }
+
+    private void connect(String database, int port) throws Exception {
+        ObjectNode connection = mapper.createObjectNode();
+        connection.put("hostname", "localhost");
+        connection.put("port", Integer.toString(port));
+        connection.put("username", USER);
+        connection.put("password", PASSWORD);
+        connection.put("databaseType", "h2");
+        connection.put("databaseName", database);
+        HttpResponse<String> response = http.send(post("/api/connect", mapper.writeValueAsString(connection)), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Could not connect to " + database + ": " + response.body());
+        }
+    }
+
+    private String fileUrl(String database) {
+        return "jdbc:h2:file:" + directory.resolve(database);
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(10)).GET().build();
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+            .header("Content-Type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    // Polls the heap in use while a comparison runs
+    private final class HeapSampler extends Thread {
+        private static final long INTERVAL_MILLIS = 20;
+
+        private final AtomicLong peak = new AtomicLong();
+        private volatile boolean running = true;
+
+        HeapSampler() {
+            super("heap-sampler");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    String body = http.send(get("/actuator/metrics/jvm.memory.used?tag=area:heap"), HttpResponse.BodyHandlers.ofString()).body();
+                    long used = mapper.readTree(body).path("measurements").path(0).path("value").asLong();
+                    peak.accumulateAndGet(used, Math::max);
+                    Thread.sleep(INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    // A missed sample only makes the peak less precise
+                }
+            }
+        }
+
+        void finish() throws InterruptedException {
+            running = false;
+            interrupt();
+            join();
+        }
+    }
+}
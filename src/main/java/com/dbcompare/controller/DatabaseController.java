@@ -2,16 +2,36 @@ package com.dbcompare.controller;
 
 import com.dbcompare.model.DatabaseConnection;
 import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.model.ComparisonPreview;
 import com.dbcompare.model.ComparisonResult;
+import com.dbcompare.model.ComparisonSummary;
+import com.dbcompare.model.DatabaseComparisonRequest;
+import com.dbcompare.model.DatabaseComparisonStatus;
+import com.dbcompare.model.JobStatus;
+import com.dbcompare.model.PoolStats;
+import com.dbcompare.model.ResultPage;
+import com.dbcompare.service.ComparisonJobService;
+import com.dbcompare.service.DataSourceRegistry;
+import com.dbcompare.service.DatabaseComparisonService;
 import com.dbcompare.service.DatabaseService;
 import com.dbcompare.service.ComparisonService;
+import com.dbcompare.service.export.ExportService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.sql.DataSource;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -23,7 +43,12 @@ import java.util.concurrent.ConcurrentHashMap;
 public class DatabaseController {
     
     private final DatabaseService databaseService;
+    private final DataSourceRegistry dataSourceRegistry;
     private final ComparisonService comparisonService;
+    private final ComparisonJobService comparisonJobService;
+    private final DatabaseComparisonService databaseComparisonService;
+    private final ExportService exportService;
+    private final ObjectMapper objectMapper;
     private final Map<String, DataSource> connections = new ConcurrentHashMap<>();
     
     @PostMapping("/connect")
@@ -46,6 +71,11 @@ public class DatabaseController {
         }
     }
     
+    @GetMapping("/pools")
+    public ResponseEntity<List<PoolStats>> getPools() {
+        return ResponseEntity.ok(dataSourceRegistry.getStats());
+    }
+    
     @GetMapping("/tables/{dbName}")
     public ResponseEntity<List<String>> getTables(@PathVariable String dbName) {
         try {
@@ -81,6 +111,47 @@ public class DatabaseController {
         }
     }
     
+    // Loads the columns of every table in a schema at once, the connection's current schema when none is given
+    @PostMapping("/metadata/{dbName}/prefetch")
+    public ResponseEntity<Map<String, Object>> prefetchMetadata(
+        @PathVariable String dbName,
+        @RequestParam(required = false) String schema
+    ) {
+        try {
+            DataSource dataSource = connections.get(dbName);
+            if (dataSource == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            
+            int tables = databaseService.prefetchColumns(dataSource, schema);
+            return ResponseEntity.ok(Map.of(
+                "success", true,
+                "tables", tables
+            ));
+        } catch (Exception e) {
+            log.error("Failed to prefetch metadata", e);
+            return ResponseEntity.badRequest().body(Map.of(
+                "success", false,
+                "message", e.getMessage()
+            ));
+        }
+    }
+    
+    // Forgets cached metadata of one table, or of the whole connection, after the schema changed
+    @DeleteMapping("/metadata/{dbName}")
+    public ResponseEntity<Map<String, Object>> invalidateMetadata(
+        @PathVariable String dbName,
+        @RequestParam(required = false) String table
+    ) {
+        DataSource dataSource = connections.get(dbName);
+        if (dataSource == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        databaseService.invalidateMetadata(dataSource, table);
+        return ResponseEntity.ok(Map.of("success", true));
+    }
+    
     @PostMapping("/compare")
     public ResponseEntity<List<ComparisonResult>> compare(@Valid @RequestBody ComparisonOptions options) {
         try {
@@ -98,4 +169,166 @@ public class DatabaseController {
             return ResponseEntity.badRequest().build();
         }
     }
+    
+    // Counts of the differences instead of the differences themselves, for checks that only need to know how much differs
+    @PostMapping("/compare/summary")
+    public ResponseEntity<ComparisonSummary> summarize(@Valid @RequestBody ComparisonOptions options) {
+        try {
+            DataSource sourceDs = connections.get(options.getSourceTable().split("\\.")[0]);
+            DataSource targetDs = connections.get(options.getTargetTable().split("\\.")[0]);
+            
+            if (sourceDs == null || targetDs == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            
+            return ResponseEntity.ok(comparisonService.summarizeTables(sourceDs, targetDs, options));
+        } catch (Exception e) {
+            log.error("Failed to summarize comparison", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    // Estimated mismatch and missing-row rates from samples, to decide whether the full comparison is worth running
+    @PostMapping("/compare/preview")
+    public ResponseEntity<ComparisonPreview> preview(@Valid @RequestBody ComparisonOptions options) {
+        try {
+            DataSource sourceDs = connections.get(options.getSourceTable().split("\\.")[0]);
+            DataSource targetDs = connections.get(options.getTargetTable().split("\\.")[0]);
+            
+            if (sourceDs == null || targetDs == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            
+            return ResponseEntity.ok(comparisonService.previewTables(sourceDs, targetDs, options));
+        } catch (Exception e) {
+            log.error("Failed to preview comparison", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    // Same comparison as /compare, written as newline-delimited JSON while differences are found
+    @PostMapping(value = "/compare/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> compareStream(@Valid @RequestBody ComparisonOptions options) {
+        DataSource sourceDs = connections.get(options.getSourceTable().split("\\.")[0]);
+        DataSource targetDs = connections.get(options.getTargetTable().split("\\.")[0]);
+        
+        if (sourceDs == null || targetDs == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        
+        StreamingResponseBody body = out -> {
+            NdjsonResultWriter writer = new NdjsonResultWriter(out, objectMapper);
+            try {
+                comparisonService.compareTables(sourceDs, targetDs, options, writer);
+            } catch (UncheckedIOException e) {
+                log.warn("Comparison stopped, client disconnected: {}", e.getMessage());
+                return;
+            } catch (Exception e) {
+                log.error("Failed to compare tables", e);
+                writer.error(e.getMessage());
+            }
+            writer.close();
+        };
+        
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType("application/x-ndjson"))
+            .body(body);
+    }
+    
+    @PostMapping("/jobs")
+    public ResponseEntity<JobStatus> submitJob(@Valid @RequestBody ComparisonOptions options) {
+        try {
+            DataSource sourceDs = connections.get(options.getSourceTable().split("\\.")[0]);
+            DataSource targetDs = connections.get(options.getTargetTable().split("\\.")[0]);
+            
+            if (sourceDs == null || targetDs == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            
+            JobStatus status = comparisonJobService.submit(sourceDs, targetDs, options);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+        } catch (IllegalStateException e) {
+            log.warn("Rejected comparison job: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        } catch (Exception e) {
+            log.error("Failed to submit comparison job", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<JobStatus> getJob(@PathVariable String jobId) {
+        return ResponseEntity.of(comparisonJobService.getStatus(jobId));
+    }
+    
+    // One page of a job's results, optionally only one status and the rows where one column differs
+    @GetMapping("/jobs/{jobId}/results")
+    public ResponseEntity<ResultPage> getJobResults(
+        @PathVariable String jobId,
+        @RequestParam(required = false) String status,
+        @RequestParam(required = false) String column,
+        @RequestParam(defaultValue = "0") int page,
+        @RequestParam(defaultValue = "100") int size
+    ) {
+        try {
+            return ResponseEntity.of(comparisonJobService.getResults(jobId, status, column, page, size));
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected results request of job {}: {}", jobId, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            log.error("Failed to read results of job {}", jobId, e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+    
+    @GetMapping("/jobs/{jobId}/export")
+    public ResponseEntity<Resource> downloadExport(@PathVariable String jobId) {
+        try {
+            return comparisonJobService.getExport(jobId)
+                .map(file -> ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(exportService.mediaType(file)))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(file.getFileName().toString())
+                        .build()
+                        .toString())
+                    .body((Resource) new FileSystemResource(file)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+    }
+    
+    @DeleteMapping("/jobs/{jobId}")
+    public ResponseEntity<JobStatus> cancelJob(@PathVariable String jobId) {
+        return ResponseEntity.of(comparisonJobService.cancel(jobId));
+    }
+    
+    // Compares every table the two connected databases have in common; poll the returned id for the per-table report
+    @PostMapping("/database-comparisons")
+    public ResponseEntity<DatabaseComparisonStatus> submitDatabaseComparison(@Valid @RequestBody DatabaseComparisonRequest request) {
+        try {
+            DataSource sourceDs = connections.get(request.getSourceDatabase());
+            DataSource targetDs = connections.get(request.getTargetDatabase());
+            
+            if (sourceDs == null || targetDs == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            
+            DatabaseComparisonStatus status = databaseComparisonService.submit(sourceDs, targetDs, request);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(status);
+        } catch (Exception e) {
+            log.error("Failed to submit database comparison", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    @GetMapping("/database-comparisons/{comparisonId}")
+    public ResponseEntity<DatabaseComparisonStatus> getDatabaseComparison(@PathVariable String comparisonId) {
+        return ResponseEntity.of(databaseComparisonService.getStatus(comparisonId));
+    }
+    
+    @DeleteMapping("/database-comparisons/{comparisonId}")
+    public ResponseEntity<DatabaseComparisonStatus> cancelDatabaseComparison(@PathVariable String comparisonId) {
+        return ResponseEntity.of(databaseComparisonService.cancel(comparisonId));
+    }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.dbcompare.controller;
+
+import com.dbcompare.model.ComparisonResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Writes comparison results to a response as newline-delimited JSON while the engine produces them.
+ * Each result is written with its newline before any flush, so a client reading lines never waits
+ * for the next result to finish one. The first result goes out immediately; later ones are flushed
+ * in small batches. Writes block when the client reads slowly, which holds back the engine, and fail
+ * once it disconnects, which stops it.
+ */
+class NdjsonResultWriter implements Consumer<ComparisonResult> {
+    private static final int FLUSH_EVERY = 256;
+    private static final long FLUSH_INTERVAL_NANOS = 100_000_000L;
+
+    private final OutputStream out;
+    private final ObjectWriter writer;
+    private int pending;
+    private long lastFlush = System.nanoTime();
+    private boolean written;
+
+    NdjsonResultWriter(OutputStream out, ObjectMapper objectMapper) {
+        this.out = new BufferedOutputStream(out);
+        this.writer = objectMapper.writer();
+    }
+
+    @Override
+    public synchronized void accept(ComparisonResult result) {
+        try {
+            writeLine(result);
+            pending++;
+            if (!written || pending >= FLUSH_EVERY || System.nanoTime() - lastFlush >= FLUSH_INTERVAL_NANOS) {
+                flush();
+            }
+            written = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Client stopped reading comparison results", e);
+        }
+    }
+
+    // A failure after the response has started is reported as a final line instead of a status code
+    synchronized void error(String message) throws IOException {
+        writeLine(Map.of("error", message == null ? "Comparison failed" : message));
+        flush();
+    }
+
+    synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private void writeLine(Object value) throws IOException {
+        out.write(writer.writeValueAsBytes(value));
+        out.write('\n');
+    }
+
+    private void flush() throws IOException {
+        out.flush();
+        pending = 0;
+        lastFlush = System.nanoTime();
+    }
+}
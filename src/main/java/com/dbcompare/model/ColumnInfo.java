@@ -0,0 +1,18 @@
+package com.dbcompare.model;
+
+import lombok.Data;
+
+@Data
+public class ColumnInfo {
+    private String name;
+    
+    private String typeName;
+    
+    private int sqlType;
+    
+    private int size;
+    
+    private int decimalDigits;
+    
+    private boolean nullable;
+}
@@ -18,6 +18,8 @@ public class ComparisonOptions {
     
     private List<String> skipColumns;
     
+    private List<String> keyColumns;
+    
     @NotBlank
     private String matchingAlgorithm;
     
@@ -25,4 +27,22 @@ public class ComparisonOptions {
     
     @NotBlank
     private String exportFormat;
+    
+    private Boolean exportGzip;
+    
+    private String comparisonMode;
+    
+    private Integer memoryBudgetMb;
+    
+    private Integer parallelism;
+    
+    private String watermarkColumn;
+    
+    private List<List<String>> changedKeys;
+    
+    private Double numericTolerance;
+    
+    private Integer timestampPrecision;
+    
+    private Integer sampleRows;
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.dbcompare.model;
+
+import lombok.Data;
+import java.util.Map;
+
+@Data
+public class ComparisonPreview {
+    private String samplingMethod;
+    
+    private double sourceSampleFraction;
+    
+    private double targetSampleFraction;
+    
+    private long sourceRowsSampled;
+    
+    private long targetRowsSampled;
+    
+    private long estimatedSourceRows;
+    
+    private long estimatedTargetRows;
+    
+    private RateEstimate mismatched;
+    
+    private RateEstimate missingTarget;
+    
+    private RateEstimate missingSource;
+    
+    private long estimatedDistinctSourceKeys;
+    
+    private long estimatedDistinctTargetKeys;
+    
+    private Map<String, Double> columnMismatchRates;
+    
+    private long durationMillis;
+    
+    @Data
+    public static class RateEstimate {
+        private long sampled;
+        private long observed;
+        private double rate;
+        private double lower;
+        private double upper;
+        private Long estimatedRows;
+        private Long estimatedRowsLower;
+        private Long estimatedRowsUpper;
+    }
+}
@@ -7,6 +7,8 @@ import java.util.Map;
 public class ComparisonResult {
     private Long id;
     private String status;
+    private Map<String, String> key;
+    private Double similarity;
     private Map<String, ValueDifference> differences;
     
     @Data
@@ -0,0 +1,29 @@
+package com.dbcompare.model;
+
+import lombok.Data;
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class ComparisonSummary {
+    private long differences;
+    
+    private Map<String, Long> differencesByStatus;
+    
+    private Map<String, Long> columnMismatches;
+    
+    private List<SampleDifference> sampleDifferences;
+    
+    private long sourceRowsRead;
+    
+    private long targetRowsRead;
+    
+    private long durationMillis;
+    
+    @Data
+    public static class SampleDifference {
+        private String status;
+        private Map<String, String> key;
+        private List<String> columns;
+    }
+}
@@ -0,0 +1,37 @@
+package com.dbcompare.model;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class DatabaseComparisonRequest {
+    @NotBlank
+    private String sourceDatabase;
+    
+    @NotBlank
+    private String targetDatabase;
+    
+    private Map<String, String> tableMappings;
+    
+    private String sourcePrefix;
+    
+    private String targetPrefix;
+    
+    private Boolean caseSensitive;
+    
+    private String includePattern;
+    
+    private String excludePattern;
+    
+    private List<String> skipColumns;
+    
+    private String comparisonMode;
+    
+    private Integer parallelism;
+    
+    private Double numericTolerance;
+    
+    private Integer timestampPrecision;
+}
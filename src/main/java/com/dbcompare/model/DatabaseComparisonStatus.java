@@ -0,0 +1,36 @@
+package com.dbcompare.model;
+
+import lombok.Data;
+import java.time.Instant;
+import java.util.List;
+
+@Data
+public class DatabaseComparisonStatus {
+    private String comparisonId;
+    
+    private String status;
+    
+    private String sourceDatabase;
+    
+    private String targetDatabase;
+    
+    private int tablesTotal;
+    
+    private int tablesFinished;
+    
+    private int tablesWithDifferences;
+    
+    private int tablesFailed;
+    
+    private long differences;
+    
+    private List<TableComparisonSummary> tables;
+    
+    private List<String> unmatchedSourceTables;
+    
+    private List<String> unmatchedTargetTables;
+    
+    private Instant submittedAt;
+    
+    private Instant finishedAt;
+}
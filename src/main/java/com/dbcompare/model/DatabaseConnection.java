@@ -1,6 +1,8 @@
 package com.dbcompare.model;
 
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import lombok.Data;
 
 @Data
@@ -22,4 +24,14 @@ public class DatabaseConnection {
     
     @NotBlank
     private String databaseName;
+    
+    // Pool settings; unset ones fall back to the app.datasource defaults
+    @Positive
+    private Integer maxPoolSize;
+    
+    @PositiveOrZero
+    private Integer minIdle;
+    
+    @Positive
+    private Integer connectionTimeoutSeconds;
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+package com.dbcompare.model;
+
+import lombok.Data;
+import java.time.Instant;
+
+@Data
+public class JobStatus {
+    private String jobId;
+    
+    private String status;
+    
+    private String message;
+    
+    private long sourceRowsRead;
+    
+    private long targetRowsRead;
+    
+    private long estimatedSourceRows;
+    
+    private long estimatedTargetRows;
+    
+    private long differences;
+    
+    private Double progress;
+    
+    private Long etaSeconds;
+    
+    private long exportBytes;
+    
+    private Instant submittedAt;
+    
+    private Instant startedAt;
+    
+    private Instant finishedAt;
+}
@@ -0,0 +1,22 @@
+package com.dbcompare.model;
+
+import lombok.Data;
+
+@Data
+public class PoolStats {
+    private String key;
+    
+    private boolean open;
+    
+    private int activeConnections;
+    
+    private int idleConnections;
+    
+    private int threadsAwaitingConnection;
+    
+    private int totalConnections;
+    
+    private int maxPoolSize;
+    
+    private long idleSeconds;
+}
@@ -0,0 +1,15 @@
+package com.dbcompare.model;
+
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class ResultPage {
+    private int page;
+    
+    private int size;
+    
+    private long totalResults;
+    
+    private List<ComparisonResult> results;
+}
@@ -0,0 +1,35 @@
+package com.dbcompare.model;
+
+import lombok.Data;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class TableComparisonSummary {
+    private String sourceTable;
+    
+    private String targetTable;
+    
+    private String status;
+    
+    private String message;
+    
+    private long estimatedRows;
+    
+    private long sourceRowsRead;
+    
+    private long targetRowsRead;
+    
+    private long differences;
+    
+    private Map<String, Long> differencesByStatus;
+    
+    private Map<String, Long> columnMismatches;
+    
+    private List<ComparisonSummary.SampleDifference> sampleDifferences;
+    
+    private Instant startedAt;
+    
+    private Instant finishedAt;
+}
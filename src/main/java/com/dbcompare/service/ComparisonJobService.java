@@ -0,0 +1,335 @@
+package com.dbcompare.service;
+
+import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.model.ComparisonResult;
+import com.dbcompare.model.JobStatus;
+import com.dbcompare.model.ResultPage;
+import com.dbcompare.service.engine.ComparisonContext;
+import com.dbcompare.service.export.ExportService;
+import com.dbcompare.service.export.ResultExporter;
+import com.dbcompare.service.results.ResultLog;
+import com.dbcompare.service.results.ResultStore;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs comparisons in the background on a bounded executor. Jobs report progress from the engine
+ * counters, can be cancelled, and are dropped a while after they finish. Every result is written to
+ * the job's export file and to its result log as it is produced; the API serves results a page at a
+ * time from the log, so none of them are held in memory.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ComparisonJobService {
+
+    private final ComparisonService comparisonService;
+    private final ExportService exportService;
+    private final ResultStore resultStore;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor executor;
+    private final ScheduledExecutorService pruner = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "job-pruner");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${app.comparison.max-concurrent-jobs:4}")
+    private int maxConcurrentJobs;
+
+    @Value("${app.comparison.job-queue-size:16}")
+    private int jobQueueSize;
+
+    @Value("${app.comparison.job-retention-minutes:60}")
+    private long retentionMinutes;
+
+    @Value("${app.comparison.result-page-max-size:1000}")
+    private int maxPageSize;
+
+    // Jobs beyond the queue are rejected rather than piling up, since each holds database connections while it runs
+    @PostConstruct
+    public void start() {
+        executor = new ThreadPoolExecutor(
+            maxConcurrentJobs,
+            maxConcurrentJobs,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(jobQueueSize),
+            jobThreadFactory()
+        );
+        
+        for (String state : List.of("queued", "running")) {
+            Gauge.builder("dbcompare.jobs", jobs, map -> map.values().stream().filter(job -> state.equals(job.state)).count())
+                .description("Comparison jobs by state")
+                .tag("state", state)
+                .register(meterRegistry);
+        }
+        Gauge.builder("dbcompare.jobs.results.stored", jobs, map -> map.values().stream().mapToLong(job -> job.results.bytesWritten()).sum())
+            .description("Bytes of result logs kept on disk for the job results API")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+
+        // Finished jobs hold export files and result logs on disk, so they are dropped even when no new jobs arrive
+        pruner.scheduleWithFixedDelay(this::pruneFinishedJobs, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pruner.shutdownNow();
+        jobs.values().forEach(job -> job.context.cancel("Server is shutting down"));
+        executor.shutdownNow();
+        jobs.values().forEach(Job::deleteResults);
+    }
+
+    public JobStatus submit(DataSource sourceDs, DataSource targetDs, ComparisonOptions options) throws IOException {
+        pruneFinishedJobs();
+
+        Job job = new Job(UUID.randomUUID().toString());
+        job.context = new ComparisonContext(options, result -> record(job, result));
+        job.exporter = exportService.open(job.id, options, job.context.getSourceColumns());
+        try {
+            job.results = resultStore.open(job.id, job.context.getSourceColumns());
+        } catch (IOException | RuntimeException e) {
+            job.closeExport();
+            exportService.delete(job.id);
+            throw e;
+        }
+        jobs.put(job.id, job);
+
+        try {
+            job.future = executor.submit(() -> run(job, sourceDs, targetDs));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            job.closeExport();
+            job.deleteResults();
+            exportService.delete(job.id);
+            throw new IllegalStateException("Too many comparison jobs are queued; try again later");
+        }
+        return job.status();
+    }
+
+    public Optional<JobStatus> getStatus(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(Job::status);
+    }
+
+    // Results can be paged while the job runs; the total then grows from one page to the next
+    public Optional<ResultPage> getResults(String jobId, String status, String column, int page, int size) throws IOException {
+        if (page < 0 || size < 1 || size > maxPageSize) {
+            throw new IllegalArgumentException("Pages hold between 1 and " + maxPageSize + " results and are numbered from 0");
+        }
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+        return Optional.of(job.results.page(status, column, page, size));
+    }
+
+    // The export is complete only once the job has finished, whatever its outcome
+    public Optional<Path> getExport(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job != null && !job.isFinished()) {
+            throw new IllegalStateException("Comparison job " + jobId + " is still running");
+        }
+        return exportService.find(jobId);
+    }
+
+    // Cancels the running statements of a job, or keeps a queued job from starting
+    public Optional<JobStatus> cancel(String jobId) {
+        Job job = jobs.get(jobId);
+        if (job == null) {
+            return Optional.empty();
+        }
+
+        job.cancelRequested = true;
+        job.context.cancel("Cancelled by user");
+        if ("queued".equals(job.state) && job.future != null && job.future.cancel(false)) {
+            job.finish("cancelled", "Cancelled by user");
+        }
+        return Optional.of(job.status());
+    }
+
+    private void run(Job job, DataSource sourceDs, DataSource targetDs) {
+        if (job.context.isCancelled()) {
+            job.finish("cancelled", job.context.getCancelReason());
+            return;
+        }
+
+        job.startedAt = Instant.now();
+        job.state = "running";
+        try {
+            comparisonService.compareTables(sourceDs, targetDs, job.context);
+            job.finish("completed", null);
+        } catch (CancellationException e) {
+            job.finish(job.cancelRequested ? "cancelled" : "timed_out", e.getMessage());
+        } catch (Exception e) {
+            log.error("Comparison job {} failed", job.id, e);
+            job.finish("failed", e.getMessage());
+        }
+    }
+
+    private void record(Job job, ComparisonResult result) {
+        job.exporter.accept(result);
+        try {
+            job.results.append(result);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to store comparison result", e);
+        }
+    }
+
+    // Virtual threads when the runtime has them (JDK 21+), daemon platform threads otherwise
+    private ThreadFactory jobThreadFactory() {
+        try {
+            // Looked up reflectively so the build keeps targeting Java 17
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = Class.forName("java.lang.Thread$Builder$OfVirtual")
+                .getMethod("name", String.class, long.class)
+                .invoke(builder, "comparison-job-", 1L);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            log.debug("Virtual threads unavailable, running comparison jobs on platform threads");
+        }
+
+        AtomicInteger threadIds = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, "comparison-job-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Runs on submit and on the pruner thread; one at a time, so each job's files are deleted once
+    private synchronized void pruneFinishedJobs() {
+        try {
+            Instant cutoff = Instant.now().minus(Duration.ofMinutes(retentionMinutes));
+            jobs.values().removeIf(job -> {
+                if (job.finishedAt == null || !job.finishedAt.isBefore(cutoff)) {
+                    return false;
+                }
+                exportService.delete(job.id);
+                job.deleteResults();
+                return true;
+            });
+        } catch (RuntimeException e) {
+            log.warn("Failed to prune finished comparison jobs", e);
+        }
+    }
+
+    private static final class Job {
+        private final String id;
+        private final Instant submittedAt = Instant.now();
+        private ComparisonContext context;
+        private ResultExporter exporter;
+        private ResultLog results;
+        private Future<?> future;
+        private volatile String state = "queued";
+        private volatile String message;
+        private volatile boolean cancelRequested;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+
+        Job(String id) {
+            this.id = id;
+        }
+
+        // Closing the export completes its file, so it is done before the job reports as finished
+        synchronized void finish(String state, String message) {
+            if (finishedAt == null) {
+                closeExport();
+                closeResults();
+                this.state = state;
+                this.message = message;
+                this.finishedAt = Instant.now();
+            }
+        }
+
+        void closeExport() {
+            try {
+                exporter.close();
+            } catch (IOException e) {
+                log.warn("Failed to finish export of comparison job {}", id, e);
+            }
+        }
+
+        void closeResults() {
+            try {
+                results.close();
+            } catch (IOException e) {
+                log.warn("Failed to finish result log of comparison job {}", id, e);
+            }
+        }
+
+        void deleteResults() {
+            try {
+                closeResults();
+                results.delete();
+            } catch (IOException e) {
+                log.warn("Failed to delete result log of comparison job {}", id, e);
+            }
+        }
+
+        boolean isFinished() {
+            return finishedAt != null;
+        }
+
+        // Progress is measured against the optimizer's row estimates, so it is approximate
+        JobStatus status() {
+            JobStatus status = new JobStatus();
+            status.setJobId(id);
+            status.setStatus(state);
+            status.setMessage(message);
+            status.setSourceRowsRead(context.getSourceRowsRead());
+            status.setTargetRowsRead(context.getTargetRowsRead());
+            status.setEstimatedSourceRows(context.getEstimatedSourceRows());
+            status.setEstimatedTargetRows(context.getEstimatedTargetRows());
+            status.setDifferences(context.getDifferenceCount());
+            status.setSubmittedAt(submittedAt);
+            status.setStartedAt(startedAt);
+            status.setFinishedAt(finishedAt);
+            status.setExportBytes(exporter.bytesWritten());
+
+            if ("completed".equals(state)) {
+                status.setProgress(1.0);
+                status.setEtaSeconds(0L);
+            } else if ("running".equals(state)) {
+                long estimated = context.getEstimatedSourceRows() + context.getEstimatedTargetRows();
+                long read = status.getSourceRowsRead() + status.getTargetRowsRead();
+                if (context.getEstimatedSourceRows() >= 0 && context.getEstimatedTargetRows() >= 0 && estimated > 0 && read > 0) {
+                    double progress = Math.min(1.0, (double) read / estimated);
+                    double elapsedSeconds = Duration.between(startedAt, Instant.now()).toMillis() / 1000.0;
+                    status.setProgress(progress);
+                    status.setEtaSeconds(Math.round(elapsedSeconds * (1 - progress) / progress));
+                }
+            }
+            return status;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.dbcompare.service;
+
+import com.dbcompare.service.engine.ComparisonContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes what comparison runs collect in their context. Every run is tagged with its mode and
+ * tables; every table makes series of its own, so only tables listed in app.metrics.tagged-tables
+ * are tagged by name and all others as "other". Phase timers record a run's total time per phase once it finishes; phases that run on
+ * several threads at once can add up to more than the run took. Gauges cover runs still in progress.
+ */
+@Service
+@RequiredArgsConstructor
+public class ComparisonMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final Set<ComparisonContext> running = ConcurrentHashMap.newKeySet();
+
+    @Value("${app.metrics.tagged-tables:}")
+    private Set<String> taggedTables;
+
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("dbcompare.comparisons.active", running, Set::size)
+            .description("Comparisons in progress")
+            .register(meterRegistry);
+        Gauge.builder("dbcompare.comparisons.rows.held", running, this::rowsHeld)
+            .description("Rows held in memory by comparisons in progress")
+            .register(meterRegistry);
+    }
+
+    public void started(ComparisonContext context) {
+        running.add(context);
+    }
+
+    // Outcomes are "completed", "cancelled" and "failed"
+    public void finished(ComparisonContext context, String mode, String outcome, long nanos) {
+        running.remove(context);
+        Tags tags = Tags.of(
+            "mode", mode,
+            "source_table", tableTag(context.getOptions().getSourceTable()),
+            "target_table", tableTag(context.getOptions().getTargetTable())
+        );
+
+        Timer.builder("dbcompare.comparison")
+            .description("Time taken by whole comparisons")
+            .tags(tags)
+            .tag("outcome", outcome)
+            .register(meterRegistry)
+            .record(nanos, TimeUnit.NANOSECONDS);
+        context.getPhaseNanos().forEach((phase, phaseNanos) -> Timer.builder("dbcompare.comparison.phase")
+            .description("Time comparisons spent per phase")
+            .tags(tags)
+            .tag("phase", phase)
+            .register(meterRegistry)
+            .record(phaseNanos, TimeUnit.NANOSECONDS));
+
+        rowsRead(tags, "source").increment(context.getSourceRowsRead());
+        rowsRead(tags, "target").increment(context.getTargetRowsRead());
+        context.getDifferenceCounts().forEach((status, count) -> Counter.builder("dbcompare.differences")
+            .description("Differences found, by status")
+            .tags(tags)
+            .tag("status", status)
+            .register(meterRegistry)
+            .increment(count));
+    }
+
+    private Counter rowsRead(Tags tags, String side) {
+        return Counter.builder("dbcompare.rows.read")
+            .description("Rows read from each side of comparisons")
+            .tags(tags)
+            .tag("side", side)
+            .register(meterRegistry);
+    }
+
+    private String tableTag(String table) {
+        return taggedTables.contains(table) ? table : "other";
+    }
+
+    private double rowsHeld(Set<ComparisonContext> contexts) {
+        return contexts.stream().mapToLong(ComparisonContext::getRowsHeld).sum();
+    }
+}
@@ -1,166 +1,319 @@
 package com.dbcompare.service;
 
 import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.model.ComparisonPreview;
 import com.dbcompare.model.ComparisonResult;
+import com.dbcompare.model.ComparisonSummary;
+import com.dbcompare.service.engine.ChecksumEngine;
+import com.dbcompare.service.engine.ComparisonContext;
+import com.dbcompare.service.engine.DifferenceSummary;
+import com.dbcompare.service.engine.FuzzyMatchEngine;
+import com.dbcompare.service.engine.GraceHashEngine;
+import com.dbcompare.service.engine.KeyPrepassEngine;
+import com.dbcompare.service.engine.MergeJoinEngine;
+import com.dbcompare.service.engine.PreviewEngine;
+import com.dbcompare.service.engine.PushdownEngine;
+import com.dbcompare.service.engine.SnapshotEngine;
+import com.dbcompare.service.engine.SqlDialect;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.Statement;
-import java.util.*;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class ComparisonService {
     
+    private final DatabaseService databaseService;
+    private final GraceHashEngine graceHashEngine;
+    private final MergeJoinEngine mergeJoinEngine;
+    private final ChecksumEngine checksumEngine;
+    private final FuzzyMatchEngine fuzzyMatchEngine;
+    private final SnapshotEngine snapshotEngine;
+    private final PushdownEngine pushdownEngine;
+    private final KeyPrepassEngine keyPrepassEngine;
+    private final PreviewEngine previewEngine;
+    private final ComparisonMetrics comparisonMetrics;
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "comparison-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    @Value("${app.comparison.timeout-seconds:300}")
+    private long timeoutSeconds;
+    
+    @Value("${app.comparison.summary-sample-keys:20}")
+    private int summarySampleKeys;
+    
     public List<ComparisonResult> compareTables(
         DataSource sourceDs,
         DataSource targetDs,
         ComparisonOptions options
     ) throws Exception {
         List<ComparisonResult> results = new ArrayList<>();
-        Map<String, String> columnMap = new HashMap<>();
-        
-        options.getColumnMappings().forEach(mapping ->
-            columnMap.put(mapping.getSourceColumn(), mapping.getTargetColumn())
-        );
-        
-        String sourceQuery = buildSelectQuery(options.getSourceTable(), new ArrayList<>(columnMap.keySet()));
-        String targetQuery = buildSelectQuery(options.getTargetTable(), new ArrayList<>(columnMap.values()));
-        
-        Map<String, Map<String, String>> sourceData = new HashMap<>();
-        Map<String, Map<String, String>> targetData = new HashMap<>();
-        
-        // Load source data
-        try (Connection conn = sourceDs.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sourceQuery)) {
-            
-            while (rs.next()) {
-                Map<String, String> row = new HashMap<>();
-                for (String column : columnMap.keySet()) {
-                    row.put(column, rs.getString(column));
-                }
-                sourceData.put(rs.getString(1), row);
+        compareTables(sourceDs, targetDs, options, results::add);
+        return results;
+    }
+    
+    public void compareTables(
+        DataSource sourceDs,
+        DataSource targetDs,
+        ComparisonOptions options,
+        Consumer<ComparisonResult> sink
+    ) throws Exception {
+        compareTables(sourceDs, targetDs, new ComparisonContext(options, sink));
+    }
+    
+    // Runs a comparison that the caller can watch and cancel through the context; it is cancelled on timeout too
+    public void compareTables(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws Exception {
+        String mode = modeOf(context.getOptions());
+        checkValueOptions(context.getOptions());
+        run(context, mode, () -> {
+            if (mode.equals("fuzzy")) {
+                compareFuzzy(sourceDs, targetDs, context);
+                return null;
             }
-        }
-        
-        // Load target data
-        try (Connection conn = targetDs.getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(targetQuery)) {
+            prepareKeyed(sourceDs, targetDs, context);
             
-            while (rs.next()) {
-                Map<String, String> row = new HashMap<>();
-                for (String column : columnMap.values()) {
-                    row.put(column, rs.getString(column));
-                }
-                targetData.put(rs.getString(1), row);
+            switch (mode) {
+                case "hash" -> graceHashEngine.compare(sourceDs, targetDs, context);
+                case "merge" -> mergeJoinEngine.compare(sourceDs, targetDs, context);
+                case "checksum" -> checksumEngine.compare(sourceDs, targetDs, context);
+                case "incremental" -> snapshotEngine.compare(sourceDs, targetDs, context);
+                case "pushdown" -> comparePushdown(sourceDs, targetDs, context);
+                case "keys" -> compareKeysFirst(sourceDs, targetDs, context);
             }
-        }
-        
-        // Compare data
-        compareData(sourceData, targetData, columnMap, results);
+            return null;
+        });
+    }
+    
+    // The full comparison, reported as counts per status and per column with a sample of differing keys; no result is built
+    public ComparisonSummary summarizeTables(DataSource sourceDs, DataSource targetDs, ComparisonOptions options) throws Exception {
+        ComparisonContext context = new ComparisonContext(options, result -> {});
+        DifferenceSummary summary = summarize(context);
+        long start = System.nanoTime();
+        compareTables(sourceDs, targetDs, context);
         
-        return results;
+        ComparisonSummary report = new ComparisonSummary();
+        report.setDifferences(context.getDifferenceCount());
+        report.setDifferencesByStatus(context.getDifferenceCounts());
+        report.setColumnMismatches(summary.columnMismatches(context));
+        report.setSampleDifferences(summary.sample());
+        report.setSourceRowsRead(context.getSourceRowsRead());
+        report.setTargetRowsRead(context.getTargetRowsRead());
+        report.setDurationMillis((System.nanoTime() - start) / 1_000_000);
+        return report;
+    }
+    
+    // Puts a context in summary mode, keeping as many sample keys as configured
+    public DifferenceSummary summarize(ComparisonContext context) {
+        return context.summarize(summarySampleKeys);
+    }
+    
+    // Estimates from samples of both tables what the comparison would find; nothing is compared in full
+    public ComparisonPreview previewTables(DataSource sourceDs, DataSource targetDs, ComparisonOptions options) throws Exception {
+        if (isFuzzy(options)) {
+            throw new IllegalArgumentException("Previews are only available for exact matching");
+        }
+        checkValueOptions(options);
+        ComparisonContext context = new ComparisonContext(options, result -> {});
+        return run(context, "preview", () -> {
+            prepareKeyed(sourceDs, targetDs, context);
+            return previewEngine.preview(sourceDs, targetDs, context);
+        });
     }
     
-    private void compareData(
-        Map<String, Map<String, String>> sourceData,
-        Map<String, Map<String, String>> targetData,
-        Map<String, String> columnMap,
-        List<ComparisonResult> results
-    ) {
-        Set<String> processedKeys = new HashSet<>();
-        long resultId = 1;
+    private <T> T run(ComparisonContext context, String mode, ComparisonContext.Work<T, Exception> work) throws Exception {
+        ScheduledFuture<?> timeout = timeoutSeconds > 0
+            ? timeouts.schedule(
+                () -> context.cancel("Comparison timed out after " + timeoutSeconds + " seconds"),
+                timeoutSeconds,
+                TimeUnit.SECONDS
+            )
+            : null;
         
-        // Check source records
-        for (Map.Entry<String, Map<String, String>> sourceEntry : sourceData.entrySet()) {
-            String key = sourceEntry.getKey();
-            Map<String, String> sourceRow = sourceEntry.getValue();
-            Map<String, String> targetRow = targetData.get(key);
-            
-            ComparisonResult result = new ComparisonResult();
-            result.setId(resultId++);
-            
-            if (targetRow == null) {
-                result.setStatus("missing_target");
-                Map<String, ComparisonResult.ValueDifference> differences = new HashMap<>();
-                
-                for (Map.Entry<String, String> column : sourceRow.entrySet()) {
-                    ComparisonResult.ValueDifference diff = new ComparisonResult.ValueDifference();
-                    diff.setSourceValue(column.getValue());
-                    diff.setTargetValue(null);
-                    differences.put(column.getKey(), diff);
-                }
-                
-                result.setDifferences(differences);
-            } else {
-                result.setStatus("matched");
-                Map<String, ComparisonResult.ValueDifference> differences = new HashMap<>();
-                boolean hasDifferences = false;
-                
-                for (Map.Entry<String, String> sourceColumn : sourceRow.entrySet()) {
-                    String targetColumn = columnMap.get(sourceColumn.getKey());
-                    String sourceValue = sourceColumn.getValue();
-                    String targetValue = targetRow.get(targetColumn);
-                    
-                    if (!Objects.equals(sourceValue, targetValue)) {
-                        hasDifferences = true;
-                        ComparisonResult.ValueDifference diff = new ComparisonResult.ValueDifference();
-                        diff.setSourceValue(sourceValue);
-                        diff.setTargetValue(targetValue);
-                        differences.put(sourceColumn.getKey(), diff);
-                    }
-                }
-                
-                if (hasDifferences) {
-                    result.setStatus("mismatched");
-                    result.setDifferences(differences);
-                }
+        comparisonMetrics.started(context);
+        long start = System.nanoTime();
+        String outcome = "failed";
+        try {
+            T result = work.run();
+            outcome = "completed";
+            return result;
+        } catch (Exception e) {
+            // Cancelled statements surface as driver-specific SQL errors
+            if (context.isCancelled() || e instanceof CancellationException) {
+                outcome = "cancelled";
             }
-            
-            if (!result.getStatus().equals("matched")) {
-                results.add(result);
+            if (context.isCancelled() && !(e instanceof CancellationException)) {
+                throw new CancellationException(context.getCancelReason());
             }
-            
-            processedKeys.add(key);
+            throw e;
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            comparisonMetrics.finished(context, mode, outcome, System.nanoTime() - start);
+        }
+    }
+    
+    private void prepareKeyed(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws Exception {
+        context.useKeyColumns(context.time("resolve_keys", () -> resolveKeyColumns(sourceDs, context)));
+        useColumnTypes(sourceDs, targetDs, context);
+        useValueTypes(sourceDs, targetDs, context);
+        estimateRows(sourceDs, targetDs, context);
+    }
+    
+    // Checked before the run starts, so metrics are only ever tagged with known modes
+    private static String modeOf(ComparisonOptions options) {
+        if (isFuzzy(options)) {
+            return "fuzzy";
+        }
+        String mode = options.getComparisonMode() == null ? "hash" : options.getComparisonMode().toLowerCase();
+        return switch (mode) {
+            case "hash", "merge", "checksum", "incremental", "pushdown", "keys" -> mode;
+            default -> throw new IllegalArgumentException("Unsupported comparison mode: " + options.getComparisonMode());
+        };
+    }
+    
+    private static void checkValueOptions(ComparisonOptions options) {
+        if (options.getNumericTolerance() != null && !(options.getNumericTolerance() >= 0)) {
+            throw new IllegalArgumentException("Numeric tolerance must not be negative: " + options.getNumericTolerance());
+        }
+        Integer precision = options.getTimestampPrecision();
+        if (precision != null && (precision < 0 || precision > 9)) {
+            throw new IllegalArgumentException("Timestamp precision must be between 0 and 9 digits: " + precision);
+        }
+    }
+    
+    // Tables the database cannot join are compared in the JVM instead
+    private void comparePushdown(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws Exception {
+        if (pushdownEngine.supports(sourceDs, targetDs, context)) {
+            pushdownEngine.compare(sourceDs, targetDs, context);
+        } else {
+            log.info("Source and target are not on the same server; comparing with the hash engine instead");
+            graceHashEngine.compare(sourceDs, targetDs, context);
+        }
+    }
+    
+    // Without in-database hashing every column has to be read anyway, which the hash engine does in one pass.
+    // Tables too large for precise key filters in the memory budget are merged instead, which needs no memory per row.
+    private void compareKeysFirst(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws Exception {
+        if (keyPrepassEngine.supports(sourceDs, targetDs)) {
+            if (!keyPrepassEngine.compare(sourceDs, targetDs, context)) {
+                log.info("Key filters would be too imprecise; comparing with the merge engine instead");
+                mergeJoinEngine.compare(sourceDs, targetDs, context);
+            }
+        } else {
+            log.info("Rows cannot be hashed in the database; comparing with the hash engine instead");
+            graceHashEngine.compare(sourceDs, targetDs, context);
+        }
+    }
+    
+    // Rows are paired by similarity; explicit key columns only restrict which rows may pair up
+    private void compareFuzzy(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws Exception {
+        List<String> keyColumns = context.getOptions().getKeyColumns();
+        if (keyColumns != null && !keyColumns.isEmpty()) {
+            context.useKeyColumns(keyColumns);
+        } else {
+            context.clearKeyColumns();
+        }
+        estimateRows(sourceDs, targetDs, context);
+        fuzzyMatchEngine.compare(sourceDs, targetDs, context);
+    }
+    
+    private static boolean isFuzzy(ComparisonOptions options) {
+        String algorithm = options.getMatchingAlgorithm() == null ? "exact" : options.getMatchingAlgorithm().toLowerCase();
+        return switch (algorithm) {
+            case "exact" -> false;
+            case "fuzzy" -> true;
+            default -> throw new IllegalArgumentException("Unsupported matching algorithm: " + options.getMatchingAlgorithm());
+        };
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        timeouts.shutdownNow();
+    }
+    
+    // Optimizer statistics are enough for progress reporting; databases without them report no estimate
+    private void estimateRows(DataSource sourceDs, DataSource targetDs, ComparisonContext context) {
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+            context.estimateRows(
+                context.time("estimate_rows", () -> SqlDialect.of(sourceConn).estimatedRowCount(sourceConn, context.getOptions().getSourceTable())),
+                context.time("estimate_rows", () -> SqlDialect.of(targetConn).estimatedRowCount(targetConn, context.getOptions().getTargetTable()))
+            );
+        } catch (SQLException e) {
+            log.debug("Could not estimate row counts", e);
+        }
+    }
+    
+    // Types from the metadata cache spare the engines a probe query per table; they probe when these are missing
+    private void useColumnTypes(DataSource sourceDs, DataSource targetDs, ComparisonContext context) {
+        try {
+            context.useColumnTypes(
+                context.time("column_types", () -> databaseService.getColumnInfo(sourceDs, context.getOptions().getSourceTable())),
+                context.time("column_types", () -> databaseService.getColumnInfo(targetDs, context.getOptions().getTargetTable()))
+            );
+        } catch (Exception e) {
+            log.debug("Could not read column metadata", e);
+        }
+    }
+    
+    // Without value types, values are compared as the text the drivers return
+    private void useValueTypes(DataSource sourceDs, DataSource targetDs, ComparisonContext context) {
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+            context.time("column_types", () -> {
+                context.resolveValueTypes(sourceConn, targetConn);
+                return null;
+            });
+        } catch (SQLException e) {
+            log.debug("Could not resolve value types; comparing values as text", e);
+        }
+    }
+    
+    // Explicit key columns win, then the source primary key, then the first unique index whose columns are all mapped
+    private List<String> resolveKeyColumns(DataSource sourceDs, ComparisonContext context) throws Exception {
+        ComparisonOptions options = context.getOptions();
+        if (options.getKeyColumns() != null && !options.getKeyColumns().isEmpty()) {
+            return options.getKeyColumns();
         }
         
-        // Check for missing source records
-        for (Map.Entry<String, Map<String, String>> targetEntry : targetData.entrySet()) {
-            String key = targetEntry.getKey();
-            
-            if (!processedKeys.contains(key)) {
-                ComparisonResult result = new ComparisonResult();
-                result.setId(resultId++);
-                result.setStatus("missing_source");
-                
-                Map<String, ComparisonResult.ValueDifference> differences = new HashMap<>();
-                Map<String, String> targetRow = targetEntry.getValue();
-                
-                for (Map.Entry<String, String> column : targetRow.entrySet()) {
-                    ComparisonResult.ValueDifference diff = new ComparisonResult.ValueDifference();
-                    diff.setSourceValue(null);
-                    diff.setTargetValue(column.getValue());
-                    differences.put(column.getKey(), diff);
-                }
-                
-                result.setDifferences(differences);
-                results.add(result);
+        List<String> primaryKeys = databaseService.getPrimaryKeys(sourceDs, options.getSourceTable());
+        if (!primaryKeys.isEmpty() && isMapped(primaryKeys, context)) {
+            return primaryKeys;
+        }
+        
+        for (List<String> uniqueKey : databaseService.getUniqueKeys(sourceDs, options.getSourceTable())) {
+            if (isMapped(uniqueKey, context)) {
+                return uniqueKey;
             }
         }
+        
+        String fallback = context.getSourceColumns().get(0);
+        log.warn("No mapped primary key or unique index on {}; matching rows on {}", options.getSourceTable(), fallback);
+        return List.of(fallback);
     }
     
-    private String buildSelectQuery(String tableName, List<String> columns) {
-        return String.format(
-            "SELECT %s FROM %s",
-            String.join(", ", columns),
-            tableName
+    private boolean isMapped(List<String> columns, ComparisonContext context) {
+        return columns.stream().allMatch(column ->
+            context.getSourceColumns().stream().anyMatch(column::equalsIgnoreCase)
         );
     }
 }
\ No newline at end of file
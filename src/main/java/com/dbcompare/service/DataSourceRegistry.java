@@ -0,0 +1,402 @@
+package com.dbcompare.service;
+
+import com.dbcompare.model.DatabaseConnection;
+import com.dbcompare.model.PoolStats;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * One connection pool per database, handed out as a data source that opens its pool on demand. Pools
+ * nobody has used for a while are closed, as are the least recently used ones once more than the
+ * allowed number are open; the data source stays valid and reopens its pool on the next connection.
+ * A pool is only closed while none of its connections are checked out.
+ * <p>
+ * H2 databases are reached over TCP like the others, or, when embedded databases are allowed, opened
+ * inside this process: hostname "mem" for an in-memory database and "file" for one stored in the
+ * embedded directory. Embedded databases are meant for load tests and are off by default.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DataSourceRegistry {
+
+    // H2 reads settings, including scripts to run, from the URL, so names are kept to plain identifiers
+    private static final Pattern H2_NAME = Pattern.compile("[A-Za-z0-9_][A-Za-z0-9_.-]*");
+
+    private final MetadataCache metadataCache;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "pool-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${app.datasource.max-open-pools:16}")
+    private int maxOpenPools;
+
+    @Value("${app.datasource.pool-idle-minutes:30}")
+    private long poolIdleMinutes;
+
+    @Value("${app.datasource.max-pool-size:5}")
+    private int maxPoolSize;
+
+    @Value("${app.datasource.min-idle:1}")
+    private int minIdle;
+
+    @Value("${app.datasource.connection-timeout-seconds:30}")
+    private int connectionTimeoutSeconds;
+
+    @Value("${app.datasource.embedded.enabled:false}")
+    private boolean embeddedEnabled;
+
+    @Value("${app.datasource.embedded.directory:${java.io.tmpdir}/dbcompare-h2}")
+    private String embeddedDirectory;
+
+    @PostConstruct
+    public void start() {
+        reaper.scheduleWithFixedDelay(this::closeIdlePools, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdownNow();
+        pools.values().forEach(Pool::close);
+    }
+
+    // Connecting again with other settings replaces the pool, but keeps the data source callers already hold
+    public DataSource register(DatabaseConnection connection) {
+        Pool pool = pools.compute(generateKey(connection), (key, existing) -> {
+            if (existing == null) {
+                return new Pool(key, connection);
+            }
+            existing.reconfigure(connection);
+            return existing;
+        });
+
+        // Opening right away reports bad connection settings to the caller rather than to the first query
+        pool.open();
+        return pool;
+    }
+
+    public List<PoolStats> getStats() {
+        return pools.values().stream()
+            .sorted(Comparator.comparing(pool -> pool.key))
+            .map(Pool::stats)
+            .toList();
+    }
+
+    private void closeIdlePools() {
+        try {
+            long idleNanos = TimeUnit.MINUTES.toNanos(poolIdleMinutes);
+            pools.values().forEach(pool -> pool.closeIfIdle(idleNanos));
+            closeLeastRecentlyUsed();
+        } catch (RuntimeException e) {
+            log.warn("Failed to close idle connection pools", e);
+        }
+    }
+
+    // Pools in use are skipped, as is the most recently used one, so the limit can be exceeded while they all are
+    private void closeLeastRecentlyUsed() {
+        // Use times are read once, since sorting on values other threads keep changing breaks the sort
+        Map<Pool, Long> open = new HashMap<>();
+        pools.values().forEach(pool -> {
+            Long lastUsed = pool.lastUsedIfOpen();
+            if (lastUsed != null) {
+                open.put(pool, lastUsed);
+            }
+        });
+        List<Pool> byUse = open.keySet().stream()
+            .sorted(Comparator.comparingLong(open::get))
+            .toList();
+
+        int excess = byUse.size() - maxOpenPools;
+        for (int i = 0; excess > 0 && i < byUse.size() - 1; i++) {
+            if (byUse.get(i).closeIfIdle(0)) {
+                excess--;
+            }
+        }
+    }
+
+    // Pools publish their metrics tagged with the pool name
+    private HikariConfig poolConfig(String poolName, DatabaseConnection connection) {
+        int poolSize = connection.getMaxPoolSize() != null ? connection.getMaxPoolSize() : maxPoolSize;
+        int idle = connection.getMinIdle() != null ? connection.getMinIdle() : minIdle;
+        int timeout = connection.getConnectionTimeoutSeconds() != null ? connection.getConnectionTimeoutSeconds() : connectionTimeoutSeconds;
+        // Comparisons read both tables at once, which takes two connections when they share a database
+        if (poolSize < 2) {
+            throw new IllegalArgumentException("Connection pools need at least 2 connections, but maxPoolSize is " + poolSize);
+        }
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+        config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        config.setJdbcUrl(buildJdbcUrl(connection));
+        config.setUsername(connection.getUsername());
+        config.setPassword(connection.getPassword());
+        config.setMaximumPoolSize(poolSize);
+        config.setMinimumIdle(Math.min(idle, poolSize));
+        config.setConnectionTimeout(TimeUnit.SECONDS.toMillis(timeout));
+        return config;
+    }
+
+    private String buildJdbcUrl(DatabaseConnection connection) {
+        return switch (connection.getDatabaseType().toLowerCase()) {
+            // Cursor fetch and adaptive buffering let large reads stream; see SqlDialect.prepareStreaming
+            case "mysql" -> String.format(
+                "jdbc:mysql://%s:%s/%s?useCursorFetch=true",
+                connection.getHostname(),
+                connection.getPort(),
+                connection.getDatabaseName()
+            );
+            case "postgresql" -> String.format(
+                "jdbc:postgresql://%s:%s/%s",
+                connection.getHostname(),
+                connection.getPort(),
+                connection.getDatabaseName()
+            );
+            case "sqlserver" -> String.format(
+                "jdbc:sqlserver://%s:%s;databaseName=%s;responseBuffering=adaptive",
+                connection.getHostname(),
+                connection.getPort(),
+                connection.getDatabaseName()
+            );
+            case "h2" -> h2Url(connection);
+            default -> throw new IllegalArgumentException("Unsupported database type: " + connection.getDatabaseType());
+        };
+    }
+
+    // An in-memory database is kept until the process exits, so it outlives pools closed for being idle
+    private String h2Url(DatabaseConnection connection) {
+        String database = connection.getDatabaseName();
+        if (!H2_NAME.matcher(database).matches() || !H2_NAME.matcher(connection.getHostname()).matches()
+            || !connection.getPort().chars().allMatch(Character::isDigit)) {
+            throw new IllegalArgumentException(
+                "Invalid H2 database: " + connection.getHostname() + ":" + connection.getPort() + "/" + database);
+        }
+        return switch (connection.getHostname().toLowerCase()) {
+            case "mem" -> embeddedUrl("jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1");
+            case "file" -> embeddedUrl("jdbc:h2:file:" + Path.of(embeddedDirectory, database).toAbsolutePath());
+            default -> String.format(
+                "jdbc:h2:tcp://%s:%s/%s",
+                connection.getHostname(),
+                connection.getPort(),
+                database
+            );
+        };
+    }
+
+    private String embeddedUrl(String url) {
+        if (!embeddedEnabled) {
+            throw new IllegalArgumentException("Embedded databases are disabled; set app.datasource.embedded.enabled to allow them");
+        }
+        return url;
+    }
+
+    private String generateKey(DatabaseConnection connection) {
+        return String.format(
+            "%s_%s_%s_%s",
+            connection.getDatabaseType(),
+            connection.getHostname(),
+            connection.getPort(),
+            connection.getDatabaseName()
+        );
+    }
+
+    private final class Pool implements DataSource {
+        private final String key;
+        private DatabaseConnection connection;
+        private HikariDataSource dataSource;
+        // Pools replaced by new settings, closed once their last connection is returned
+        private final List<HikariDataSource> retired = new ArrayList<>();
+        // Counts replacements, so a retired pool removing its metrics on close leaves those of its successor alone
+        private int generation;
+        // Callers between opening the pool and getting their connection, which Hikari does not count as active yet
+        private int borrowers;
+        private long lastUsed = System.nanoTime();
+
+        Pool(String key, DatabaseConnection connection) {
+            this.key = key;
+            this.connection = connection;
+        }
+
+        HikariDataSource open() {
+            HikariDataSource current;
+            boolean opened;
+            synchronized (this) {
+                lastUsed = System.nanoTime();
+                opened = dataSource == null;
+                if (opened) {
+                    dataSource = new HikariDataSource(poolConfig(generation == 0 ? key : key + "-" + generation, connection));
+                    log.info("Opened connection pool {}", key);
+                }
+                current = dataSource;
+            }
+            // Outside the lock, since making room locks other pools
+            if (opened) {
+                closeLeastRecentlyUsed();
+            }
+            return current;
+        }
+
+        // Keeps the pool from being closed, even before it is open, until the caller has its connection
+        private synchronized void borrow() {
+            borrowers++;
+        }
+
+        private synchronized void returned() {
+            borrowers--;
+        }
+
+        synchronized Long lastUsedIfOpen() {
+            return dataSource != null ? lastUsed : null;
+        }
+
+        synchronized void reconfigure(DatabaseConnection connection) {
+            if (connection.equals(this.connection)) {
+                return;
+            }
+            this.connection = connection;
+            if (dataSource != null) {
+                retired.add(dataSource);
+                dataSource = null;
+                generation++;
+            }
+            metadataCache.invalidate(this);
+        }
+
+        // Closes retired pools that are no longer used, and this one when it has been idle long enough
+        synchronized boolean closeIfIdle(long idleNanos) {
+            if (borrowers > 0) {
+                return false;
+            }
+            retired.removeIf(retiredPool -> {
+                if (busy(retiredPool)) {
+                    return false;
+                }
+                retiredPool.close();
+                return true;
+            });
+
+            if (dataSource == null || System.nanoTime() - lastUsed < idleNanos || busy(dataSource)) {
+                return false;
+            }
+            dataSource.close();
+            dataSource = null;
+            log.info("Closed idle connection pool {}", key);
+            return true;
+        }
+
+        synchronized void close() {
+            retired.forEach(HikariDataSource::close);
+            retired.clear();
+            if (dataSource != null) {
+                dataSource.close();
+                dataSource = null;
+            }
+        }
+
+        synchronized PoolStats stats() {
+            PoolStats stats = new PoolStats();
+            stats.setKey(key);
+            stats.setIdleSeconds(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - lastUsed));
+            if (dataSource != null) {
+                HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+                stats.setOpen(true);
+                stats.setActiveConnections(pool.getActiveConnections());
+                stats.setIdleConnections(pool.getIdleConnections());
+                stats.setThreadsAwaitingConnection(pool.getThreadsAwaitingConnection());
+                stats.setTotalConnections(pool.getTotalConnections());
+                stats.setMaxPoolSize(dataSource.getMaximumPoolSize());
+            }
+            return stats;
+        }
+
+        private static boolean busy(HikariDataSource dataSource) {
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            return pool != null && (pool.getActiveConnections() > 0 || pool.getThreadsAwaitingConnection() > 0);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            borrow();
+            try {
+                return open().getConnection();
+            } finally {
+                returned();
+            }
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            borrow();
+            try {
+                return open().getConnection(username, password);
+            } finally {
+                returned();
+            }
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return open().getLogWriter();
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+            open().setLogWriter(out);
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+            open().setLoginTimeout(seconds);
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return open().getLoginTimeout();
+        }
+
+        @Override
+        public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            return iface.isInstance(this) ? iface.cast(this) : open().unwrap(iface);
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return iface.isInstance(this) || open().isWrapperFor(iface);
+        }
+    }
+}
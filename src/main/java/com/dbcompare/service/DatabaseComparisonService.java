@@ -0,0 +1,414 @@
+package com.dbcompare.service;
+
+import com.dbcompare.model.ColumnMapping;
+import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.model.DatabaseComparisonRequest;
+import com.dbcompare.model.DatabaseComparisonStatus;
+import com.dbcompare.model.TableComparisonSummary;
+import com.dbcompare.service.engine.ComparisonContext;
+import com.dbcompare.service.engine.DifferenceSummary;
+import com.dbcompare.service.engine.SqlDialect;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * Compares every table that two databases have in common. Tables are paired by name and each pair
+ * is compared as a task of its own on one executor shared by all runs, which bounds how many tables
+ * are compared at once. Before it starts, a task also takes its connections from a budget per
+ * database, so a run cannot drain a pool that other requests use too. Larger tables are queued
+ * first; only a summary of each table is kept, not its differences.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DatabaseComparisonService {
+
+    private final DatabaseService databaseService;
+    private final ComparisonService comparisonService;
+    private final Map<String, Run> runs = new ConcurrentHashMap<>();
+    // Connections taken from each database's budget by the tables being compared; guarded by itself
+    private final Map<DataSource, Integer> connectionsInUse = new HashMap<>();
+    private ExecutorService executor;
+
+    @Value("${app.comparison.database.max-concurrent-tables:4}")
+    private int maxConcurrentTables;
+
+    @Value("${app.comparison.database.connections-per-database:4}")
+    private int connectionsPerDatabase;
+
+    @Value("${app.comparison.job-retention-minutes:60}")
+    private long retentionMinutes;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadIds = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(maxConcurrentTables, task -> {
+            Thread thread = new Thread(task, "table-comparison-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runs.values().forEach(run -> run.cancel("Server is shutting down"));
+        executor.shutdownNow();
+    }
+
+    // Tables are listed, paired and estimated before this returns; the comparisons themselves run in the background
+    public DatabaseComparisonStatus submit(DataSource sourceDs, DataSource targetDs, DatabaseComparisonRequest request) throws Exception {
+        pruneFinishedRuns();
+
+        Run run = new Run(UUID.randomUUID().toString(), request);
+        pairTables(run, databaseService.getTables(sourceDs), databaseService.getTables(targetDs), request);
+        estimateRows(run, sourceDs);
+        run.tables.sort(Comparator.comparingLong((TableTask table) -> table.estimatedRows).reversed());
+        runs.put(run.id, run);
+
+        run.remaining.set(run.tables.size());
+        if (run.tables.isEmpty()) {
+            run.finishedAt = Instant.now();
+        }
+        for (TableTask table : run.tables) {
+            executor.submit(() -> compare(run, table, sourceDs, targetDs));
+        }
+        return run.status();
+    }
+
+    public Optional<DatabaseComparisonStatus> getStatus(String comparisonId) {
+        return Optional.ofNullable(runs.get(comparisonId)).map(Run::status);
+    }
+
+    // Stops the tables being compared; tables still queued are marked cancelled when their turn comes
+    public Optional<DatabaseComparisonStatus> cancel(String comparisonId) {
+        Run run = runs.get(comparisonId);
+        if (run == null) {
+            return Optional.empty();
+        }
+        run.cancel("Cancelled by user");
+        return Optional.of(run.status());
+    }
+
+    // Explicit mappings win; other tables have the source prefix swapped for the target prefix and are matched by name
+    private static void pairTables(Run run, List<String> sourceTables, List<String> targetTables, DatabaseComparisonRequest request) {
+        boolean caseSensitive = Boolean.TRUE.equals(request.getCaseSensitive());
+        int flags = caseSensitive ? 0 : Pattern.CASE_INSENSITIVE;
+        Pattern include = request.getIncludePattern() == null ? null : Pattern.compile(request.getIncludePattern(), flags);
+        Pattern exclude = request.getExcludePattern() == null ? null : Pattern.compile(request.getExcludePattern(), flags);
+        Map<String, String> mappings = request.getTableMappings() == null ? Map.of() : request.getTableMappings();
+
+        Map<String, String> targetsByName = new LinkedHashMap<>();
+        for (String table : targetTables) {
+            targetsByName.putIfAbsent(nameKey(table, caseSensitive), table);
+        }
+
+        Set<String> pairedTargets = new HashSet<>();
+        for (String table : new LinkedHashSet<>(sourceTables)) {
+            if ((include != null && !include.matcher(table).matches()) || (exclude != null && exclude.matcher(table).matches())) {
+                continue;
+            }
+            String targetName = mappings.containsKey(table) ? mappings.get(table) : targetName(table, request, caseSensitive);
+            String target = targetName == null ? null : targetsByName.get(nameKey(targetName, caseSensitive));
+            if (target == null || !pairedTargets.add(target)) {
+                run.unmatchedSourceTables.add(table);
+                continue;
+            }
+            // Names stay as the metadata listed them; prefixed with the database name, most databases would read it as a schema
+            run.tables.add(new TableTask(table, target));
+        }
+
+        targetsByName.values().stream()
+            .filter(table -> !pairedTargets.contains(table))
+            .forEach(run.unmatchedTargetTables::add);
+    }
+
+    private static String targetName(String sourceTable, DatabaseComparisonRequest request, boolean caseSensitive) {
+        String name = sourceTable;
+        String sourcePrefix = request.getSourcePrefix();
+        if (sourcePrefix != null && name.regionMatches(!caseSensitive, 0, sourcePrefix, 0, sourcePrefix.length())) {
+            name = name.substring(sourcePrefix.length());
+        }
+        return request.getTargetPrefix() == null ? name : request.getTargetPrefix() + name;
+    }
+
+    private static String nameKey(String table, boolean caseSensitive) {
+        return caseSensitive ? table : table.toLowerCase(Locale.ROOT);
+    }
+
+    // Tables without an optimizer estimate are queued after all the others
+    private static void estimateRows(Run run, DataSource sourceDs) throws SQLException {
+        try (Connection conn = sourceDs.getConnection()) {
+            SqlDialect dialect = SqlDialect.of(conn);
+            for (TableTask table : run.tables) {
+                try {
+                    table.estimatedRows = dialect.estimatedRowCount(conn, table.sourceTable);
+                } catch (SQLException e) {
+                    log.debug("Could not estimate rows of {}", table.sourceTable, e);
+                }
+            }
+        }
+    }
+
+    private void compare(Run run, TableTask table, DataSource sourceDs, DataSource targetDs) {
+        if (run.cancelReason != null) {
+            table.finish("cancelled", run.cancelReason);
+            run.tableFinished();
+            return;
+        }
+
+        // A shared pool serves both sides, so the table takes twice as much from the one budget. Key pre-passes
+        // look rows up while they stream keys, on a second connection per side.
+        int parallelism = run.request.getParallelism() != null ? Math.max(1, run.request.getParallelism()) : 1;
+        int minimum = "keys".equalsIgnoreCase(run.request.getComparisonMode()) ? 2 : 1;
+        int perSide = Math.max(minimum, Math.min(parallelism, sourceDs == targetDs ? connectionsPerDatabase / 2 : connectionsPerDatabase));
+        Map<DataSource, Integer> connections = sourceDs == targetDs
+            ? Map.of(sourceDs, Math.min(2 * perSide, connectionsPerDatabase))
+            : Map.of(sourceDs, perSide, targetDs, perSide);
+
+        try {
+            acquire(connections);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            table.finish("cancelled", "Server is shutting down");
+            run.tableFinished();
+            return;
+        }
+
+        try {
+            ComparisonOptions options = tableOptions(run.request, table, sourceDs, targetDs, perSide);
+            if (options.getColumnMappings().isEmpty()) {
+                table.finish("skipped", "The tables have no columns in common");
+                return;
+            }
+
+            // Only counts are reported per table, so no result is built for any difference
+            ComparisonContext context = new ComparisonContext(options, result -> {});
+            table.differences = comparisonService.summarize(context);
+            table.context = context;
+            table.startedAt = Instant.now();
+            table.state = "running";
+            // The run may have been cancelled while the table waited for connections
+            if (run.cancelReason != null) {
+                table.context.cancel(run.cancelReason);
+            }
+            comparisonService.compareTables(sourceDs, targetDs, table.context);
+            table.finish("completed", null);
+        } catch (CancellationException e) {
+            table.finish(run.cancelReason != null ? "cancelled" : "timed_out", e.getMessage());
+        } catch (Exception e) {
+            log.warn("Comparison of {} with {} failed: {}", table.sourceTable, table.targetTable, e.getMessage());
+            table.finish("failed", e.getMessage());
+        } finally {
+            release(connections);
+            run.tableFinished();
+        }
+    }
+
+    // Columns are paired by name the same way as tables; keys are resolved per table as for a single comparison
+    private ComparisonOptions tableOptions(
+        DatabaseComparisonRequest request,
+        TableTask table,
+        DataSource sourceDs,
+        DataSource targetDs,
+        int parallelism
+    ) throws Exception {
+        boolean caseSensitive = Boolean.TRUE.equals(request.getCaseSensitive());
+        Map<String, String> targetColumns = new HashMap<>();
+        for (String column : databaseService.getColumns(targetDs, table.targetTable)) {
+            targetColumns.putIfAbsent(nameKey(column, caseSensitive), column);
+        }
+
+        List<ColumnMapping> mappings = new ArrayList<>();
+        for (String column : databaseService.getColumns(sourceDs, table.sourceTable)) {
+            String targetColumn = targetColumns.get(nameKey(column, caseSensitive));
+            if (targetColumn != null) {
+                ColumnMapping mapping = new ColumnMapping();
+                mapping.setSourceColumn(column);
+                mapping.setTargetColumn(targetColumn);
+                mappings.add(mapping);
+            }
+        }
+
+        ComparisonOptions options = new ComparisonOptions();
+        options.setSourceTable(table.sourceTable);
+        options.setTargetTable(table.targetTable);
+        options.setColumnMappings(mappings);
+        options.setSkipColumns(request.getSkipColumns());
+        options.setMatchingAlgorithm("exact");
+        options.setExportFormat("json");
+        options.setComparisonMode(request.getComparisonMode());
+        options.setParallelism(parallelism);
+        options.setNumericTolerance(request.getNumericTolerance());
+        options.setTimestampPrecision(request.getTimestampPrecision());
+        return options;
+    }
+
+    // Takes the connections from every budget at once, so tables waiting on each other's databases cannot deadlock
+    private void acquire(Map<DataSource, Integer> connections) throws InterruptedException {
+        synchronized (connectionsInUse) {
+            while (!connections.entrySet().stream().allMatch(entry ->
+                connectionsInUse.getOrDefault(entry.getKey(), 0) + entry.getValue() <= connectionsPerDatabase)) {
+                connectionsInUse.wait();
+            }
+            connections.forEach((dataSource, count) -> connectionsInUse.merge(dataSource, count, Integer::sum));
+        }
+    }
+
+    private void release(Map<DataSource, Integer> connections) {
+        synchronized (connectionsInUse) {
+            connections.forEach((dataSource, count) ->
+                connectionsInUse.computeIfPresent(dataSource, (key, inUse) -> inUse - count > 0 ? inUse - count : null));
+            connectionsInUse.notifyAll();
+        }
+    }
+
+    private void pruneFinishedRuns() {
+        Instant cutoff = Instant.now().minus(Duration.ofMinutes(retentionMinutes));
+        runs.values().removeIf(run -> run.finishedAt != null && run.finishedAt.isBefore(cutoff));
+    }
+
+    private static final class Run {
+        private final String id;
+        private final DatabaseComparisonRequest request;
+        private final String sourceDatabase;
+        private final String targetDatabase;
+        private final Instant submittedAt = Instant.now();
+        private final List<TableTask> tables = new ArrayList<>();
+        private final List<String> unmatchedSourceTables = new ArrayList<>();
+        private final List<String> unmatchedTargetTables = new ArrayList<>();
+        private final AtomicInteger remaining = new AtomicInteger();
+        private volatile String cancelReason;
+        private volatile Instant finishedAt;
+
+        Run(String id, DatabaseComparisonRequest request) {
+            this.id = id;
+            this.request = request;
+            this.sourceDatabase = request.getSourceDatabase();
+            this.targetDatabase = request.getTargetDatabase();
+        }
+
+        void cancel(String reason) {
+            cancelReason = reason;
+            for (TableTask table : tables) {
+                ComparisonContext context = table.context;
+                if (context != null) {
+                    context.cancel(reason);
+                }
+            }
+        }
+
+        void tableFinished() {
+            if (remaining.decrementAndGet() == 0) {
+                finishedAt = Instant.now();
+            }
+        }
+
+        DatabaseComparisonStatus status() {
+            DatabaseComparisonStatus status = new DatabaseComparisonStatus();
+            status.setComparisonId(id);
+            status.setSourceDatabase(sourceDatabase);
+            status.setTargetDatabase(targetDatabase);
+            status.setSubmittedAt(submittedAt);
+            status.setFinishedAt(finishedAt);
+            status.setUnmatchedSourceTables(unmatchedSourceTables);
+            status.setUnmatchedTargetTables(unmatchedTargetTables);
+
+            List<TableComparisonSummary> summaries = tables.stream().map(TableTask::summary).toList();
+            status.setTables(summaries);
+            status.setTablesTotal(summaries.size());
+            for (TableComparisonSummary summary : summaries) {
+                if (summary.getFinishedAt() != null) {
+                    status.setTablesFinished(status.getTablesFinished() + 1);
+                }
+                if ("failed".equals(summary.getStatus()) || "timed_out".equals(summary.getStatus())) {
+                    status.setTablesFailed(status.getTablesFailed() + 1);
+                }
+                if (summary.getDifferences() > 0) {
+                    status.setTablesWithDifferences(status.getTablesWithDifferences() + 1);
+                }
+                status.setDifferences(status.getDifferences() + summary.getDifferences());
+            }
+
+            if (finishedAt != null) {
+                status.setStatus(cancelReason != null ? "cancelled" : "completed");
+            } else {
+                status.setStatus(summaries.stream().anyMatch(summary -> summary.getStartedAt() != null) ? "running" : "queued");
+            }
+            return status;
+        }
+    }
+
+    private static final class TableTask {
+        private final String sourceTable;
+        private final String targetTable;
+        private long estimatedRows = -1;
+        private volatile ComparisonContext context;
+        private volatile DifferenceSummary differences;
+        private volatile String state = "queued";
+        private volatile String message;
+        private volatile Instant startedAt;
+        private volatile Instant finishedAt;
+
+        TableTask(String sourceTable, String targetTable) {
+            this.sourceTable = sourceTable;
+            this.targetTable = targetTable;
+        }
+
+        void finish(String state, String message) {
+            this.message = message;
+            this.finishedAt = Instant.now();
+            this.state = state;
+        }
+
+        // Counts of a table still being compared are as far as it got
+        TableComparisonSummary summary() {
+            TableComparisonSummary summary = new TableComparisonSummary();
+            summary.setSourceTable(sourceTable);
+            summary.setTargetTable(targetTable);
+            summary.setStatus(state);
+            summary.setMessage(message);
+            summary.setEstimatedRows(estimatedRows);
+            summary.setStartedAt(startedAt);
+            summary.setFinishedAt(finishedAt);
+
+            ComparisonContext context = this.context;
+            if (context != null) {
+                summary.setSourceRowsRead(context.getSourceRowsRead());
+                summary.setTargetRowsRead(context.getTargetRowsRead());
+                summary.setDifferences(context.getDifferenceCount());
+                summary.setDifferencesByStatus(context.getDifferenceCounts());
+                summary.setColumnMismatches(differences.columnMismatches(context));
+                summary.setSampleDifferences(differences.sample());
+            }
+            return summary;
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package com.dbcompare.service;
 
+import com.dbcompare.model.ColumnInfo;
 import com.dbcompare.model.DatabaseConnection;
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
@@ -11,95 +12,217 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class DatabaseService {
-    private final Map<String, HikariDataSource> dataSources = new ConcurrentHashMap<>();
+    private final DataSourceRegistry dataSourceRegistry;
+    private final MetadataCache metadataCache;
+    
+    @Value("${app.metadata.prefetch-columns:true}")
+    private boolean prefetchColumns;
     
     public DataSource connectToDatabase(DatabaseConnection connection) {
-        String key = generateKey(connection);
+        return dataSourceRegistry.register(connection);
+    }
+    
+    public List<String> getTables(DataSource dataSource) throws Exception {
+        List<String> tables = metadataCache.getTables(dataSource);
+        if (tables != null) {
+            return tables;
+        }
+        tables = new ArrayList<>();
         
-        if (dataSources.containsKey(key)) {
-            return dataSources.get(key);
+        // Tables outside the current schema are listed under their qualified names, so they can be read by them
+        try (Connection conn = dataSource.getConnection()) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            boolean schemas = metaData.supportsSchemasInTableDefinitions();
+            String current = schemas ? conn.getSchema() : conn.getCatalog();
+            
+            try (ResultSet rs = metaData.getTables(null, null, "%", new String[]{"TABLE"})) {
+                while (rs.next()) {
+                    String qualifier = rs.getString(schemas ? "TABLE_SCHEM" : "TABLE_CAT");
+                    String table = rs.getString("TABLE_NAME");
+                    if ("INFORMATION_SCHEMA".equalsIgnoreCase(qualifier)) {
+                        continue;
+                    }
+                    tables.add(qualifier == null || qualifier.equalsIgnoreCase(current) ? table : qualifier + "." + table);
+                }
+            }
+        }
+        
+        metadataCache.putTables(dataSource, tables);
+        return tables;
+    }
+    
+    public List<String> getColumns(DataSource dataSource, String tableName) throws Exception {
+        return getColumnInfo(dataSource, tableName).stream().map(ColumnInfo::getName).toList();
+    }
+    
+    // Columns in table order with their types; a miss on an unqualified name first loads the whole default schema
+    public List<ColumnInfo> getColumnInfo(DataSource dataSource, String tableName) throws Exception {
+        List<ColumnInfo> columns = metadataCache.getColumns(dataSource, tableName);
+        if (columns != null) {
+            return columns;
         }
         
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl(buildJdbcUrl(connection));
-        config.setUsername(connection.getUsername());
-        config.setPassword(connection.getPassword());
-        config.setMaximumPoolSize(5);
+        if (prefetchColumns && tableName.indexOf('.') < 0 && !metadataCache.isPrefetched(dataSource, null)) {
+            prefetchColumns(dataSource, null);
+            columns = metadataCache.getColumns(dataSource, tableName);
+            if (columns != null) {
+                return columns;
+            }
+        }
         
-        HikariDataSource dataSource = new HikariDataSource(config);
-        dataSources.put(key, dataSource);
+        try (Connection conn = dataSource.getConnection()) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            String[] name = resolveTableName(metaData, tableName);
+            
+            try (ResultSet rs = metaData.getColumns(name[0], name[1], name[2], "%")) {
+                columns = matchTable(readColumns(rs), name[2]);
+            }
+        }
         
-        return dataSource;
+        metadataCache.putColumns(dataSource, tableName, columns);
+        return columns;
     }
     
-    public List<String> getTables(DataSource dataSource) throws Exception {
-        List<String> tables = new ArrayList<>();
+    // Loads every column of a schema in one metadata call, the current schema when none is given; returns the table count
+    public int prefetchColumns(DataSource dataSource, String schema) throws Exception {
+        Map<String, List<ColumnInfo>> tables;
+        boolean qualify;
         
         try (Connection conn = dataSource.getConnection()) {
             DatabaseMetaData metaData = conn.getMetaData();
-            ResultSet rs = metaData.getTables(null, null, "%", new String[]{"TABLE"});
+            boolean schemas = metaData.supportsSchemasInTableDefinitions();
+            String current = schemas ? conn.getSchema() : conn.getCatalog();
+            String qualifier = schema == null ? current : schema;
+            if (schema != null && metaData.storesLowerCaseIdentifiers()) {
+                qualifier = schema.toLowerCase();
+            } else if (schema != null && metaData.storesUpperCaseIdentifiers()) {
+                qualifier = schema.toUpperCase();
+            }
+            // Tables outside the current schema are cached under their qualified names, as they are asked for
+            qualify = schema != null && !qualifier.equalsIgnoreCase(current);
             
-            while (rs.next()) {
-                tables.add(rs.getString("TABLE_NAME"));
+            try (ResultSet rs = schemas
+                    ? metaData.getColumns(conn.getCatalog(), qualifier, "%", "%")
+                    : metaData.getColumns(qualifier, null, "%", "%")) {
+                tables = readColumns(rs);
             }
         }
         
+        tables.forEach((table, columns) ->
+            metadataCache.putColumns(dataSource, qualify ? schema + "." + table : table, columns)
+        );
+        metadataCache.markPrefetched(dataSource, schema);
+        log.debug("Prefetched columns of {} tables in schema {}", tables.size(), schema == null ? "(current)" : schema);
+        return tables.size();
+    }
+    
+    public void invalidateMetadata(DataSource dataSource, String tableName) {
+        if (tableName == null) {
+            metadataCache.invalidate(dataSource);
+        } else {
+            metadataCache.invalidate(dataSource, tableName);
+        }
+    }
+    
+    // Databases with case-insensitive names may return the table in a different case than asked for
+    private List<ColumnInfo> matchTable(Map<String, List<ColumnInfo>> tables, String table) {
+        if (tables.containsKey(table)) {
+            return tables.get(table);
+        }
+        return tables.entrySet().stream()
+            .filter(entry -> entry.getKey().equalsIgnoreCase(table))
+            .map(Map.Entry::getValue)
+            .findFirst()
+            .orElse(List.of());
+    }
+    
+    // Columns grouped by table; the driver returns them in table and then ordinal order
+    private Map<String, List<ColumnInfo>> readColumns(ResultSet rs) throws Exception {
+        Map<String, List<ColumnInfo>> tables = new LinkedHashMap<>();
+        while (rs.next()) {
+            ColumnInfo column = new ColumnInfo();
+            column.setName(rs.getString("COLUMN_NAME"));
+            column.setSqlType(rs.getInt("DATA_TYPE"));
+            column.setTypeName(rs.getString("TYPE_NAME"));
+            column.setSize(rs.getInt("COLUMN_SIZE"));
+            column.setDecimalDigits(rs.getInt("DECIMAL_DIGITS"));
+            column.setNullable(rs.getInt("NULLABLE") != DatabaseMetaData.columnNoNulls);
+            tables.computeIfAbsent(rs.getString("TABLE_NAME"), table -> new ArrayList<>()).add(column);
+        }
         return tables;
     }
     
-    public List<String> getColumns(DataSource dataSource, String tableName) throws Exception {
-        List<String> columns = new ArrayList<>();
+    // Primary key columns in key order, or an empty list when the table has none
+    public List<String> getPrimaryKeys(DataSource dataSource, String tableName) throws Exception {
+        Map<Short, String> primaryKeys = new TreeMap<>();
         
         try (Connection conn = dataSource.getConnection()) {
             DatabaseMetaData metaData = conn.getMetaData();
-            ResultSet rs = metaData.getColumns(null, null, tableName, "%");
+            String[] name = resolveTableName(metaData, tableName);
             
-            while (rs.next()) {
-                columns.add(rs.getString("COLUMN_NAME"));
+            try (ResultSet rs = metaData.getPrimaryKeys(name[0], name[1], name[2])) {
+                while (rs.next()) {
+                    primaryKeys.put(rs.getShort("KEY_SEQ"), rs.getString("COLUMN_NAME"));
+                }
             }
         }
         
-        return columns;
+        return new ArrayList<>(primaryKeys.values());
     }
     
-    private String buildJdbcUrl(DatabaseConnection connection) {
-        return switch (connection.getDatabaseType().toLowerCase()) {
-            case "mysql" -> String.format(
-                "jdbc:mysql://%s:%s/%s",
-                connection.getHostname(),
-                connection.getPort(),
-                connection.getDatabaseName()
-            );
-            case "postgresql" -> String.format(
-                "jdbc:postgresql://%s:%s/%s",
-                connection.getHostname(),
-                connection.getPort(),
-                connection.getDatabaseName()
-            );
-            case "sqlserver" -> String.format(
-                "jdbc:sqlserver://%s:%s;databaseName=%s",
-                connection.getHostname(),
-                connection.getPort(),
-                connection.getDatabaseName()
-            );
-            default -> throw new IllegalArgumentException("Unsupported database type: " + connection.getDatabaseType());
-        };
+    // Columns of each unique index, in index order
+    public List<List<String>> getUniqueKeys(DataSource dataSource, String tableName) throws Exception {
+        Map<String, Map<Short, String>> indexes = new LinkedHashMap<>();
+        
+        try (Connection conn = dataSource.getConnection()) {
+            DatabaseMetaData metaData = conn.getMetaData();
+            String[] name = resolveTableName(metaData, tableName);
+            
+            try (ResultSet rs = metaData.getIndexInfo(name[0], name[1], name[2], true, true)) {
+                while (rs.next()) {
+                    String column = rs.getString("COLUMN_NAME");
+                    if (column != null) {
+                        indexes.computeIfAbsent(rs.getString("INDEX_NAME"), index -> new TreeMap<>())
+                            .put(rs.getShort("ORDINAL_POSITION"), column);
+                    }
+                }
+            }
+        }
+        
+        List<List<String>> uniqueKeys = new ArrayList<>();
+        indexes.values().forEach(columns -> uniqueKeys.add(new ArrayList<>(columns.values())));
+        return uniqueKeys;
     }
     
-    private String generateKey(DatabaseConnection connection) {
-        return String.format(
-            "%s_%s_%s_%s",
-            connection.getDatabaseType(),
-            connection.getHostname(),
-            connection.getPort(),
-            connection.getDatabaseName()
-        );
+    // Splits "schema.table" into catalog, schema and table patterns in the case the database stores them
+    private String[] resolveTableName(DatabaseMetaData metaData, String tableName) throws Exception {
+        String qualifier = null;
+        String table = tableName;
+        int dot = tableName.lastIndexOf('.');
+        if (dot >= 0) {
+            qualifier = tableName.substring(0, dot);
+            table = tableName.substring(dot + 1);
+        }
+        
+        if (metaData.storesLowerCaseIdentifiers()) {
+            qualifier = qualifier == null ? null : qualifier.toLowerCase();
+            table = table.toLowerCase();
+        } else if (metaData.storesUpperCaseIdentifiers()) {
+            qualifier = qualifier == null ? null : qualifier.toUpperCase();
+            table = table.toUpperCase();
+        }
+        
+        return metaData.supportsSchemasInTableDefinitions()
+            ? new String[]{null, qualifier, table}
+            : new String[]{qualifier, null, table};
     }
 }
\ No newline at end of file
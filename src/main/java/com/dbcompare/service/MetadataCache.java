@@ -0,0 +1,110 @@
+package com.dbcompare.service;
+
+import com.dbcompare.model.ColumnInfo;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table lists and column metadata per connection, so browsing a large catalog does not go back to
+ * the database on every request. Entries expire after a time to live, and the least recently used
+ * are evicted once the cache holds its maximum number of entries.
+ */
+@Service
+@RequiredArgsConstructor
+public class MetadataCache {
+    
+    private enum Kind { TABLES, COLUMNS, SCHEMA }
+    
+    private record Key(DataSource dataSource, Kind kind, String name) {}
+    
+    private record Entry(Object value, long expiresAt) {}
+    
+    private final MeterRegistry meterRegistry;
+    
+    @Value("${app.metadata.cache-ttl-seconds:600}")
+    private long ttlSeconds;
+    
+    @Value("${app.metadata.cache-max-entries:20000}")
+    private int maxEntries;
+    
+    private final Map<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+    
+    @PostConstruct
+    public void registerGauges() {
+        Gauge.builder("dbcompare.metadata.cache.entries", this, MetadataCache::size)
+            .description("Table lists and column metadata held in the cache")
+            .register(meterRegistry);
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    @SuppressWarnings("unchecked")
+    public List<String> getTables(DataSource dataSource) {
+        return (List<String>) get(new Key(dataSource, Kind.TABLES, null));
+    }
+    
+    public void putTables(DataSource dataSource, List<String> tables) {
+        put(new Key(dataSource, Kind.TABLES, null), List.copyOf(tables));
+    }
+    
+    @SuppressWarnings("unchecked")
+    public List<ColumnInfo> getColumns(DataSource dataSource, String tableName) {
+        return (List<ColumnInfo>) get(new Key(dataSource, Kind.COLUMNS, tableName));
+    }
+    
+    public void putColumns(DataSource dataSource, String tableName, List<ColumnInfo> columns) {
+        put(new Key(dataSource, Kind.COLUMNS, tableName), List.copyOf(columns));
+    }
+    
+    // Whether every column of the schema was loaded in one go, so a table missing from it is looked up on its own
+    public boolean isPrefetched(DataSource dataSource, String schema) {
+        return get(new Key(dataSource, Kind.SCHEMA, schema)) != null;
+    }
+    
+    public void markPrefetched(DataSource dataSource, String schema) {
+        put(new Key(dataSource, Kind.SCHEMA, schema), Boolean.TRUE);
+    }
+    
+    public synchronized void invalidate(DataSource dataSource) {
+        entries.keySet().removeIf(key -> key.dataSource() == dataSource);
+    }
+    
+    // Drops one table's columns along with the table list and prefetch marks, which may all be stale with it
+    public synchronized void invalidate(DataSource dataSource, String tableName) {
+        entries.keySet().removeIf(key -> key.dataSource() == dataSource
+            && (key.kind() != Kind.COLUMNS || key.name().equals(tableName)));
+    }
+    
+    private synchronized Object get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt() > 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+    
+    private synchronized void put(Key key, Object value) {
+        entries.put(key, new Entry(value, System.nanoTime() + TimeUnit.SECONDS.toNanos(ttlSeconds)));
+    }
+}
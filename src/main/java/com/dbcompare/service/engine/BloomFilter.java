@@ -0,0 +1,60 @@
+package com.dbcompare.service.engine;
+
+/**
+ * Bloom filter over 64-bit hashes. The probes are derived from the hash by double hashing, so a
+ * value is hashed once however many probes the filter uses.
+ */
+final class BloomFilter {
+    private static final double LN2 = Math.log(2);
+    private static final int MAX_HASHES = 30;
+
+    private final long[] words;
+    private final long bits;
+    private final int hashes;
+
+    private BloomFilter(long bits, int hashes) {
+        this.words = new long[(int) ((bits + 63) / 64)];
+        this.bits = words.length * 64L;
+        this.hashes = hashes;
+    }
+
+    // Sized for the expected entries at the given rate, but never larger than maxBytes; unknown counts get all of maxBytes
+    static BloomFilter create(long expectedEntries, double falsePositiveRate, long maxBytes) {
+        long maxBits = Math.max(64, Math.min(maxBytes * 8, (Integer.MAX_VALUE - 8) * 64L));
+        long bits = expectedEntries < 0
+            ? maxBits
+            : Math.min(maxBits, Math.max(64, (long) Math.ceil(-Math.max(1, expectedEntries) * Math.log(falsePositiveRate) / (LN2 * LN2))));
+        int hashes = expectedEntries < 0
+            ? (int) Math.round(-Math.log(falsePositiveRate) / LN2)
+            : (int) Math.round((double) bits / Math.max(1, expectedEntries) * LN2);
+        return new BloomFilter(bits, Math.max(1, Math.min(MAX_HASHES, hashes)));
+    }
+
+    void put(long hash) {
+        long h2 = MinHashIndex.mix(hash) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(hash + i * h2, bits);
+            words[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(long hash) {
+        long h2 = MinHashIndex.mix(hash) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(hash + i * h2, bits);
+            if ((words[(int) (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Rate at which values never added still test positive once the given number of entries is in
+    double falsePositiveRate(long entries) {
+        return Math.pow(1 - Math.exp(-(double) hashes * entries / bits), hashes);
+    }
+
+    long sizeBytes() {
+        return words.length * 8L;
+    }
+}
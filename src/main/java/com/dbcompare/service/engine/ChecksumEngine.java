@@ -0,0 +1,402 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ColumnInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+/**
+ * Checksum comparison for near-identical tables. Each database hashes its own rows and sums the
+ * hashes per key bucket; only buckets whose count or checksum differ are split further, and full rows
+ * are fetched only for keys whose row hashes differ. Keys led by an integer column are bucketed by
+ * ranges of it, which indexes serve. Other keys are bucketed by a digest of each database's own text
+ * of the key, so a key written differently on the two sides, such as 1.50 and 1.5000, falls in two
+ * buckets; a key seen on one side only is therefore looked up on both before it is reported missing.
+ * No index serves a digest, so every digest query scans both tables; after a few such scans the
+ * remaining differing buckets are resolved together in one last scan instead of drilled further.
+ */
+@Slf4j
+@Service
+public class ChecksumEngine {
+    private static final int SUB_BUCKETS = 16;
+    private static final int MAX_DIGEST_SCANS = 8;
+
+    // Integer keys are cut into this many ranges; digests into the power of 16 at or above it, one hex digit per 16
+    @Value("${app.comparison.checksum-buckets:1024}")
+    private int bucketCount;
+
+    @Value("${app.comparison.checksum-leaf-rows:10000}")
+    private int leafRows;
+
+    public void compare(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws SQLException {
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+
+            KeyCodec codec = KeyCodec.probe(sourceConn, targetConn, context, false);
+            Side source = new Side(sourceConn, context.getOptions().getSourceTable(), context.getSourceColumns(),
+                context.getSourceColumnTypes(), codec, context);
+            Side target = new Side(targetConn, context.getOptions().getTargetTable(), context.getTargetColumns(),
+                context.getTargetColumnTypes(), codec, context);
+            Pending leaves = new Pending();
+
+            // A key led by an integer column is bucketed by its value, with NULLs apart; anything else by digest of the encoded key
+            if (codec.type(0) == KeyType.LONG) {
+                Bucket root = rootRange(source, target);
+                if (root != null) {
+                    drill(source, target, root, bucketCount, leaves, context);
+                }
+                drill(source, target, Bucket.NULL_KEYS, 0, leaves, context);
+            } else {
+                drill(source, target, Bucket.digestRoot(), bucketCount, leaves, context);
+            }
+            resolveLeaves(source, target, leaves, context);
+        }
+    }
+
+    // Splits a differing bucket until its pieces are small enough to compare row hashes directly
+    private void drill(Side source, Side target, Bucket bucket, int fanout, Pending leaves, ComparisonContext context)
+        throws SQLException {
+        if (!bucket.canSplit()) {
+            BucketStat sourceStat = source.stat(bucket);
+            BucketStat targetStat = target.stat(bucket);
+            if (sourceStat.equals(targetStat)) {
+                verified(sourceStat, targetStat, context);
+            } else {
+                queueLeaf(source, target, bucket, leaves, context);
+            }
+            return;
+        }
+
+        if (bucket.isDigest()) {
+            leaves.digestScans++;
+        }
+        Map<Bucket, BucketStat> sourceStats = source.children(bucket, fanout);
+        Map<Bucket, BucketStat> targetStats = target.children(bucket, fanout);
+        Set<Bucket> children = new LinkedHashSet<>(sourceStats.keySet());
+        children.addAll(targetStats.keySet());
+
+        for (Bucket child : children) {
+            BucketStat sourceStat = sourceStats.getOrDefault(child, BucketStat.EMPTY);
+            BucketStat targetStat = targetStats.getOrDefault(child, BucketStat.EMPTY);
+            if (sourceStat.equals(targetStat)) {
+                verified(sourceStat, targetStat, context);
+                continue;
+            }
+
+            long rows = Math.max(sourceStat.rows, targetStat.rows);
+            if (rows > leafRows && child.canSplit() && leaves.canScan(child)) {
+                drill(source, target, child, SUB_BUCKETS, leaves, context);
+            } else {
+                child.rows = rows;
+                queueLeaf(source, target, child, leaves, context);
+            }
+        }
+    }
+
+    private void queueLeaf(Side source, Side target, Bucket bucket, Pending leaves, ComparisonContext context)
+        throws SQLException {
+        leaves.buckets.add(bucket);
+        if (leaves.buckets.stream().mapToLong(leaf -> leaf.rows).sum() >= leafRows && leaves.canScan(bucket)) {
+            resolveLeaves(source, target, leaves, context);
+        }
+    }
+
+    // Compares per-row hashes inside differing buckets, then fetches full rows only for keys that differ
+    private void resolveLeaves(Side source, Side target, Pending leaves, ComparisonContext context) throws SQLException {
+        if (leaves.buckets.isEmpty()) {
+            return;
+        }
+
+        if (leaves.buckets.stream().anyMatch(Bucket::isDigest)) {
+            leaves.digestScans++;
+        }
+        Map<RowKey, Long> sourceHashes = new HashMap<>();
+        Map<RowKey, Object[]> differingKeys = new LinkedHashMap<>();
+        Set<RowKey> bothSides = new HashSet<>();
+        source.rowHashes(leaves.buckets, (key, params, hash) -> {
+            sourceHashes.put(key, hash);
+            context.sourceRowsRead(1);
+        });
+        target.rowHashes(leaves.buckets, (key, params, hash) -> {
+            context.targetRowsRead(1);
+            Long sourceHash = sourceHashes.remove(key);
+            if (sourceHash != null) {
+                bothSides.add(key);
+            }
+            if (sourceHash == null || sourceHash != hash) {
+                differingKeys.put(key, params);
+            }
+        });
+        leaves.buckets.clear();
+
+        // Keys seen on one side only may be on the other in a bucket of its own, so both sides are looked up
+        Collection<Object[]> keys = keysOf(differingKeys, sourceHashes.keySet(), source);
+        Map<RowKey, String[]> sourceRows = KeyLookup.fetchRows(source.conn, source.table, source.columns, source.codec, keys, context);
+        Map<RowKey, String[]> targetRows = KeyLookup.fetchRows(target.conn, target.table, target.columns, target.codec, keys, context);
+
+        for (Map.Entry<RowKey, String[]> entry : sourceRows.entrySet()) {
+            String[] targetRow = targetRows.remove(entry.getKey());
+            if (targetRow == null) {
+                context.missingTarget(entry.getValue());
+            } else if (bothSides.contains(entry.getKey()) || leaves.splitKeys.add(entry.getKey())) {
+                // A pair split across buckets is found from each of them; it is compared the first time only
+                context.compareRows(entry.getValue(), targetRow);
+            }
+        }
+        for (String[] targetRow : targetRows.values()) {
+            context.missingSource(targetRow);
+        }
+    }
+
+    // Keys only present on the source side still need to be looked up by their source-typed value
+    private Collection<Object[]> keysOf(Map<RowKey, Object[]> differingKeys, Set<RowKey> sourceOnly, Side source) {
+        List<Object[]> keys = new ArrayList<>(differingKeys.values());
+        for (RowKey key : sourceOnly) {
+            keys.add(source.keyObjects.get(key));
+        }
+        return keys;
+    }
+
+    // Rows of buckets whose checksums agree count as read without being fetched
+    private void verified(BucketStat sourceStat, BucketStat targetStat, ComparisonContext context) {
+        context.sourceRowsRead(sourceStat.rows);
+        context.targetRowsRead(targetStat.rows);
+    }
+
+    private Bucket rootRange(Side source, Side target) throws SQLException {
+        long[] sourceRange = KeyRange.minMax(source.conn, source.table, source.key());
+        long[] targetRange = KeyRange.minMax(target.conn, target.table, target.key());
+        if (sourceRange == null && targetRange == null) {
+            return null;
+        }
+        long low = sourceRange == null ? targetRange[0] : targetRange == null ? sourceRange[0] : Math.min(sourceRange[0], targetRange[0]);
+        long high = sourceRange == null ? targetRange[1] : targetRange == null ? sourceRange[1] : Math.max(sourceRange[1], targetRange[1]);
+
+        try {
+            Math.subtractExact(Math.addExact(high, 1), low);
+            return new Bucket(null, low, high + 1, null);
+        } catch (ArithmeticException e) {
+            // Key span too wide to do range arithmetic on; bucket by key digest instead
+            return Bucket.digestRoot();
+        }
+    }
+
+    // Leaf buckets waiting to be resolved, the keys found in different buckets on the two sides so far,
+    // and the whole-table scans digest buckets took
+    private static final class Pending {
+        private final List<Bucket> buckets = new ArrayList<>();
+        private final Set<RowKey> splitKeys = new HashSet<>();
+        private int digestScans;
+
+        // Range buckets are read through the key index and always worth another query
+        boolean canScan(Bucket bucket) {
+            return !bucket.isDigest() || digestScans < MAX_DIGEST_SCANS;
+        }
+    }
+
+    private interface RowHashConsumer {
+        void accept(RowKey key, Object[] params, long hash);
+    }
+
+    private record BucketStat(long rows, BigDecimal checksum) {
+        static final BucketStat EMPTY = new BucketStat(0, BigDecimal.ZERO);
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof BucketStat other && rows == other.rows && checksum.compareTo(other.checksum) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(rows);
+        }
+    }
+
+    /**
+     * A slice of the key space: a half-open range [low, high) of integer keys, a prefix of the MD5 of
+     * the encoded key, or the rows with a NULL integer key.
+     */
+    private static final class Bucket {
+        static final Bucket NULL_KEYS = new Bucket(null, 0, 0, null);
+
+        private final String id;
+        private final long low;
+        private final long high;
+        private final String prefix;
+        private long rows;
+
+        static Bucket digestRoot() {
+            return new Bucket(null, 0, 0, "");
+        }
+
+        Bucket(String id, long low, long high, String prefix) {
+            this.id = id;
+            this.low = low;
+            this.high = high;
+            this.prefix = prefix;
+        }
+
+        boolean isRange() {
+            return this != NULL_KEYS && prefix == null;
+        }
+
+        boolean isDigest() {
+            return prefix != null;
+        }
+
+        boolean canSplit() {
+            return this != NULL_KEYS && (isRange() ? high - low > 1 : prefix.length() < 32);
+        }
+
+        String predicate(Side side) {
+            if (this == NULL_KEYS) {
+                return side.key() + " IS NULL";
+            }
+            if (isRange()) {
+                return String.format("%s >= %d AND %s < %d", side.key(), low, side.key(), high);
+            }
+            return prefix.isEmpty() ? "1 = 1" : String.format("%s = '%s'", side.keyDigest(prefix.length()), prefix);
+        }
+
+        long width(int fanout) {
+            return Math.max(1, (high - low + fanout - 1) / fanout);
+        }
+
+        String childExpression(Side side, int fanout) {
+            if (isRange()) {
+                return String.format("FLOOR((%s - %d) / %d)", side.key(), low, width(fanout));
+            }
+            // Digits of hex split 16 ways each, so the root fanout is rounded up to a power of 16: 1024 buckets become 4096
+            int digits = prefix.isEmpty() ? Math.max(1, (int) Math.ceil(Math.log(fanout) / Math.log(16))) : 1;
+            return side.keyDigest(Math.min(32, prefix.length() + digits));
+        }
+
+        Bucket child(ResultSet rs, int fanout) throws SQLException {
+            if (isRange()) {
+                long index = rs.getLong(1);
+                long childLow = low + index * width(fanout);
+                return new Bucket(Long.toString(index), childLow, Math.min(high, childLow + width(fanout)), null);
+            }
+            String childPrefix = rs.getString(1);
+            return new Bucket(childPrefix, 0, 0, childPrefix);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Bucket other && Objects.equals(id, other.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(id);
+        }
+    }
+
+    private static final class Side {
+        private final Connection conn;
+        private final SqlDialect dialect;
+        private final String table;
+        private final List<String> columns;
+        private final KeyCodec codec;
+        private final ComparisonContext context;
+        private final Map<String, ColumnInfo> types;
+        private final String rowHash;
+        private final Map<RowKey, Object[]> keyObjects = new HashMap<>();
+
+        Side(Connection conn, String table, List<String> columns, Map<String, ColumnInfo> knownTypes, KeyCodec codec,
+             ComparisonContext context) throws SQLException {
+            this.conn = conn;
+            this.dialect = SqlDialect.of(conn);
+            this.table = table;
+            this.columns = columns;
+            this.codec = codec;
+            this.context = context;
+            this.types = ValueType.describe(conn, table, columns, knownTypes);
+            this.rowHash = dialect.rowHash(columns, types);
+        }
+
+        String key() {
+            return columns.get(0);
+        }
+
+        List<String> keys() {
+            return columns.subList(0, codec.size());
+        }
+
+        String keyDigest(int length) {
+            return String.format("SUBSTRING(%s, 1, %d)", dialect.md5Hex(dialect.encodedText(keys(), types)), length);
+        }
+
+        BucketStat stat(Bucket bucket) throws SQLException {
+            String query = String.format(
+                "SELECT COUNT(*), %s FROM %s WHERE %s",
+                dialect.sumOfHashes(rowHash), table, bucket.predicate(this)
+            );
+            try (Statement stmt = context.track(conn.createStatement());
+                 ResultSet rs = context.time("query", () -> stmt.executeQuery(query))) {
+                rs.next();
+                BigDecimal checksum = rs.getBigDecimal(2);
+                return new BucketStat(rs.getLong(1), checksum == null ? BigDecimal.ZERO : checksum);
+            }
+        }
+
+        Map<Bucket, BucketStat> children(Bucket bucket, int fanout) throws SQLException {
+            String childExpression = bucket.childExpression(this, fanout);
+            String query = String.format(
+                "SELECT %s, COUNT(*), %s FROM %s WHERE %s GROUP BY %s",
+                childExpression, dialect.sumOfHashes(rowHash), table, bucket.predicate(this), childExpression
+            );
+            log.debug("Checksum bucket query: {}", query);
+
+            Map<Bucket, BucketStat> stats = new HashMap<>();
+            try (PreparedStatement stmt = context.track(dialect.prepareStreaming(conn, query));
+                 ResultSet rs = context.executeQuery(stmt)) {
+                while (rs.next()) {
+                    context.checkCancelled();
+                    stats.put(bucket.child(rs, fanout), new BucketStat(rs.getLong(2), rs.getBigDecimal(3)));
+                }
+            }
+            return stats;
+        }
+
+        void rowHashes(List<Bucket> buckets, RowHashConsumer consumer) throws SQLException {
+            // Digest prefixes of a length share one IN list, so each row's digest is computed once per length
+            StringJoiner predicate = new StringJoiner(" OR ");
+            Map<Integer, StringJoiner> prefixes = new TreeMap<>();
+            for (Bucket bucket : buckets) {
+                if (bucket.isDigest() && !bucket.prefix.isEmpty()) {
+                    prefixes.computeIfAbsent(bucket.prefix.length(), length -> new StringJoiner(", ")).add("'" + bucket.prefix + "'");
+                } else {
+                    predicate.add("(" + bucket.predicate(this) + ")");
+                }
+            }
+            prefixes.forEach((length, values) -> predicate.add(String.format("%s IN (%s)", keyDigest(length), values)));
+
+            String query = String.format("SELECT %s, %s FROM %s WHERE %s", String.join(", ", keys()), rowHash, table, predicate);
+            int keyCount = codec.size();
+            keyObjects.clear();
+            try (PreparedStatement stmt = context.track(dialect.prepareStreaming(conn, query));
+                 ResultSet rs = context.executeQuery(stmt)) {
+                while (rs.next()) {
+                    context.checkCancelled();
+                    RowKey key = codec.read(rs, 1);
+                    Object[] params = new Object[keyCount];
+                    for (int i = 0; i < keyCount; i++) {
+                        params[i] = rs.getObject(i + 1);
+                    }
+                    keyObjects.put(key, params);
+                    consumer.accept(key, params, rs.getLong(keyCount + 1));
+                }
+            }
+        }
+    }
+}
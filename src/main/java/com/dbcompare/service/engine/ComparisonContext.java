@@ -0,0 +1,413 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ColumnInfo;
+import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.model.ComparisonResult;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * State of a single comparison run: the resolved column layout, the sink results are emitted to,
+ * progress counters, and the statements to cancel when the run is stopped. It also collects the time
+ * spent per phase and the rows held in memory, which are published as metrics.
+ */
+@Slf4j
+@Getter
+public class ComparisonContext {
+    private final ComparisonOptions options;
+    private final Map<String, String> columnMap = new LinkedHashMap<>();
+    private List<String> sourceColumns;
+    private List<String> targetColumns;
+    private int keyColumnCount = 1;
+    // Column types from cached metadata by column name; engines probe the table for any not known here
+    private Map<String, ColumnInfo> sourceColumnTypes = Map.of();
+    private Map<String, ColumnInfo> targetColumnTypes = Map.of();
+    // How each column of the layout is compared; without them values are compared as read
+    @Getter(AccessLevel.PACKAGE)
+    private ValueType[] valueTypes;
+    private final Consumer<ComparisonResult> sink;
+    private long nextId = 1;
+    // Set for summary runs, which count differences instead of building results
+    @Getter(AccessLevel.NONE)
+    private DifferenceSummary summary;
+
+    @Getter(AccessLevel.NONE)
+    private final LongAdder sourceRowsRead = new LongAdder();
+    @Getter(AccessLevel.NONE)
+    private final LongAdder targetRowsRead = new LongAdder();
+    private volatile long estimatedSourceRows = -1;
+    private volatile long estimatedTargetRows = -1;
+    @Getter(AccessLevel.NONE)
+    private final Map<String, Long> differenceCounts = new TreeMap<>();
+    @Getter(AccessLevel.NONE)
+    private final Map<String, LongAdder> phaseNanos = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private final AtomicLong rowsHeld = new AtomicLong();
+
+    // Weakly held, so statements that were closed normally drop out without being unregistered
+    @Getter(AccessLevel.NONE)
+    private final Set<Statement> statements = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private volatile String cancelReason;
+
+    public ComparisonContext(ComparisonOptions options, Consumer<ComparisonResult> sink) {
+        this.options = options;
+        this.sink = sink;
+
+        // Skipped columns are left out of the layout, so no query ever selects them
+        List<String> skipColumns = options.getSkipColumns() == null ? List.of() : options.getSkipColumns();
+        options.getColumnMappings().stream()
+            .filter(mapping -> skipColumns.stream().noneMatch(skip ->
+                skip.equalsIgnoreCase(mapping.getSourceColumn()) || skip.equalsIgnoreCase(mapping.getTargetColumn())))
+            .forEach(mapping -> columnMap.put(mapping.getSourceColumn(), mapping.getTargetColumn()));
+
+        if (columnMap.isEmpty()) {
+            throw new IllegalArgumentException("At least one column mapping is required");
+        }
+
+        this.sourceColumns = List.copyOf(columnMap.keySet());
+        this.targetColumns = List.copyOf(columnMap.values());
+    }
+
+    // Moves the given source columns to the front of the layout; together they identify a row on both sides
+    public void useKeyColumns(List<String> sourceKeys) {
+        Map<String, String> reordered = new LinkedHashMap<>();
+
+        for (String key : sourceKeys) {
+            String mapped = columnMap.keySet().stream()
+                .filter(column -> column.equalsIgnoreCase(key))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Key column " + key + " is not mapped"));
+            reordered.put(mapped, columnMap.get(mapped));
+        }
+        if (reordered.isEmpty()) {
+            throw new IllegalArgumentException("At least one key column is required");
+        }
+        int keyCount = reordered.size();
+        reordered.putAll(columnMap);
+
+        columnMap.clear();
+        columnMap.putAll(reordered);
+        this.sourceColumns = List.copyOf(columnMap.keySet());
+        this.targetColumns = List.copyOf(columnMap.values());
+        this.keyColumnCount = keyCount;
+    }
+
+    public void useColumnTypes(List<ColumnInfo> sourceTypes, List<ColumnInfo> targetTypes) {
+        this.sourceColumnTypes = byName(sourceTypes);
+        this.targetColumnTypes = byName(targetTypes);
+    }
+
+    // Reconciles the types of both sides per column; call once the key columns are in place
+    public void resolveValueTypes(Connection sourceConn, Connection targetConn) throws SQLException {
+        this.valueTypes = ValueType.common(
+            ValueType.probe(sourceConn, options.getSourceTable(), sourceColumns, sourceColumnTypes),
+            ValueType.probe(targetConn, options.getTargetTable(), targetColumns, targetColumnTypes)
+        );
+    }
+
+    private static Map<String, ColumnInfo> byName(List<ColumnInfo> columns) {
+        Map<String, ColumnInfo> types = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        columns.forEach(column -> types.putIfAbsent(column.getName(), column));
+        return types;
+    }
+
+    // From here on differences are only counted, per status and per column, with a sample of their keys; the sink sees none
+    public DifferenceSummary summarize(int sampleSize) {
+        this.summary = new DifferenceSummary(sampleSize);
+        return summary;
+    }
+
+    // Fuzzy matching pairs rows by similarity, so results carry no key
+    public void clearKeyColumns() {
+        this.keyColumnCount = 0;
+    }
+
+    public List<String> getSourceKeyColumns() {
+        return sourceColumns.subList(0, keyColumnCount);
+    }
+
+    public List<String> getTargetKeyColumns() {
+        return targetColumns.subList(0, keyColumnCount);
+    }
+
+    // The leading key column, which key ranges and checksum buckets are cut on
+    public String getSourceKeyColumn() {
+        return sourceColumns.get(0);
+    }
+
+    public String getTargetKeyColumn() {
+        return targetColumns.get(0);
+    }
+
+    public void estimateRows(long sourceRows, long targetRows) {
+        this.estimatedSourceRows = sourceRows;
+        this.estimatedTargetRows = targetRows;
+    }
+
+    public void sourceRowsRead(long rows) {
+        sourceRowsRead.add(rows);
+    }
+
+    public void targetRowsRead(long rows) {
+        targetRowsRead.add(rows);
+    }
+
+    public long getSourceRowsRead() {
+        return sourceRowsRead.sum();
+    }
+
+    public long getTargetRowsRead() {
+        return targetRowsRead.sum();
+    }
+
+    public synchronized long getDifferenceCount() {
+        return nextId - 1;
+    }
+
+    public synchronized Map<String, Long> getDifferenceCounts() {
+        return new TreeMap<>(differenceCounts);
+    }
+
+    @FunctionalInterface
+    public interface Work<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    // Time spent in a phase is summed over all threads working on the run
+    public <T, E extends Exception> T time(String phase, Work<T, E> work) throws E {
+        long start = System.nanoTime();
+        try {
+            return work.run();
+        } finally {
+            addPhaseTime(phase, System.nanoTime() - start);
+        }
+    }
+
+    public void addPhaseTime(String phase, long nanos) {
+        phaseNanos.computeIfAbsent(phase, key -> new LongAdder()).add(nanos);
+    }
+
+    public Map<String, Long> getPhaseNanos() {
+        Map<String, Long> nanos = new TreeMap<>();
+        phaseNanos.forEach((phase, adder) -> nanos.put(phase, adder.sum()));
+        return nanos;
+    }
+
+    // Until it returns rows, a query's time is the database's; reading them is timed by the engines
+    public ResultSet executeQuery(PreparedStatement statement) throws SQLException {
+        return time("query", statement::executeQuery);
+    }
+
+    // Engines that buffer rows report how many they hold, and release them when done
+    public void holdRows(long rows) {
+        rowsHeld.addAndGet(rows);
+    }
+
+    public long getRowsHeld() {
+        return rowsHeld.get();
+    }
+
+    // Registers a statement to be cancelled if the run is stopped while it executes
+    public <T extends Statement> T track(T statement) throws SQLException {
+        statements.add(statement);
+        if (cancelReason != null) {
+            statement.cancel();
+        }
+        return statement;
+    }
+
+    public void cancel(String reason) {
+        if (cancelReason != null) {
+            return;
+        }
+        cancelReason = reason;
+
+        List<Statement> running;
+        synchronized (statements) {
+            running = new ArrayList<>(statements);
+        }
+        for (Statement statement : running) {
+            try {
+                statement.cancel();
+            } catch (SQLException e) {
+                log.debug("Failed to cancel statement", e);
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelReason != null;
+    }
+
+    // Called from row loops so work that runs without a database statement also stops promptly
+    public void checkCancelled() {
+        if (cancelReason != null) {
+            throw new CancellationException(cancelReason);
+        }
+    }
+
+    // Engines that compare key ranges concurrently share one context, so ids and the sink are guarded here
+    public synchronized void emit(ComparisonResult result) {
+        checkCancelled();
+        result.setId(nextId++);
+        differenceCounts.merge(result.getStatus(), 1L, Long::sum);
+        // The sink serializes or exports the result, which is timed apart from finding it
+        long start = System.nanoTime();
+        try {
+            sink.accept(result);
+        } finally {
+            addPhaseTime("emit", System.nanoTime() - start);
+        }
+    }
+
+    public void missingTarget(Object[] sourceRow) {
+        if (summary != null) {
+            count("missing_target", sourceRow, null);
+        } else {
+            emit(missingRow("missing_target", sourceRow, true));
+        }
+    }
+
+    public void missingSource(Object[] targetRow) {
+        if (summary != null) {
+            count("missing_source", targetRow, null);
+        } else {
+            emit(missingRow("missing_source", targetRow, false));
+        }
+    }
+
+    // Rows are aligned with sourceColumns/targetColumns, so mapped columns share an index. Values are text,
+    // or typed as ValueType reads them; either way they are only formatted as text when they are reported.
+    public void compareRows(Object[] sourceRow, Object[] targetRow) {
+        if (summary != null) {
+            countMismatch(sourceRow, targetRow);
+            return;
+        }
+        ComparisonResult result = compare(sourceRow, targetRow);
+        if (result != null) {
+            emit(result);
+        }
+    }
+
+    // A pair of rows matched by similarity; reported like a keyed pair, along with its similarity in percent
+    public void fuzzyMatch(Object[] sourceRow, Object[] targetRow, double similarity) {
+        if (summary != null) {
+            countMismatch(sourceRow, targetRow);
+            return;
+        }
+        ComparisonResult result = compare(sourceRow, targetRow);
+        if (result != null) {
+            result.setSimilarity(Math.round(similarity * 1000) / 10.0);
+            emit(result);
+        }
+    }
+
+    // Which columns of a keyed pair differ, by the same rules as compareRows, without reporting anything
+    boolean[] differingColumns(Object[] sourceRow, Object[] targetRow) {
+        boolean[] differing = new boolean[sourceRow.length];
+        for (int i = 0; i < sourceRow.length; i++) {
+            differing[i] = !same(i, sourceRow[i], targetRow[i]);
+        }
+        return differing;
+    }
+
+    // Same rules as compare, but the values are never formatted and nothing is allocated for rows that agree
+    private void countMismatch(Object[] sourceRow, Object[] targetRow) {
+        boolean[] differing = null;
+        for (int i = 0; i < sourceRow.length; i++) {
+            if (!same(i, sourceRow[i], targetRow[i])) {
+                if (differing == null) {
+                    differing = new boolean[sourceRow.length];
+                }
+                differing[i] = true;
+            }
+        }
+        if (differing != null) {
+            count("mismatched", sourceRow, differing);
+        }
+    }
+
+    private synchronized void count(String status, Object[] row, boolean[] differing) {
+        checkCancelled();
+        nextId++;
+        differenceCounts.merge(status, 1L, Long::sum);
+        summary.add(this, status, row, differing);
+    }
+
+    private ComparisonResult compare(Object[] sourceRow, Object[] targetRow) {
+        Map<String, ComparisonResult.ValueDifference> differences = null;
+
+        for (int i = 0; i < sourceRow.length; i++) {
+            if (!same(i, sourceRow[i], targetRow[i])) {
+                if (differences == null) {
+                    differences = new HashMap<>();
+                }
+                differences.put(sourceColumns.get(i), difference(ValueType.format(sourceRow[i]), ValueType.format(targetRow[i])));
+            }
+        }
+
+        if (differences == null) {
+            return null;
+        }
+        ComparisonResult result = new ComparisonResult();
+        result.setStatus("mismatched");
+        result.setKey(key(sourceRow));
+        result.setDifferences(differences);
+        return result;
+    }
+
+    // Differences are keyed by source column name on both sides, so mapped columns line up in results and exports
+    private ComparisonResult missingRow(String status, Object[] row, boolean fromSource) {
+        Map<String, ComparisonResult.ValueDifference> differences = new HashMap<>();
+
+        for (int i = 0; i < row.length; i++) {
+            String value = ValueType.format(row[i]);
+            differences.put(sourceColumns.get(i), fromSource ? difference(value, null) : difference(null, value));
+        }
+
+        ComparisonResult result = new ComparisonResult();
+        result.setStatus(status);
+        result.setKey(key(row));
+        result.setDifferences(differences);
+        return result;
+    }
+
+    Map<String, String> key(Object[] row) {
+        if (keyColumnCount == 0) {
+            return null;
+        }
+        Map<String, String> key = new LinkedHashMap<>();
+        for (int i = 0; i < keyColumnCount; i++) {
+            key.put(sourceColumns.get(i), ValueType.format(row[i]));
+        }
+        return key;
+    }
+
+    private boolean same(int column, Object sourceValue, Object targetValue) {
+        if (valueTypes == null) {
+            return Objects.equals(sourceValue, targetValue);
+        }
+        double tolerance = options.getNumericTolerance() == null ? 0 : options.getNumericTolerance();
+        return valueTypes[column].same(sourceValue, targetValue, tolerance, options.getTimestampPrecision());
+    }
+
+    private ComparisonResult.ValueDifference difference(String sourceValue, String targetValue) {
+        ComparisonResult.ValueDifference diff = new ComparisonResult.ValueDifference();
+        diff.setSourceValue(sourceValue);
+        diff.setTargetValue(targetValue);
+        return diff;
+    }
+}
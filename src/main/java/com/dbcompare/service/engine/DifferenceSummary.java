@@ -0,0 +1,81 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonSummary;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * What a summary run keeps of its differences: mismatches per column and a uniform sample of the
+ * differing keys, so its memory does not grow with the number of differences. The sample is a
+ * reservoir; a key is only formatted when it is taken into it.
+ */
+public class DifferenceSummary {
+    private final int sampleSize;
+    private final Random random = new Random();
+    private final List<ComparisonSummary.SampleDifference> sample = new ArrayList<>();
+    private long[] columnMismatches;
+    private long seen;
+
+    DifferenceSummary(int sampleSize) {
+        this.sampleSize = Math.max(0, sampleSize);
+    }
+
+    // Differing is null for missing rows, which are counted by status only
+    synchronized void add(ComparisonContext context, String status, Object[] row, boolean[] differing) {
+        if (differing != null) {
+            if (columnMismatches == null) {
+                columnMismatches = new long[differing.length];
+            }
+            for (int i = 0; i < differing.length; i++) {
+                if (differing[i]) {
+                    columnMismatches[i]++;
+                }
+            }
+        }
+
+        seen++;
+        int slot = sample.size() < sampleSize ? sample.size() : (int) Math.min(Integer.MAX_VALUE, nextLong(seen));
+        if (slot >= sampleSize) {
+            return;
+        }
+        ComparisonSummary.SampleDifference difference = new ComparisonSummary.SampleDifference();
+        difference.setStatus(status);
+        difference.setKey(context.key(row));
+        if (differing != null) {
+            List<String> columns = new ArrayList<>();
+            for (int i = 0; i < differing.length; i++) {
+                if (differing[i]) {
+                    columns.add(context.getSourceColumns().get(i));
+                }
+            }
+            difference.setColumns(columns);
+        }
+        if (slot == sample.size()) {
+            sample.add(difference);
+        } else {
+            sample.set(slot, difference);
+        }
+    }
+
+    // Every value column by name, in layout order; key columns always agree within a pair, so they are left out
+    public synchronized Map<String, Long> columnMismatches(ComparisonContext context) {
+        List<String> columns = context.getSourceColumns();
+        Map<String, Long> mismatches = new LinkedHashMap<>();
+        for (int i = context.getKeyColumnCount(); i < columns.size(); i++) {
+            mismatches.put(columns.get(i), columnMismatches == null ? 0 : columnMismatches[i]);
+        }
+        return mismatches;
+    }
+
+    public synchronized List<ComparisonSummary.SampleDifference> sample() {
+        return new ArrayList<>(sample);
+    }
+
+    private long nextLong(long bound) {
+        return (random.nextLong() & Long.MAX_VALUE) % bound;
+    }
+}
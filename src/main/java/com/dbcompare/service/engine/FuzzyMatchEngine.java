@@ -0,0 +1,385 @@
+package com.dbcompare.service.engine;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Pairs rows of tables that share no reliable key by how similar they are. The target table is read
+ * into a MinHash LSH index over the character trigrams of its rows; each source row then only scores
+ * the target rows it collides with. A pair's similarity is the mean of its column similarities, each
+ * the trigram Jaccard similarity of the normalized values. Key columns, when given, are blocking keys:
+ * only rows with equal keys are compared.
+ *
+ * Pairs are assigned best first across the whole table rather than in source order, so a row whose
+ * counterpart is missing cannot take the counterpart of a later row. Both tables are held in memory.
+ */
+@Slf4j
+@Service
+public class FuzzyMatchEngine {
+    private static final int DEFAULT_THRESHOLD = 80;
+    private static final int MAX_CANDIDATES = 64;
+    // Scored pairs kept per source row, enough to fall back on when its best target goes to a better pair
+    private static final int PAIRS_PER_ROW = 4;
+    // Rough heap cost of a loaded row and of each of its values, on top of the characters
+    private static final int ROW_OVERHEAD = 64;
+    private static final int VALUE_OVERHEAD = 48;
+
+    @Value("${app.comparison.memory-budget-mb:256}")
+    private int defaultMemoryBudgetMb;
+
+    public void compare(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws SQLException {
+        Integer requestedThreshold = context.getOptions().getFuzzyThreshold();
+        int thresholdPercent = requestedThreshold != null ? requestedThreshold : DEFAULT_THRESHOLD;
+        if (thresholdPercent < 0 || thresholdPercent > 100) {
+            throw new IllegalArgumentException("Fuzzy threshold must be between 0 and 100");
+        }
+        double threshold = thresholdPercent / 100.0;
+
+        Integer requestedBudget = context.getOptions().getMemoryBudgetMb();
+        long memoryBudget = (requestedBudget != null ? requestedBudget : defaultMemoryBudgetMb) * 1024L * 1024L;
+
+        // Rows whose columns are on average s similar have a trigram Jaccard similarity of about s / (2 - s)
+        MinHashIndex index = new MinHashIndex(threshold / (2 - threshold));
+        int keyCount = context.getKeyColumnCount();
+        log.debug("Fuzzy matching at {}% with {} bands of {} hashes", thresholdPercent, index.bands(), index.rowsPerBand());
+
+        List<String[]> targetRows = new ArrayList<>();
+        // Trigrams of target rows are kept, since each target row is scored against many source rows
+        List<long[][]> targetGrams = new ArrayList<>();
+        long loadedBytes = 0;
+        String targetQuery = buildSelectQuery(context.getOptions().getTargetTable(), context.getTargetColumns());
+        try (Connection conn = targetDs.getConnection();
+             PreparedStatement stmt = context.track(SqlDialect.of(conn).prepareStreaming(conn, targetQuery));
+             ResultSet rs = context.executeQuery(stmt)) {
+
+            while (rs.next()) {
+                context.checkCancelled();
+                String[] row = readRow(rs, context.getTargetColumns().size());
+                context.targetRowsRead(1);
+
+                long[][] grams = trigrams(row, keyCount);
+                loadedBytes += estimateSize(row) + estimateSize(grams);
+                if (loadedBytes > memoryBudget) {
+                    throw new IllegalStateException(
+                        "Fuzzy matching holds the target table in memory and it exceeds the memory budget of "
+                            + memoryBudget / (1024 * 1024) + " MB"
+                    );
+                }
+                index.add(targetRows.size(), index.bandKeys(shingles(grams), blockHash(row, keyCount)));
+                targetRows.add(row);
+                targetGrams.add(grams);
+                context.holdRows(1);
+            }
+        }
+
+        List<String[]> sourceRows = new ArrayList<>();
+        Pairs pairs = new Pairs();
+        String sourceQuery = buildSelectQuery(context.getOptions().getSourceTable(), context.getSourceColumns());
+        try (Connection conn = sourceDs.getConnection();
+             PreparedStatement stmt = context.track(SqlDialect.of(conn).prepareStreaming(conn, sourceQuery));
+             ResultSet rs = context.executeQuery(stmt)) {
+
+            BitSet none = new BitSet();
+            while (rs.next()) {
+                context.checkCancelled();
+                String[] row = readRow(rs, context.getSourceColumns().size());
+                context.sourceRowsRead(1);
+
+                loadedBytes += estimateSize(row);
+                if (loadedBytes > memoryBudget) {
+                    throw new IllegalStateException(
+                        "Fuzzy matching holds both tables in memory and they exceed the memory budget of "
+                            + memoryBudget / (1024 * 1024) + " MB"
+                    );
+                }
+
+                long[][] grams = trigrams(row, keyCount);
+                int sourceRow = sourceRows.size();
+                sourceRows.add(row);
+                context.holdRows(1);
+                for (int candidate : index.candidates(index.bandKeys(shingles(grams), blockHash(row, keyCount)), MAX_CANDIDATES, none)) {
+                    String[] targetRow = targetRows.get(candidate);
+                    if (sameKeys(row, targetRow, keyCount)) {
+                        double score = similarity(row, grams, targetRow, targetGrams.get(candidate), keyCount);
+                        if (score >= threshold) {
+                            pairs.offer(sourceRow, candidate, score);
+                        }
+                    }
+                }
+                pairs.endRow();
+            }
+        }
+
+        int[] matchOf = new int[sourceRows.size()];
+        double[] scoreOf = new double[sourceRows.size()];
+        Arrays.fill(matchOf, -1);
+        BitSet claimed = new BitSet(targetRows.size());
+        for (int pair : pairs.bestFirst()) {
+            int sourceRow = pairs.source(pair);
+            int targetRow = pairs.target(pair);
+            if (matchOf[sourceRow] < 0 && !claimed.get(targetRow)) {
+                matchOf[sourceRow] = targetRow;
+                scoreOf[sourceRow] = pairs.score(pair);
+                claimed.set(targetRow);
+            }
+        }
+
+        for (int row = 0; row < sourceRows.size(); row++) {
+            context.checkCancelled();
+            if (matchOf[row] < 0) {
+                context.missingTarget(sourceRows.get(row));
+            } else {
+                context.fuzzyMatch(sourceRows.get(row), targetRows.get(matchOf[row]), scoreOf[row]);
+            }
+        }
+
+        for (int row = claimed.nextClearBit(0); row < targetRows.size(); row = claimed.nextClearBit(row + 1)) {
+            context.checkCancelled();
+            context.missingSource(targetRows.get(row));
+        }
+        context.holdRows(-(sourceRows.size() + targetRows.size()));
+    }
+
+    private static String[] readRow(ResultSet rs, int columnCount) throws SQLException {
+        String[] row = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            row[i] = rs.getString(i + 1);
+        }
+        return row;
+    }
+
+    private static long estimateSize(String[] row) {
+        long size = ROW_OVERHEAD;
+        for (String value : row) {
+            size += VALUE_OVERHEAD + (value == null ? 0 : value.length() * 2L);
+        }
+        return size;
+    }
+
+    private static long estimateSize(long[][] grams) {
+        long size = VALUE_OVERHEAD;
+        for (long[] column : grams) {
+            size += column == null ? 0 : VALUE_OVERHEAD + column.length * (long) Long.BYTES;
+        }
+        return size;
+    }
+
+    // Sorted, distinct trigrams of each non-key column; null for NULL values
+    private static long[][] trigrams(String[] row, int keyCount) {
+        long[][] grams = new long[row.length][];
+        for (int i = keyCount; i < row.length; i++) {
+            grams[i] = row[i] == null ? null : trigrams(row[i]);
+        }
+        return grams;
+    }
+
+    private static long[] trigrams(String value) {
+        String padded = "  " + normalize(value) + " ";
+        long[] grams = new long[padded.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+
+        int distinct = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[distinct - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+
+    // Trigrams are tagged with their column, so equal text in different columns does not look alike
+    private static long[] shingles(long[][] grams) {
+        int count = 0;
+        for (long[] column : grams) {
+            count += column == null ? 0 : column.length;
+        }
+
+        long[] shingles = new long[count];
+        int position = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (grams[i] != null) {
+                for (long gram : grams[i]) {
+                    shingles[position++] = gram | ((long) i << 48);
+                }
+            }
+        }
+        return shingles;
+    }
+
+    private static long blockHash(String[] row, int keyCount) {
+        long hash = 0;
+        for (int i = 0; i < keyCount; i++) {
+            hash = MinHashIndex.mix(hash + (row[i] == null ? 0 : row[i].hashCode()));
+        }
+        return hash;
+    }
+
+    private static boolean sameKeys(String[] sourceRow, String[] targetRow, int keyCount) {
+        for (int i = 0; i < keyCount; i++) {
+            if (!Objects.equals(sourceRow[i], targetRow[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double similarity(String[] sourceRow, long[][] sourceGrams, String[] targetRow, long[][] targetGrams, int keyCount) {
+        if (keyCount == sourceRow.length) {
+            return 1.0;
+        }
+
+        double total = 0;
+        for (int i = keyCount; i < sourceRow.length; i++) {
+            String source = sourceRow[i];
+            String target = targetRow[i];
+            if (source == null || target == null) {
+                total += source == null && target == null ? 1 : 0;
+            } else if (source.equals(target)) {
+                total += 1;
+            } else {
+                total += jaccard(sourceGrams[i], targetGrams[i]);
+            }
+        }
+        return total / (sourceRow.length - keyCount);
+    }
+
+    private static double jaccard(long[] a, long[] b) {
+        int shared = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] == b[j]) {
+                shared++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        int union = a.length + b.length - shared;
+        return union == 0 ? 1.0 : (double) shared / union;
+    }
+
+    // Lower case with runs of whitespace collapsed to one space and trimmed at both ends
+    private static String normalize(String value) {
+        StringBuilder normalized = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(Character.toLowerCase(c));
+            }
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * The few best scoring pairs of each source row, in parallel arrays. Pairs of the current row are
+     * collected until endRow(), which keeps only the best of them.
+     */
+    private static final class Pairs {
+        private int[] sources = new int[1024];
+        private int[] targets = new int[1024];
+        private double[] scores = new double[1024];
+        private int size;
+        private int rowStart;
+
+        void offer(int source, int target, double score) {
+            if (size == sources.length) {
+                sources = Arrays.copyOf(sources, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            sources[size] = source;
+            targets[size] = target;
+            scores[size] = score;
+            size++;
+        }
+
+        void endRow() {
+            // Selection sort of the row's pairs, which are at most MAX_CANDIDATES
+            int keep = Math.min(PAIRS_PER_ROW, size - rowStart);
+            for (int i = rowStart; i < rowStart + keep; i++) {
+                int best = i;
+                for (int j = i + 1; j < size; j++) {
+                    if (scores[j] > scores[best]) {
+                        best = j;
+                    }
+                }
+                swap(i, best);
+            }
+            size = rowStart + keep;
+            rowStart = size;
+        }
+
+        // Pair indexes by descending score; pairs are stored in source order, so ties go to the earlier row
+        int[] bestFirst() {
+            long[] ranked = new long[size];
+            for (int i = 0; i < size; i++) {
+                ranked[i] = ((long) (Integer.MAX_VALUE - Float.floatToIntBits((float) scores[i])) << 32) | i;
+            }
+            Arrays.sort(ranked);
+
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = (int) ranked[i];
+            }
+            return order;
+        }
+
+        int source(int pair) {
+            return sources[pair];
+        }
+
+        int target(int pair) {
+            return targets[pair];
+        }
+
+        double score(int pair) {
+            return scores[pair];
+        }
+
+        private void swap(int i, int j) {
+            int source = sources[i];
+            int target = targets[i];
+            double score = scores[i];
+            sources[i] = sources[j];
+            targets[i] = targets[j];
+            scores[i] = scores[j];
+            sources[j] = source;
+            targets[j] = target;
+            scores[j] = score;
+        }
+    }
+
+    private String buildSelectQuery(String tableName, List<String> columns) {
+        return String.format(
+            "SELECT %s FROM %s",
+            String.join(", ", columns),
+            tableName
+        );
+    }
+}
@@ -0,0 +1,327 @@
+package com.dbcompare.service.engine;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Grace hash join for tables whose key order cannot be pushed down. Both sides are hash-partitioned
+ * by key into temp files, then joined one partition pair at a time. Partitions that would not fit the
+ * memory budget are split again with a different hash seed.
+ */
+@Slf4j
+@Service
+public class GraceHashEngine {
+    // Rough in-memory size of a loaded partition relative to its spill file, for the key objects and index
+    private static final int IN_MEMORY_EXPANSION = 2;
+    private static final int MAX_DEPTH = 3;
+
+    @Value("${app.comparison.memory-budget-mb:256}")
+    private int defaultMemoryBudgetMb;
+
+    @Value("${app.comparison.hash-partitions:64}")
+    private int partitionCount;
+
+    @Value("${app.comparison.spill-directory:${java.io.tmpdir}}")
+    private String spillDirectory;
+
+    @Value("${app.comparison.off-heap-rows:false}")
+    private boolean offHeapRows;
+
+    public void compare(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws Exception {
+        Integer requestedBudget = context.getOptions().getMemoryBudgetMb();
+        long memoryBudget = (requestedBudget != null ? requestedBudget : defaultMemoryBudgetMb) * 1024L * 1024L;
+
+        // Key columns lead the layout, so the first types double as the key codec
+        KeyType[] columnTypes;
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+            columnTypes = KeyType.common(
+                KeyType.probe(sourceConn, context.getOptions().getSourceTable(), context.getSourceColumns(), context.getSourceColumnTypes()),
+                KeyType.probe(targetConn, context.getOptions().getTargetTable(), context.getTargetColumns(), context.getTargetColumnTypes()),
+                false
+            );
+        }
+        KeyCodec codec = new KeyCodec(Arrays.copyOf(columnTypes, context.getKeyColumnCount()));
+
+        Path workDir = Files.createTempDirectory(Paths.get(spillDirectory), "dbcompare-");
+        SpillFile[] sourceParts = null;
+        SpillFile[] targetParts = null;
+        // Both sides are read at once, each on its own thread; if one fails the other gives up at its next row
+        AtomicBoolean failed = new AtomicBoolean();
+        ExecutorService readers = Executors.newFixedThreadPool(2, task -> {
+            Thread thread = new Thread(task, "hash-partition-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Future<SpillFile[]> source = readers.submit(() -> partition(
+                context, true, sourceDs, buildSelectQuery(context.getOptions().getSourceTable(), context.getSourceColumns()),
+                workDir, "s", codec, columnTypes, failed
+            ));
+            Future<SpillFile[]> target = readers.submit(() -> partition(
+                context, false, targetDs, buildSelectQuery(context.getOptions().getTargetTable(), context.getTargetColumns()),
+                workDir, "t", codec, columnTypes, failed
+            ));
+            Exception failure = null;
+            try {
+                sourceParts = source.get();
+            } catch (ExecutionException e) {
+                failure = e;
+            }
+            try {
+                targetParts = target.get();
+            } catch (ExecutionException e) {
+                failure = failure == null ? e : failure;
+            }
+            if (failure != null) {
+                throw failure.getCause() instanceof Exception cause ? cause : failure;
+            }
+
+            for (int i = 0; i < partitionCount; i++) {
+                joinPartition(sourceParts[i], targetParts[i], workDir, "p" + i, 1, memoryBudget, columnTypes, context);
+            }
+        } finally {
+            if (sourceParts != null) {
+                closeAll(sourceParts);
+            }
+            if (targetParts != null) {
+                closeAll(targetParts);
+            }
+            // Stops a reader still running when this thread was interrupted
+            failed.set(true);
+            readers.shutdownNow();
+            deleteRecursively(workDir);
+        }
+    }
+
+    private SpillFile[] partition(
+        ComparisonContext context,
+        boolean isSource,
+        DataSource ds,
+        String query,
+        Path workDir,
+        String prefix,
+        KeyCodec codec,
+        KeyType[] columnTypes,
+        AtomicBoolean failed
+    ) throws SQLException, IOException {
+        SpillFile[] parts = createPartitions(workDir, prefix, columnTypes);
+
+        try (Connection conn = ds.getConnection();
+             PreparedStatement stmt = context.track(SqlDialect.of(conn).prepareStreaming(conn, query));
+             ResultSet rs = context.executeQuery(stmt)) {
+
+            long start = System.nanoTime();
+            while (rs.next()) {
+                context.checkCancelled();
+                if (failed.get()) {
+                    throw new CancellationException("Reading the other table failed");
+                }
+                RowKey key = codec.read(rs, 1);
+                parts[partitionOf(key.hashCode(), 0)].write(key, rs);
+                if (isSource) {
+                    context.sourceRowsRead(1);
+                } else {
+                    context.targetRowsRead(1);
+                }
+            }
+            context.addPhaseTime("partition", System.nanoTime() - start);
+        } catch (SQLException | IOException | RuntimeException e) {
+            failed.set(true);
+            closeAll(parts);
+            throw e;
+        }
+        return parts;
+    }
+
+    private void joinPartition(
+        SpillFile source,
+        SpillFile target,
+        Path workDir,
+        String name,
+        int depth,
+        long memoryBudget,
+        KeyType[] columnTypes,
+        ComparisonContext context
+    ) throws IOException {
+        try (source; target) {
+            if (source.rows() == 0 && target.rows() == 0) {
+                return;
+            }
+
+            boolean buildOnSource = source.size() <= target.size();
+            long buildSize = Math.min(source.size(), target.size()) * IN_MEMORY_EXPANSION;
+
+            if (buildSize > memoryBudget && depth <= MAX_DEPTH) {
+                log.debug("Repartitioning {} ({} bytes) at depth {}", name, buildSize, depth);
+                SpillFile[] sourceParts = repartition(source, workDir, name + "s", depth, columnTypes);
+                SpillFile[] targetParts = null;
+                try {
+                    targetParts = repartition(target, workDir, name + "t", depth, columnTypes);
+                    for (int i = 0; i < partitionCount; i++) {
+                        joinPartition(sourceParts[i], targetParts[i], workDir, name + "_" + i, depth + 1,
+                            memoryBudget, columnTypes, context);
+                    }
+                } finally {
+                    closeAll(sourceParts);
+                    if (targetParts != null) {
+                        closeAll(targetParts);
+                    }
+                }
+                return;
+            }
+            if (buildSize > memoryBudget) {
+                log.warn("Partition {} exceeds the memory budget after {} splits; the key distribution is skewed", name, MAX_DEPTH);
+            }
+
+            if (buildOnSource) {
+                hashJoin(source, target, columnTypes, true, context);
+            } else {
+                hashJoin(target, source, columnTypes, false, context);
+            }
+        } finally {
+            Files.deleteIfExists(source.path());
+            Files.deleteIfExists(target.path());
+        }
+    }
+
+    // Loads the build side into memory and streams the probe side past it; rows are only decoded when they differ
+    private void hashJoin(SpillFile build, SpillFile probe, KeyType[] columnTypes, boolean buildIsSource, ComparisonContext context)
+        throws IOException {
+        RowStore buildRows = new RowStore(columnTypes, offHeapRows);
+
+        long start = System.nanoTime();
+        try (SpillFile.Reader reader = build.reader()) {
+            while (reader.next()) {
+                context.checkCancelled();
+                buildRows.add(reader);
+            }
+        }
+        context.addPhaseTime("hash_build", System.nanoTime() - start);
+        // A failed run drops out of the metrics with whatever it held, so the rows are only released on success
+        context.holdRows(buildRows.size());
+
+        start = System.nanoTime();
+        try (SpillFile.Reader reader = probe.reader()) {
+            while (reader.next()) {
+                context.checkCancelled();
+                int buildRow = buildRows.match(reader);
+
+                if (buildRow < 0) {
+                    if (buildIsSource) {
+                        context.missingSource(reader.row());
+                    } else {
+                        context.missingTarget(reader.row());
+                    }
+                } else if (!buildRows.sameValues(buildRow, reader)) {
+                    if (buildIsSource) {
+                        context.compareRows(buildRows.row(buildRow), reader.row());
+                    } else {
+                        context.compareRows(reader.row(), buildRows.row(buildRow));
+                    }
+                }
+            }
+        }
+
+        for (int row = buildRows.nextUnmatched(0); row >= 0; row = buildRows.nextUnmatched(row + 1)) {
+            if (buildIsSource) {
+                context.missingTarget(buildRows.row(row));
+            } else {
+                context.missingSource(buildRows.row(row));
+            }
+        }
+        context.addPhaseTime("hash_probe", System.nanoTime() - start);
+        context.holdRows(-buildRows.size());
+    }
+
+    private SpillFile[] repartition(SpillFile file, Path workDir, String prefix, int seed, KeyType[] columnTypes) throws IOException {
+        SpillFile[] parts = createPartitions(workDir, prefix, columnTypes);
+
+        try (SpillFile.Reader reader = file.reader()) {
+            while (reader.next()) {
+                reader.copyTo(parts[partitionOf(reader.keyHash(), seed)]);
+            }
+        } catch (IOException | RuntimeException e) {
+            closeAll(parts);
+            throw e;
+        }
+        return parts;
+    }
+
+    private SpillFile[] createPartitions(Path workDir, String prefix, KeyType[] columnTypes) throws IOException {
+        SpillFile[] parts = new SpillFile[partitionCount];
+        try {
+            for (int i = 0; i < partitionCount; i++) {
+                parts[i] = new SpillFile(workDir.resolve(prefix + "-" + i + ".part"), columnTypes);
+            }
+        } catch (IOException e) {
+            closeAll(parts);
+            throw e;
+        }
+        return parts;
+    }
+
+    // Each level mixes in its own seed so a partition that was too large splits differently
+    private int partitionOf(int keyHash, int seed) {
+        int h = keyHash;
+        h ^= seed * 0x9E3779B9;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, partitionCount);
+    }
+
+    private void closeAll(SpillFile[] parts) {
+        for (SpillFile part : parts) {
+            if (part != null) {
+                try {
+                    part.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close spill file {}", part.path(), e);
+                }
+            }
+        }
+    }
+
+    private void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("Failed to delete spill file {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("Failed to clean up spill directory {}", dir, e);
+        }
+    }
+
+    private String buildSelectQuery(String tableName, List<String> columns) {
+        return String.format(
+            "SELECT %s FROM %s",
+            String.join(", ", columns),
+            tableName
+        );
+    }
+}
@@ -0,0 +1,291 @@
+package com.dbcompare.service.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads key columns from a result set into {@link RowKey}s. Each column is written as a 0x00 NULL
+ * marker or 0x01 followed by its value: integers as sign-flipped big-endian longs, decimals as sign,
+ * exponent and digits, and text as escaped UTF-8. Unsigned byte order of the result matches the
+ * order merge queries sort in.
+ */
+final class KeyCodec {
+    private final KeyType[] types;
+
+    KeyCodec(KeyType[] types) {
+        this.types = types;
+    }
+
+    // Types are reconciled per column so both sides encode equal keys to equal bytes
+    static KeyCodec probe(Connection sourceConn, Connection targetConn, ComparisonContext context, boolean ordered) throws SQLException {
+        return new KeyCodec(KeyType.common(
+            KeyType.probe(sourceConn, context.getOptions().getSourceTable(), context.getSourceKeyColumns(), context.getSourceColumnTypes()),
+            KeyType.probe(targetConn, context.getOptions().getTargetTable(), context.getTargetKeyColumns(), context.getTargetColumnTypes()),
+            ordered
+        ));
+    }
+
+    int size() {
+        return types.length;
+    }
+
+    KeyType type(int column) {
+        return types[column];
+    }
+
+    // Reads the key from columns firstColumn .. firstColumn + size() - 1
+    RowKey read(ResultSet rs, int firstColumn) throws SQLException {
+        if (types.length == 1 && types[0] == KeyType.LONG) {
+            long value = rs.getLong(firstColumn);
+            return rs.wasNull() ? RowKey.NULL : RowKey.of(value);
+        }
+
+        Writer writer = new Writer();
+        for (int i = 0; i < types.length; i++) {
+            int column = firstColumn + i;
+            switch (types[i]) {
+                case LONG -> {
+                    long value = rs.getLong(column);
+                    if (rs.wasNull()) {
+                        writer.put(0);
+                    } else {
+                        writer.put(1);
+                        writer.putLong(value);
+                    }
+                }
+                case DECIMAL -> {
+                    BigDecimal value = rs.getBigDecimal(column);
+                    if (value == null) {
+                        writer.put(0);
+                    } else {
+                        writer.put(1);
+                        writer.putDecimal(value);
+                    }
+                }
+                case STRING -> {
+                    String value = rs.getString(column);
+                    if (value == null) {
+                        writer.put(0);
+                    } else {
+                        writer.put(1);
+                        writer.putString(value);
+                    }
+                }
+            }
+        }
+        return RowKey.of(writer.toByteArray());
+    }
+
+    // Reads the key values as Long, BigDecimal and String, to be turned into a key by encode()
+    Object[] values(ResultSet rs, int firstColumn) throws SQLException {
+        Object[] values = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            int column = firstColumn + i;
+            values[i] = switch (types[i]) {
+                case LONG -> {
+                    long value = rs.getLong(column);
+                    yield rs.wasNull() ? null : value;
+                }
+                case DECIMAL -> rs.getBigDecimal(column);
+                case STRING -> rs.getString(column);
+            };
+        }
+        return values;
+    }
+
+    // Encodes key values given as Long, BigDecimal and String to the same key read() produces
+    RowKey encode(Object[] values) {
+        if (types.length == 1 && types[0] == KeyType.LONG) {
+            return values[0] == null ? RowKey.NULL : RowKey.of((Long) values[0]);
+        }
+
+        Writer writer = new Writer();
+        for (int i = 0; i < types.length; i++) {
+            if (values[i] == null) {
+                writer.put(0);
+                continue;
+            }
+            writer.put(1);
+            switch (types[i]) {
+                case LONG -> writer.putLong((Long) values[i]);
+                case DECIMAL -> writer.putDecimal((BigDecimal) values[i]);
+                case STRING -> writer.putString((String) values[i]);
+            }
+        }
+        return RowKey.of(writer.toByteArray());
+    }
+
+    // Parses key values from text, as they arrive in requests
+    Object[] parse(List<String> values) {
+        if (values.size() != types.length) {
+            throw new IllegalArgumentException("Expected " + types.length + " key values but got " + values.size());
+        }
+        Object[] parsed = new Object[types.length];
+        for (int i = 0; i < types.length; i++) {
+            String value = values.get(i);
+            if (value != null) {
+                parsed[i] = switch (types[i]) {
+                    case LONG -> Long.valueOf(value.trim());
+                    case DECIMAL -> new BigDecimal(value.trim());
+                    case STRING -> value;
+                };
+            }
+        }
+        return parsed;
+    }
+
+    // Inverse of encode(), for keys that have to be looked up again
+    Object[] decode(RowKey key) {
+        if (key.isLong()) {
+            return new Object[]{key.longValue()};
+        }
+
+        byte[] bytes = key.bytes();
+        Object[] values = new Object[types.length];
+        int position = 0;
+        for (int i = 0; i < types.length; i++) {
+            if (bytes[position++] == 0) {
+                continue;
+            }
+            switch (types[i]) {
+                case LONG -> {
+                    long flipped = 0;
+                    for (int j = 0; j < Long.BYTES; j++) {
+                        flipped = (flipped << 8) | (bytes[position++] & 0xFF);
+                    }
+                    values[i] = flipped ^ Long.MIN_VALUE;
+                }
+                case DECIMAL -> {
+                    int marker = bytes[position++] & 0xFF;
+                    if (marker == 0x80) {
+                        values[i] = BigDecimal.ZERO;
+                        continue;
+                    }
+                    int mask = marker == 0x7F ? 0xFF : 0;
+                    int exponent = 0;
+                    for (int j = 0; j < Integer.BYTES; j++) {
+                        exponent = (exponent << 8) | ((bytes[position++] ^ mask) & 0xFF);
+                    }
+                    exponent ^= Integer.MIN_VALUE;
+                    StringBuilder digits = new StringBuilder();
+                    for (int b = (bytes[position++] ^ mask) & 0xFF; b != 0; b = (bytes[position++] ^ mask) & 0xFF) {
+                        digits.append((char) b);
+                    }
+                    BigDecimal magnitude = new BigDecimal(new BigInteger(digits.toString()), digits.length() - exponent);
+                    values[i] = mask == 0 ? magnitude : magnitude.negate();
+                }
+                case STRING -> {
+                    ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+                    while (true) {
+                        byte b = bytes[position++];
+                        if (b != 0) {
+                            utf8.write(b);
+                        } else if (bytes[position++] == (byte) 0xFF) {
+                            utf8.write(0);
+                        } else {
+                            break;
+                        }
+                    }
+                    values[i] = utf8.toString(StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return values;
+    }
+
+    static byte[] encodeLong(long value) {
+        Writer writer = new Writer();
+        writer.put(1);
+        writer.putLong(value);
+        return writer.toByteArray();
+    }
+
+    static String describe(byte[] bytes) {
+        StringBuilder hex = new StringBuilder("0x");
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static final class Writer {
+        private byte[] buffer = new byte[16];
+        private int position;
+
+        void put(int b) {
+            ensure(1);
+            buffer[position++] = (byte) b;
+        }
+
+        void putLong(long value) {
+            long flipped = value ^ Long.MIN_VALUE;
+            ensure(Long.BYTES);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buffer[position++] = (byte) (flipped >>> shift);
+            }
+        }
+
+        // 0x00 bytes are escaped as 0x00 0xFF and the value ends with 0x00 0x01, so a prefix sorts first
+        void putString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            ensure(utf8.length + 2);
+            for (byte b : utf8) {
+                if (b == 0) {
+                    put(0);
+                    put(0xFF);
+                } else {
+                    buffer[position++] = b;
+                }
+            }
+            put(0);
+            put(1);
+        }
+
+        // Value is 0.digits x 10^exponent; negatives are the bitwise inverse of their magnitude
+        void putDecimal(BigDecimal value) {
+            int sign = value.signum();
+            if (sign == 0) {
+                put(0x80);
+                return;
+            }
+
+            BigDecimal magnitude = value.abs().stripTrailingZeros();
+            String digits = magnitude.unscaledValue().toString();
+            int exponent = digits.length() - magnitude.scale();
+
+            put(sign > 0 ? 0x81 : 0x7F);
+            int start = position;
+            int flippedExponent = exponent ^ Integer.MIN_VALUE;
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                put(flippedExponent >>> shift);
+            }
+            for (int i = 0; i < digits.length(); i++) {
+                put(digits.charAt(i));
+            }
+            put(0);
+
+            if (sign < 0) {
+                for (int i = start; i < position; i++) {
+                    buffer[i] = (byte) ~buffer[i];
+                }
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, position);
+        }
+
+        private void ensure(int bytes) {
+            if (position + bytes > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+            }
+        }
+    }
+}
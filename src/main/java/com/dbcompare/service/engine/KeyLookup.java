@@ -0,0 +1,111 @@
+package com.dbcompare.service.engine;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Fetches full rows for a known set of keys in batched queries: IN (...) lists for a single key
+ * column, OR-ed conjunctions for composite keys. The key columns are selected first and rows are
+ * returned by their encoded key.
+ */
+final class KeyLookup {
+    // Stays well under the 2100 parameter limit of SQL Server
+    static final int IN_LIST_SIZE = 500;
+
+    private KeyLookup() {
+    }
+
+    static Map<RowKey, String[]> fetchRows(
+        Connection conn,
+        String table,
+        List<String> columns,
+        KeyCodec codec,
+        Collection<Object[]> keys,
+        ComparisonContext context
+    ) throws SQLException {
+        Map<RowKey, String[]> rows = new HashMap<>();
+        String select = String.format("SELECT %s FROM %s WHERE ", String.join(", ", columns), table);
+        List<String> keyColumns = columns.subList(0, codec.size());
+        int batchSize = Math.max(1, IN_LIST_SIZE / keyColumns.size());
+
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        for (Object[] key : keys) {
+            if (keyColumns.size() == 1 && key[0] == null) {
+                readRows(conn, select + keyColumns.get(0) + " IS NULL", List.of(), codec, columns.size(), rows, context);
+                continue;
+            }
+            batch.add(key);
+            if (batch.size() == batchSize) {
+                readBatch(conn, select, keyColumns, batch, codec, columns.size(), rows, context);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            readBatch(conn, select, keyColumns, batch, codec, columns.size(), rows, context);
+        }
+        return rows;
+    }
+
+    private static void readBatch(
+        Connection conn,
+        String select,
+        List<String> keyColumns,
+        List<Object[]> batch,
+        KeyCodec codec,
+        int columnCount,
+        Map<RowKey, String[]> rows,
+        ComparisonContext context
+    ) throws SQLException {
+        List<Object> params = new ArrayList<>(batch.size() * keyColumns.size());
+
+        if (keyColumns.size() == 1) {
+            batch.forEach(key -> params.add(key[0]));
+            String inList = keyColumns.get(0) + " IN (" + String.join(", ", Collections.nCopies(batch.size(), "?")) + ")";
+            readRows(conn, select + inList, params, codec, columnCount, rows, context);
+            return;
+        }
+
+        StringJoiner predicate = new StringJoiner(" OR ");
+        for (Object[] key : batch) {
+            StringJoiner match = new StringJoiner(" AND ", "(", ")");
+            for (int i = 0; i < keyColumns.size(); i++) {
+                if (key[i] == null) {
+                    match.add(keyColumns.get(i) + " IS NULL");
+                } else {
+                    match.add(keyColumns.get(i) + " = ?");
+                    params.add(key[i]);
+                }
+            }
+            predicate.add(match.toString());
+        }
+        readRows(conn, select + predicate, params, codec, columnCount, rows, context);
+    }
+
+    private static void readRows(
+        Connection conn,
+        String query,
+        List<Object> params,
+        KeyCodec codec,
+        int columnCount,
+        Map<RowKey, String[]> rows,
+        ComparisonContext context
+    ) throws SQLException {
+        try (PreparedStatement stmt = context.track(conn.prepareStatement(query))) {
+            for (int i = 0; i < params.size(); i++) {
+                stmt.setObject(i + 1, params.get(i));
+            }
+            try (ResultSet rs = context.executeQuery(stmt)) {
+                while (rs.next()) {
+                    String[] row = new String[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = rs.getString(i + 1);
+                    }
+                    rows.put(codec.read(rs, 1), row);
+                }
+            }
+        }
+    }
+}
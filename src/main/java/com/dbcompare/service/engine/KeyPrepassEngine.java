@@ -0,0 +1,221 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ColumnInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two-phase comparison for wide tables in which few rows differ. The first phase streams only keys,
+ * with a hash of the other columns computed by the database, and classifies rows with Bloom filters:
+ * source key and hash pairs go into one filter, and a target row whose pair is not in it is missing
+ * from the source or differs. Target keys go into another, and a source key not in it is missing from
+ * the target. Only those rows are fetched in full, in batched key lookups, to be compared and
+ * reported. The source is streamed twice, the second time without hashes. A difference goes
+ * unreported only when it is a false positive of a filter. The filters are sized from row counts taken
+ * first, and a comparison whose filters would exceed the configured rate is not started; one whose
+ * tables grew past it while being read fails. Hashes are taken of each database's text of the values, so values that only differ
+ * in formatting between databases are fetched too, then compared by their column types.
+ */
+@Slf4j
+@Service
+public class KeyPrepassEngine {
+
+    @Value("${app.comparison.memory-budget-mb:256}")
+    private long defaultMemoryBudgetMb;
+
+    @Value("${app.comparison.bloom-false-positive-rate:1.0e-9}")
+    private double falsePositiveRate;
+
+    // Filters are sized in whole words and hash counts, so the rate they reach may be a little above the configured one
+    private static final double RATE_SLACK = 2;
+
+    // Hashing is done by the database, which needs one of the dialects that can
+    public boolean supports(DataSource sourceDs, DataSource targetDs) throws SQLException {
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+            return SqlDialect.of(sourceConn) != SqlDialect.GENERIC && SqlDialect.of(targetConn) != SqlDialect.GENERIC;
+        }
+    }
+
+    // Each side holds a connection to stream keys on and another for the lookups made while it streams. Returns
+    // false, having read no rows, when the memory budget cannot hold filters at the configured false positive rate.
+    public boolean compare(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws SQLException {
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection();
+             Connection sourceLookup = sourceDs.getConnection();
+             Connection targetLookup = targetDs.getConnection()) {
+
+            KeyCodec codec = KeyCodec.probe(sourceConn, targetConn, context, false);
+            Side source = new Side(sourceConn, sourceLookup, context.getOptions().getSourceTable(), context.getSourceColumns(), codec,
+                ValueType.describe(sourceConn, context.getOptions().getSourceTable(), context.getSourceColumns(), context.getSourceColumnTypes()));
+            Side target = new Side(targetConn, targetLookup, context.getOptions().getTargetTable(), context.getTargetColumns(), codec,
+                ValueType.describe(targetConn, context.getOptions().getTargetTable(), context.getTargetColumns(), context.getTargetColumnTypes()));
+            Integer requestedBudget = context.getOptions().getMemoryBudgetMb();
+            long filterBytes = (requestedBudget != null ? requestedBudget : defaultMemoryBudgetMb) * 1024L * 1024L / 2;
+
+            // Optimizer estimates may be stale or zero, and a filter sized from one too low saturates
+            long sourceCount = count(source, context);
+            long targetCount = count(target, context);
+            BloomFilter sourcePairs = BloomFilter.create(sourceCount, falsePositiveRate, filterBytes);
+            BloomFilter targetKeys = BloomFilter.create(targetCount, falsePositiveRate, filterBytes);
+            if (!precise(sourcePairs, sourceCount) || !precise(targetKeys, targetCount)) {
+                log.info("Key filters for {} and {} rows would exceed a false positive rate of {} in {} bytes",
+                    sourceCount, targetCount, falsePositiveRate, filterBytes);
+                return false;
+            }
+
+            long sourceRows = scan(source, true, context, (key, hash, rs) -> sourcePairs.put(hash));
+            context.sourceRowsRead(sourceRows);
+            checkPrecise(sourcePairs, sourceRows, "source");
+
+            // Target rows not in the source filter are either missing there or differ; both are settled here
+            List<Object[]> differing = new ArrayList<>(KeyLookup.IN_LIST_SIZE);
+            long targetRows = scan(target, true, context, (key, hash, rs) -> {
+                targetKeys.put(keyHash(key));
+                if (!sourcePairs.mightContain(hash)) {
+                    differing.add(target.codec.values(rs, 1));
+                    if (differing.size() == KeyLookup.IN_LIST_SIZE) {
+                        resolveTargetRows(source, target, differing, context);
+                    }
+                }
+            });
+            resolveTargetRows(source, target, differing, context);
+            context.targetRowsRead(targetRows);
+            checkPrecise(targetKeys, targetRows, "target");
+
+            // Pairs that differ were compared above, so only source keys the target lacks remain
+            scan(source, false, context, (key, hash, rs) -> {
+                if (!targetKeys.mightContain(hash)) {
+                    differing.add(source.codec.values(rs, 1));
+                    if (differing.size() == KeyLookup.IN_LIST_SIZE) {
+                        resolveSourceRows(source, differing, context);
+                    }
+                }
+            });
+            resolveSourceRows(source, differing, context);
+        }
+        return true;
+    }
+
+    private boolean precise(BloomFilter filter, long rows) {
+        return filter.falsePositiveRate(rows) <= falsePositiveRate * RATE_SLACK;
+    }
+
+    // Rows added since they were counted may have pushed the filter past its rate, and misses would go unreported
+    private void checkPrecise(BloomFilter filter, long rows, String side) {
+        log.debug("The {} key filter of {} bytes holds {} rows at a false positive rate of {}",
+            side, filter.sizeBytes(), rows, filter.falsePositiveRate(rows));
+        if (!precise(filter, rows)) {
+            throw new IllegalStateException(String.format(
+                "The %s table grew to %d rows while being compared, past what its key filter holds at a false positive rate of %s",
+                side, rows, falsePositiveRate));
+        }
+    }
+
+    private static long count(Side side, ComparisonContext context) throws SQLException {
+        try (PreparedStatement stmt = context.track(side.conn.prepareStatement("SELECT COUNT(*) FROM " + side.table));
+             ResultSet rs = context.executeQuery(stmt)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private void resolveTargetRows(Side source, Side target, List<Object[]> keys, ComparisonContext context) throws SQLException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        Map<RowKey, String[]> targetRows = context.time("lookup", () -> target.fetch(target.columns, keys, context));
+        Map<RowKey, String[]> sourceRows = context.time("lookup", () -> source.fetch(source.columns, keys, context));
+        keys.clear();
+
+        for (Map.Entry<RowKey, String[]> entry : targetRows.entrySet()) {
+            String[] sourceRow = sourceRows.get(entry.getKey());
+            if (sourceRow == null) {
+                context.missingSource(entry.getValue());
+            } else {
+                context.compareRows(sourceRow, entry.getValue());
+            }
+        }
+    }
+
+    // Keys not in the target filter are certainly missing there, so the target is not looked up
+    private void resolveSourceRows(Side source, List<Object[]> keys, ComparisonContext context) throws SQLException {
+        if (keys.isEmpty()) {
+            return;
+        }
+        Map<RowKey, String[]> sourceRows = context.time("lookup", () -> source.fetch(source.columns, keys, context));
+        keys.clear();
+        sourceRows.values().forEach(context::missingTarget);
+    }
+
+    // Streams each row's key, handing over the hash of the key and, with values, of the other columns too; returns the rows read
+    private long scan(Side side, boolean withValues, ComparisonContext context, RowConsumer consumer) throws SQLException {
+        SqlDialect dialect = SqlDialect.of(side.conn);
+        List<String> valueColumns = side.columns.subList(side.codec.size(), side.columns.size());
+        String query = String.format(
+            "SELECT %s%s FROM %s",
+            String.join(", ", side.keyColumns()),
+            !withValues ? "" : valueColumns.isEmpty() ? ", 0" : ", " + dialect.rowHash(valueColumns, side.types),
+            side.table
+        );
+        log.debug("Key scan query: {}", query);
+
+        long rows = 0;
+        int hashColumn = side.codec.size() + 1;
+        try (PreparedStatement stmt = context.track(dialect.prepareStreaming(side.conn, query));
+             ResultSet rs = context.executeQuery(stmt)) {
+            long start = System.nanoTime();
+            while (rs.next()) {
+                if ((rows & 0xFFF) == 0) {
+                    context.checkCancelled();
+                }
+                RowKey key = side.codec.read(rs, 1);
+                consumer.accept(key, withValues ? pairHash(key, rs.getLong(hashColumn)) : keyHash(key), rs);
+                rows++;
+            }
+            context.addPhaseTime("key_scan", System.nanoTime() - start);
+        }
+        return rows;
+    }
+
+    // Keys are encoded alike on both sides, so equal keys hash alike whichever side they were read from
+    private static long keyHash(RowKey key) {
+        if (key.isLong()) {
+            return MinHashIndex.mix(key.longValue());
+        }
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : key.bytes()) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return MinHashIndex.mix(hash);
+    }
+
+    private static long pairHash(RowKey key, long rowHash) {
+        return MinHashIndex.mix(keyHash(key) ^ MinHashIndex.mix(rowHash + 0x9E3779B97F4A7C15L));
+    }
+
+    private interface RowConsumer {
+        void accept(RowKey key, long hash, ResultSet rs) throws SQLException;
+    }
+
+    private record Side(Connection conn, Connection lookup, String table, List<String> columns, KeyCodec codec,
+                        Map<String, ColumnInfo> types) {
+        List<String> keyColumns() {
+            return columns.subList(0, codec.size());
+        }
+
+        Map<RowKey, String[]> fetch(List<String> columns, List<Object[]> keys, ComparisonContext context) throws SQLException {
+            return KeyLookup.fetchRows(lookup, table, columns, codec, keys, context);
+        }
+    }
+}
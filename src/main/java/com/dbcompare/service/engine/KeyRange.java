@@ -0,0 +1,166 @@
+package com.dbcompare.service.engine;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A contiguous slice (lower, upper] of the key space, bounded on the leading key column. Unbounded
+ * ends are null, and the first slice also owns the rows with a NULL key, so the ranges built here
+ * cover every row once.
+ */
+final class KeyRange {
+    static final KeyRange ALL = new KeyRange(null, null, true);
+
+    private final Object lower;
+    private final Object upper;
+    private final boolean includesNulls;
+
+    private KeyRange(Object lower, Object upper, boolean includesNulls) {
+        this.lower = lower;
+        this.upper = upper;
+        this.includesNulls = includesNulls;
+    }
+
+    // WHERE clause restricting a side to this range, or null when the range is unbounded
+    String predicate(SqlDialect dialect, String key, KeyType keyType) {
+        if (lower == null && upper == null) {
+            return includesNulls ? null : key + " IS NOT NULL";
+        }
+
+        String ordered = keyType == KeyType.STRING ? dialect.binaryOrder(key) : key;
+        List<String> bounds = new ArrayList<>();
+        if (lower != null) {
+            bounds.add(ordered + " > ?");
+        }
+        if (upper != null) {
+            bounds.add(ordered + " <= ?");
+        }
+
+        String bounded = String.join(" AND ", bounds);
+        return includesNulls ? String.format("(%s IS NULL OR (%s))", key, bounded) : bounded;
+    }
+
+    List<Object> params() {
+        List<Object> params = new ArrayList<>(2);
+        if (lower != null) {
+            params.add(lower);
+        }
+        if (upper != null) {
+            params.add(upper);
+        }
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return "(" + lower + ", " + upper + "]";
+    }
+
+    // Minimum and maximum of an integer key, or null when the table has no non-NULL keys
+    static long[] minMax(Connection conn, String table, String key) throws SQLException {
+        String query = String.format("SELECT MIN(%s), MAX(%s) FROM %s", key, key, table);
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            rs.next();
+            long min = rs.getLong(1);
+            return rs.wasNull() ? null : new long[]{min, rs.getLong(2)};
+        }
+    }
+
+    // Evenly spaced ranges over [min, max] of an integer key
+    static List<KeyRange> byValue(long min, long max, int chunks) {
+        BigInteger span = BigInteger.valueOf(max).subtract(BigInteger.valueOf(min));
+        List<Object> boundaries = new ArrayList<>();
+
+        for (int i = 1; i < chunks; i++) {
+            long boundary = span.multiply(BigInteger.valueOf(i))
+                .divide(BigInteger.valueOf(chunks))
+                .add(BigInteger.valueOf(min))
+                .longValueExact();
+            if (boundaries.isEmpty() || (long) boundaries.get(boundaries.size() - 1) < boundary) {
+                boundaries.add(boundary);
+            }
+        }
+        return fromBoundaries(boundaries);
+    }
+
+    // Ranges holding roughly rows / chunks keys each, cut at every step-th key in merge order
+    static List<KeyRange> byQuantile(
+        Connection conn,
+        SqlDialect dialect,
+        String table,
+        String key,
+        KeyType keyType,
+        long rows,
+        int chunks
+    ) throws SQLException {
+        long step = Math.max(1, rows / chunks);
+        String ordered = keyType == KeyType.STRING ? dialect.binaryOrder(key) : key;
+        String query = String.format(
+            "SELECT %s FROM (SELECT %s, ROW_NUMBER() OVER (ORDER BY %s) AS rn FROM %s WHERE %s IS NOT NULL) q WHERE rn %% %d = 0",
+            key, key, ordered, table, key, step
+        );
+
+        List<Object> boundaries = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            while (rs.next()) {
+                boundaries.add(keyType == KeyType.STRING ? rs.getString(1) : rs.getBigDecimal(1));
+            }
+        }
+
+        boundaries.sort(KeyRange::compareKeys);
+        List<Object> distinct = new ArrayList<>();
+        for (Object boundary : boundaries) {
+            if (distinct.isEmpty() || compareKeys(distinct.get(distinct.size() - 1), boundary) < 0) {
+                distinct.add(boundary);
+            }
+        }
+        return fromBoundaries(distinct);
+    }
+
+    // Boundary values sort like the merge order: NULL first, numbers by value, text by code point
+    static int compareKeys(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        if (a instanceof BigDecimal x && b instanceof BigDecimal y) {
+            return x.compareTo(y);
+        }
+        return compareCodePoints((String) a, (String) b);
+    }
+
+    private static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+
+        while (i < a.length() && j < b.length()) {
+            int ca = a.codePointAt(i);
+            int cb = b.codePointAt(j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    private static List<KeyRange> fromBoundaries(List<Object> boundaries) {
+        List<KeyRange> ranges = new ArrayList<>(boundaries.size() + 1);
+        Object lower = null;
+
+        for (Object boundary : boundaries) {
+            ranges.add(new KeyRange(lower, boundary, lower == null));
+            lower = boundary;
+        }
+        ranges.add(new KeyRange(lower, null, lower == null));
+        return ranges;
+    }
+}
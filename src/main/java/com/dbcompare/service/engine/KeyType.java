@@ -0,0 +1,79 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ColumnInfo;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How a column is read: key columns are encoded into a {@link RowKey} by type, and integer
+ * value columns are held as longs rather than text.
+ */
+enum KeyType {
+    LONG,
+    DECIMAL,
+    STRING;
+
+    static KeyType of(ResultSetMetaData metaData, int column) throws SQLException {
+        return switch (metaData.getColumnType(column)) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER -> LONG;
+            case Types.BIGINT -> metaData.isSigned(column) ? LONG : DECIMAL;
+            case Types.NUMERIC, Types.DECIMAL, Types.REAL, Types.FLOAT, Types.DOUBLE -> DECIMAL;
+            default -> STRING;
+        };
+    }
+
+    // Metadata reports unsigned integers only through the type name
+    static KeyType of(ColumnInfo column) {
+        return switch (column.getSqlType()) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER -> LONG;
+            case Types.BIGINT -> column.getTypeName() != null && column.getTypeName().toUpperCase().contains("UNSIGNED") ? DECIMAL : LONG;
+            case Types.NUMERIC, Types.DECIMAL, Types.REAL, Types.FLOAT, Types.DOUBLE -> DECIMAL;
+            default -> STRING;
+        };
+    }
+
+    // Types of the given columns, from known metadata when it covers them all and otherwise from an empty query
+    static KeyType[] probe(Connection conn, String table, List<String> keyColumns, Map<String, ColumnInfo> known) throws SQLException {
+        if (keyColumns.stream().allMatch(known::containsKey)) {
+            return keyColumns.stream().map(column -> of(known.get(column))).toArray(KeyType[]::new);
+        }
+        String query = String.format("SELECT %s FROM %s WHERE 1 = 0", String.join(", ", keyColumns), table);
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            KeyType[] types = new KeyType[keyColumns.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = of(rs.getMetaData(), i + 1);
+            }
+            return types;
+        }
+    }
+
+    static KeyType[] common(KeyType[] source, KeyType[] target, boolean ordered) {
+        KeyType[] types = new KeyType[source.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = common(source[i], target[i], ordered);
+        }
+        return types;
+    }
+
+    // Numeric keys of different widths meet as decimals; mixing numbers and text only works when order does not matter
+    static KeyType common(KeyType source, KeyType target, boolean ordered) {
+        if (source == target) {
+            return source;
+        }
+        if (source != STRING && target != STRING) {
+            return DECIMAL;
+        }
+        if (ordered) {
+            throw new IllegalArgumentException("Key columns must both be numeric or both be character data to merge");
+        }
+        return STRING;
+    }
+}
@@ -0,0 +1,166 @@
+package com.dbcompare.service.engine;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forward-only view over the rows of a key-ordered query. A reader thread of its own runs the query
+ * and fetches rows into a small queue of batches, so the database sorts and streams both sides of a
+ * merge at once and the merging thread only waits on whichever is slower. Key columns are selected
+ * first; they are fetched as plain values and encoded into keys by the consuming thread. Rows are
+ * read through their value types when given and as text otherwise. Closing waits for the reader to
+ * stop, since the statement's connection goes back to the pool once the cursor is closed.
+ */
+@Slf4j
+final class KeyedCursor implements AutoCloseable {
+    private static final int BATCH_ROWS = 1024;
+    private static final int QUEUED_BATCHES = 4;
+    private static final long CLOSE_WAIT_MILLIS = 10_000;
+    private static final Batch END = new Batch(new Object[0][], new Object[0][], 0);
+
+    private record Batch(Object[][] keys, Object[][] rows, int size) {}
+
+    private final KeyCodec codec;
+    private final PreparedStatement stmt;
+    private final BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES);
+    private final Thread reader;
+    private volatile boolean closed;
+    private volatile Exception failure;
+
+    private Batch batch = new Batch(null, null, 0);
+    private int position;
+    private RowKey key;
+    private Object[] row;
+
+    KeyedCursor(PreparedStatement stmt, KeyCodec codec, int columnCount, ValueType[] types, String name, ComparisonContext context) {
+        this.codec = codec;
+        this.stmt = stmt;
+        this.reader = new Thread(() -> read(stmt, columnCount, types, context), name);
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    boolean next() throws SQLException {
+        if (position == batch.size()) {
+            if (batch == END) {
+                return false;
+            }
+            batch = take();
+            position = 0;
+            if (batch == END) {
+                return false;
+            }
+        }
+
+        RowKey nextKey = codec.encode(batch.keys()[position]);
+        if (key != null && key.compareTo(nextKey) > 0) {
+            throw new IllegalStateException(
+                "Rows are not in key order (" + key + " before " + nextKey + "); the database collation does not match merge order"
+            );
+        }
+        key = nextKey;
+        row = batch.rows()[position++];
+        return true;
+    }
+
+    RowKey key() {
+        return key;
+    }
+
+    Object[] row() {
+        return row;
+    }
+
+    // The reader stops at its next batch and cancelling ends a fetch in progress. A reader that still has not
+    // stopped gets its connection aborted, so the pool replaces it rather than lend it out while in use.
+    @Override
+    public void close() throws SQLException {
+        closed = true;
+        reader.interrupt();
+        batches.clear();
+        if (reader.isAlive()) {
+            try {
+                stmt.cancel();
+            } catch (SQLException e) {
+                log.debug("Failed to cancel statement", e);
+            }
+        }
+        try {
+            reader.join(CLOSE_WAIT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (reader.isAlive()) {
+            log.warn("Reader {} did not stop within {} ms; aborting its connection", reader.getName(), CLOSE_WAIT_MILLIS);
+            stmt.getConnection().abort(Runnable::run);
+        }
+    }
+
+    private Batch take() throws SQLException {
+        Batch next;
+        try {
+            next = batches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for rows");
+        }
+        if (next == END && failure != null) {
+            if (failure instanceof SQLException sqlFailure) {
+                throw sqlFailure;
+            }
+            throw failure instanceof RuntimeException runtimeFailure ? runtimeFailure : new IllegalStateException(failure);
+        }
+        return next;
+    }
+
+    // Time spent waiting for the consumer is not counted as reading
+    private void read(PreparedStatement stmt, int columnCount, ValueType[] types, ComparisonContext context) {
+        try (ResultSet rs = context.executeQuery(stmt)) {
+            boolean more = true;
+            while (more && !closed) {
+                long start = System.nanoTime();
+                Object[][] keys = new Object[BATCH_ROWS][];
+                Object[][] rows = new Object[BATCH_ROWS][];
+                int size = 0;
+                while (size < BATCH_ROWS && (more = rs.next())) {
+                    keys[size] = codec.values(rs, 1);
+                    Object[] values = types == null ? new String[columnCount] : new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        values[i] = types == null ? rs.getString(i + 1) : types[i].read(rs, i + 1);
+                    }
+                    rows[size++] = values;
+                }
+                context.addPhaseTime("read", System.nanoTime() - start);
+                if (size > 0) {
+                    put(new Batch(keys, rows, size));
+                }
+            }
+            put(END);
+        } catch (InterruptedException e) {
+            // Closed by the consumer, which no longer reads
+        } catch (Exception e) {
+            if (!closed) {
+                failure = e;
+                try {
+                    put(END);
+                } catch (InterruptedException ignored) {
+                    // Closed by the consumer in the meantime
+                }
+            }
+        }
+    }
+
+    // Gives up once closed, even where the driver swallowed the interrupt meant to end the wait
+    private void put(Batch next) throws InterruptedException {
+        while (!closed && !batches.offer(next, 100, TimeUnit.MILLISECONDS)) {
+            // The consumer is still working through earlier batches
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.dbcompare.service.engine;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sort-merge comparison: both tables are read ordered by key and the two cursors advance in
+ * lockstep, emitting differences as they are found. Heap use does not grow with table size.
+ * With parallelism above one the key space is cut into ranges that are merged concurrently,
+ * each on its own pair of pooled connections. A range reserves its pair in one step, so ranges
+ * of concurrent comparisons never each hold one connection of a pool while waiting for another.
+ */
+@Slf4j
+@Service
+public class MergeJoinEngine {
+    private static final int MAX_CHUNKS = 10_000;
+
+    @Value("${app.comparison.parallelism:4}")
+    private int defaultParallelism;
+
+    @Value("${app.comparison.batch-size:100000}")
+    private long chunkSize;
+
+    // Connections reserved by the ranges of every comparison, by pool
+    private final Map<DataSource, Integer> connectionsInUse = new HashMap<>();
+
+    public void compare(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws Exception {
+        Integer requested = context.getOptions().getParallelism();
+        // Every range holds a connection on each side, so a shared pool only covers half as many ranges
+        int connections = sourceDs == targetDs ? poolSize(sourceDs) / 2 : Math.min(poolSize(sourceDs), poolSize(targetDs));
+        int parallelism = Math.min(requested != null ? requested : defaultParallelism, connections);
+
+        KeyCodec codec;
+        List<KeyRange> ranges;
+        Map<DataSource, Integer> pair = pair(sourceDs, targetDs);
+        acquire(pair);
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+            codec = KeyCodec.probe(sourceConn, targetConn, context, true);
+            ranges = parallelism > 1 ? split(sourceConn, targetConn, context, codec.type(0), parallelism) : List.of(KeyRange.ALL);
+        } finally {
+            release(pair);
+        }
+
+        if (ranges.size() == 1) {
+            compareRange(sourceDs, targetDs, context, codec, ranges.get(0));
+            return;
+        }
+
+        log.debug("Merging {} key ranges with parallelism {}", ranges.size(), parallelism);
+        AtomicInteger threadIds = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, task -> {
+            Thread thread = new Thread(task, "merge-range-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<Void>> futures = new ArrayList<>(ranges.size());
+            for (KeyRange range : ranges) {
+                futures.add(executor.submit(() -> {
+                    compareRange(sourceDs, targetDs, context, codec, range);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void compareRange(
+        DataSource sourceDs,
+        DataSource targetDs,
+        ComparisonContext context,
+        KeyCodec codec,
+        KeyRange range
+    ) throws SQLException, InterruptedException {
+        Map<DataSource, Integer> pair = pair(sourceDs, targetDs);
+        acquire(pair);
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection();
+             PreparedStatement sourceStmt = context.track(prepareOrderedQuery(
+                 sourceConn, context.getOptions().getSourceTable(), context.getSourceColumns(), codec, range));
+             PreparedStatement targetStmt = context.track(prepareOrderedQuery(
+                 targetConn, context.getOptions().getTargetTable(), context.getTargetColumns(), codec, range));
+             KeyedCursor source = new KeyedCursor(sourceStmt, codec, context.getSourceColumns().size(), context.getValueTypes(), "merge-source-reader", context);
+             KeyedCursor target = new KeyedCursor(targetStmt, codec, context.getTargetColumns().size(), context.getValueTypes(), "merge-target-reader", context)) {
+
+            merge(source, target, context);
+        } finally {
+            release(pair);
+        }
+    }
+
+    private static Map<DataSource, Integer> pair(DataSource sourceDs, DataSource targetDs) {
+        return sourceDs == targetDs ? Map.of(sourceDs, 2) : Map.of(sourceDs, 1, targetDs, 1);
+    }
+
+    private void acquire(Map<DataSource, Integer> connections) throws SQLException, InterruptedException {
+        Map<DataSource, Integer> poolSizes = new HashMap<>();
+        for (DataSource dataSource : connections.keySet()) {
+            poolSizes.put(dataSource, poolSize(dataSource));
+        }
+        synchronized (connectionsInUse) {
+            while (!connections.entrySet().stream().allMatch(entry ->
+                connectionsInUse.getOrDefault(entry.getKey(), 0) + entry.getValue() <= poolSizes.get(entry.getKey()))) {
+                connectionsInUse.wait();
+            }
+            connections.forEach((dataSource, count) -> connectionsInUse.merge(dataSource, count, Integer::sum));
+        }
+    }
+
+    private void release(Map<DataSource, Integer> connections) {
+        synchronized (connectionsInUse) {
+            connections.forEach((dataSource, count) ->
+                connectionsInUse.computeIfPresent(dataSource, (key, inUse) -> inUse - count > 0 ? inUse - count : null));
+            connectionsInUse.notifyAll();
+        }
+    }
+
+    private void merge(KeyedCursor source, KeyedCursor target, ComparisonContext context) throws SQLException {
+        boolean hasSource = source.next();
+        boolean hasTarget = target.next();
+
+        while (hasSource || hasTarget) {
+            context.checkCancelled();
+            int cmp;
+            if (!hasSource) {
+                cmp = 1;
+            } else if (!hasTarget) {
+                cmp = -1;
+            } else {
+                cmp = source.key().compareTo(target.key());
+            }
+
+            if (cmp < 0) {
+                context.missingTarget(source.row());
+                context.sourceRowsRead(1);
+                hasSource = source.next();
+            } else if (cmp > 0) {
+                context.missingSource(target.row());
+                context.targetRowsRead(1);
+                hasTarget = target.next();
+            } else {
+                context.compareRows(source.row(), target.row());
+                context.sourceRowsRead(1);
+                context.targetRowsRead(1);
+                hasSource = source.next();
+                hasTarget = target.next();
+            }
+        }
+    }
+
+    // Ranges are cut on the leading key column: evenly between min and max for integers, at quantiles of the source keys otherwise;
+    // text keys get one range per worker
+    private List<KeyRange> split(
+        Connection sourceConn,
+        Connection targetConn,
+        ComparisonContext context,
+        KeyType keyType,
+        int parallelism
+    ) throws SQLException {
+        String sourceTable = context.getOptions().getSourceTable();
+        SqlDialect sourceDialect = SqlDialect.of(sourceConn);
+        long rows = Math.max(
+            sourceDialect.estimatedRowCount(sourceConn, sourceTable),
+            SqlDialect.of(targetConn).estimatedRowCount(targetConn, context.getOptions().getTargetTable())
+        );
+        int chunks = (int) Math.min(MAX_CHUNKS, Math.max(parallelism, (rows + chunkSize - 1) / chunkSize));
+
+        if (keyType == KeyType.LONG) {
+            long[] sourceRange = KeyRange.minMax(sourceConn, sourceTable, context.getSourceKeyColumn());
+            long[] targetRange = KeyRange.minMax(targetConn, context.getOptions().getTargetTable(), context.getTargetKeyColumn());
+            if (sourceRange == null && targetRange == null) {
+                return List.of(KeyRange.ALL);
+            }
+            long min = sourceRange == null ? targetRange[0] : targetRange == null ? sourceRange[0] : Math.min(sourceRange[0], targetRange[0]);
+            long max = sourceRange == null ? targetRange[1] : targetRange == null ? sourceRange[1] : Math.max(sourceRange[1], targetRange[1]);
+            return KeyRange.byValue(min, max, chunks);
+        }
+
+        if (rows < 0) {
+            return List.of(KeyRange.ALL);
+        }
+        // Text ranges compare the binary order of the key, which no index serves, so each range scans the whole table
+        if (keyType == KeyType.STRING) {
+            chunks = parallelism;
+        }
+        return KeyRange.byQuantile(sourceConn, sourceDialect, sourceTable, context.getSourceKeyColumn(), keyType, rows, chunks);
+    }
+
+    // Key columns are selected first; NULLs are forced to the front of each since databases disagree on where they sort
+    static PreparedStatement prepareOrderedQuery(
+        Connection conn,
+        String table,
+        List<String> columns,
+        KeyCodec codec,
+        KeyRange range
+    ) throws SQLException {
+        SqlDialect dialect = SqlDialect.of(conn);
+        String predicate = range.predicate(dialect, columns.get(0), codec.type(0));
+
+        StringJoiner order = new StringJoiner(", ");
+        for (int i = 0; i < codec.size(); i++) {
+            String key = columns.get(i);
+            order.add("CASE WHEN " + key + " IS NULL THEN 0 ELSE 1 END");
+            order.add(codec.type(i) == KeyType.STRING ? dialect.binaryOrder(key) : key);
+        }
+
+        String query = String.format(
+            "SELECT %s FROM %s%s ORDER BY %s",
+            String.join(", ", columns),
+            table,
+            predicate == null ? "" : " WHERE " + predicate,
+            order
+        );
+        log.debug("Merge join query for range {}: {}", range, query);
+
+        PreparedStatement stmt = dialect.prepareStreaming(conn, query);
+        List<Object> params = range.params();
+        for (int i = 0; i < params.size(); i++) {
+            stmt.setObject(i + 1, params.get(i));
+        }
+        return stmt;
+    }
+
+    // Data sources from the registry wrap their Hikari pool
+    private int poolSize(DataSource dataSource) throws SQLException {
+        return dataSource.isWrapperFor(HikariDataSource.class)
+            ? dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize()
+            : Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,140 @@
+package com.dbcompare.service.engine;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Locality-sensitive index over MinHash signatures of shingle sets. A signature is split into bands
+ * and every band is hashed into a bucket, so two sets collide in some bucket with a probability that
+ * rises steeply around the Jaccard similarity the band layout is tuned for. Buckets also carry a
+ * block hash, which keeps rows with different blocking keys apart.
+ */
+final class MinHashIndex {
+    private static final int HASHES = 128;
+    // Tunes the collision curve a little below the target, trading extra candidates for recall
+    private static final double RECALL_MARGIN = 0.9;
+
+    private final int bands;
+    private final int rowsPerBand;
+    private final long[] seeds = new long[HASHES];
+    // Bucket contents are stored as { count, id, id, ... } and grown by doubling
+    private final Map<Long, int[]> buckets = new HashMap<>();
+    private int[] hits = new int[0];
+
+    MinHashIndex(double jaccardThreshold) {
+        double target = jaccardThreshold * RECALL_MARGIN;
+        int bestRows = 1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int rows = 1; rows <= HASHES; rows++) {
+            double midpoint = Math.pow(1.0 / (HASHES / rows), 1.0 / rows);
+            if (Math.abs(midpoint - target) < bestDistance) {
+                bestDistance = Math.abs(midpoint - target);
+                bestRows = rows;
+            }
+        }
+        this.rowsPerBand = bestRows;
+        this.bands = HASHES / bestRows;
+
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int i = 0; i < HASHES; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            seeds[i] = mix(seed);
+        }
+    }
+
+    int bands() {
+        return bands;
+    }
+
+    int rowsPerBand() {
+        return rowsPerBand;
+    }
+
+    // One bucket key per band for the given shingles
+    long[] bandKeys(long[] shingles, long block) {
+        long[] signature = new long[bands * rowsPerBand];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        for (long shingle : shingles) {
+            for (int i = 0; i < signature.length; i++) {
+                long hash = mix(shingle ^ seeds[i]);
+                if (hash < signature[i]) {
+                    signature[i] = hash;
+                }
+            }
+        }
+
+        long[] keys = new long[bands];
+        for (int band = 0; band < bands; band++) {
+            long key = mix(block + band);
+            for (int i = band * rowsPerBand; i < (band + 1) * rowsPerBand; i++) {
+                key = mix(key ^ signature[i]);
+            }
+            keys[band] = key;
+        }
+        return keys;
+    }
+
+    void add(int id, long[] bandKeys) {
+        if (id >= hits.length) {
+            hits = Arrays.copyOf(hits, Math.max(1024, Math.max(id + 1, hits.length * 2)));
+        }
+        for (long key : bandKeys) {
+            int[] bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new int[4];
+                buckets.put(key, bucket);
+            } else if (bucket[0] + 1 == bucket.length) {
+                bucket = Arrays.copyOf(bucket, bucket.length * 2);
+                buckets.put(key, bucket);
+            }
+            bucket[++bucket[0]] = id;
+        }
+    }
+
+    // Ids sharing a bucket with the given keys, most shared buckets first, skipping excluded ids
+    int[] candidates(long[] bandKeys, int limit, BitSet excluded) {
+        int[] found = new int[16];
+        int count = 0;
+
+        for (long key : bandKeys) {
+            int[] bucket = buckets.get(key);
+            if (bucket == null) {
+                continue;
+            }
+            for (int i = 1; i <= bucket[0]; i++) {
+                int id = bucket[i];
+                if (excluded.get(id)) {
+                    continue;
+                }
+                if (hits[id]++ == 0) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = id;
+                }
+            }
+        }
+
+        // Sorts by hit count, then id, packed into one long so the sort needs no boxing
+        long[] ranked = new long[count];
+        for (int i = 0; i < count; i++) {
+            ranked[i] = ((long) (Integer.MAX_VALUE - hits[found[i]]) << 32) | found[i];
+            hits[found[i]] = 0;
+        }
+        Arrays.sort(ranked);
+
+        int[] result = new int[Math.min(limit, count)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (int) ranked[i];
+        }
+        return result;
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
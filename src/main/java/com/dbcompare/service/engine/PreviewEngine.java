@@ -0,0 +1,271 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonPreview;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates what a comparison would find from a sample of each table, in seconds rather than the
+ * hours a full diff can take. Databases with TABLESAMPLE read a sample of pages on each side and
+ * look up the sampled keys on the other side; others keep the keys whose hash falls in one bucket
+ * of as many as needed, which selects the same keys on both sides. Tables that fit the sample size
+ * are read whole; when such a read turns out larger than the estimates said, the tables are counted
+ * and sampled after all. Rates come with 95% Wilson score intervals, which assume rows are sampled
+ * independently; page samples of tables whose differences cluster by page vary more than that.
+ */
+@Slf4j
+@Service
+public class PreviewEngine {
+    private static final double Z_95 = 1.959964;
+    // Samples stop at this multiple of the requested rows, however far off the row estimates are
+    private static final int SAMPLE_CAP_FACTOR = 4;
+
+    @Value("${app.comparison.preview-sample-rows:10000}")
+    private int defaultSampleRows;
+
+    public ComparisonPreview preview(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws SQLException {
+        long start = System.nanoTime();
+        Integer requested = context.getOptions().getSampleRows();
+        int sampleRows = Math.max(1, requested != null ? requested : defaultSampleRows);
+        long sourceEstimate = context.getEstimatedSourceRows();
+        long targetEstimate = context.getEstimatedTargetRows();
+        String sourceTable = context.getOptions().getSourceTable();
+        String targetTable = context.getOptions().getTargetTable();
+        String sourceSelect = "SELECT " + String.join(", ", context.getSourceColumns()) + " FROM ";
+        String targetSelect = "SELECT " + String.join(", ", context.getTargetColumns()) + " FROM ";
+        int cap = sampleRows * SAMPLE_CAP_FACTOR;
+
+        ComparisonPreview preview = new ComparisonPreview();
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+            KeyCodec codec = KeyCodec.probe(sourceConn, targetConn, context, false);
+            SqlDialect sourceDialect = SqlDialect.of(sourceConn);
+            SqlDialect targetDialect = SqlDialect.of(targetConn);
+            double sourcePercent = percent(sampleRows, sourceEstimate);
+            double targetPercent = percent(sampleRows, targetEstimate);
+
+            Sample source = null;
+            Sample target = null;
+            Map<RowKey, String[]> targetMatches;
+            Map<RowKey, String[]> sourceMatches;
+            if (sourcePercent >= 100 && targetPercent >= 100) {
+                source = sample(sourceConn, sourceDialect, sourceSelect + sourceTable, codec, cap, true, context);
+                target = sample(targetConn, targetDialect, targetSelect + targetTable, codec, cap, false, context);
+                if (source.rowsRead >= cap || target.rowsRead >= cap) {
+                    // A read stopped at the cap means the estimates were missing or far too low, so the tables are counted
+                    log.debug("Counting {} and {}, which hold more rows than estimated", sourceTable, targetTable);
+                    sourceEstimate = count(sourceConn, sourceTable, context);
+                    targetEstimate = count(targetConn, targetTable, context);
+                    context.estimateRows(sourceEstimate, targetEstimate);
+                    sourcePercent = percent(sampleRows, sourceEstimate);
+                    targetPercent = percent(sampleRows, targetEstimate);
+                    source = null;
+                    target = null;
+                }
+            }
+            String sourceSample = sourceDialect.tableSample(sourceTable, sourcePercent);
+            String targetSample = targetDialect.tableSample(targetTable, targetPercent);
+
+            if (source != null) {
+                preview.setSamplingMethod("full");
+                targetMatches = target.rows;
+                sourceMatches = source.rows;
+                preview.setSourceSampleFraction(1);
+                preview.setTargetSampleFraction(1);
+            } else if (sourceSample != null && targetSample != null) {
+                preview.setSamplingMethod("tablesample");
+                source = sample(sourceConn, sourceDialect, sourceSelect + sourceSample, codec, cap, true, context);
+                target = sample(targetConn, targetDialect, targetSelect + targetSample, codec, cap, false, context);
+                targetMatches = KeyLookup.fetchRows(targetConn, targetTable, context.getTargetColumns(), codec, source.keys, context);
+                sourceMatches = KeyLookup.fetchRows(sourceConn, sourceTable, context.getSourceColumns(), codec, target.keys, context);
+                preview.setSourceSampleFraction(sourcePercent / 100);
+                preview.setTargetSampleFraction(targetPercent / 100);
+            } else {
+                // Each side hashes its own keys, which only selects the same keys when both hash the same text
+                if (!sourceDialect.hashesLike(targetDialect)) {
+                    throw new IllegalArgumentException(
+                        "SQL Server hashes text differently from other databases; previews across them need TABLESAMPLE on both sides");
+                }
+                long modulus = Math.max(1, (Math.max(sourceEstimate, targetEstimate) + sampleRows - 1) / sampleRows);
+                preview.setSamplingMethod("key_hash");
+                source = sample(sourceConn, sourceDialect,
+                    sourceSelect + sourceTable + " WHERE " + sourceDialect.keySample(context.getSourceKeyColumns(),
+                        ValueType.describe(sourceConn, sourceTable, context.getSourceKeyColumns(), context.getSourceColumnTypes()), modulus),
+                    codec, cap, true, context);
+                target = sample(targetConn, targetDialect,
+                    targetSelect + targetTable + " WHERE " + targetDialect.keySample(context.getTargetKeyColumns(),
+                        ValueType.describe(targetConn, targetTable, context.getTargetKeyColumns(), context.getTargetColumnTypes()), modulus),
+                    codec, cap, false, context);
+                targetMatches = target.rows;
+                sourceMatches = source.rows;
+                preview.setSourceSampleFraction(1.0 / modulus);
+                preview.setTargetSampleFraction(1.0 / modulus);
+            }
+            log.debug("Previewing {} against {} by {}", sourceTable, targetTable, preview.getSamplingMethod());
+
+            tally(preview, context, codec.size(), source, target, sourceMatches, targetMatches);
+        }
+
+        preview.setEstimatedSourceRows(sourceEstimate);
+        preview.setEstimatedTargetRows(targetEstimate);
+        preview.setDurationMillis((System.nanoTime() - start) / 1_000_000);
+        return preview;
+    }
+
+    // Mismatches and missing targets are rates of the source rows, missing sources a rate of the target rows
+    private static void tally(
+        ComparisonPreview preview,
+        ComparisonContext context,
+        int keyCount,
+        Sample source,
+        Sample target,
+        Map<RowKey, String[]> sourceMatches,
+        Map<RowKey, String[]> targetMatches
+    ) {
+        List<String> columns = context.getSourceColumns();
+        long[] columnMismatches = new long[columns.size()];
+        long paired = 0;
+        long mismatched = 0;
+        long missingTarget = 0;
+        for (Map.Entry<RowKey, String[]> entry : source.rows.entrySet()) {
+            String[] counterpart = targetMatches.get(entry.getKey());
+            if (counterpart == null) {
+                missingTarget++;
+                continue;
+            }
+            paired++;
+            boolean differs = false;
+            boolean[] differing = context.differingColumns(entry.getValue(), counterpart);
+            for (int i = 0; i < differing.length; i++) {
+                if (differing[i]) {
+                    columnMismatches[i]++;
+                    differs = true;
+                }
+            }
+            if (differs) {
+                mismatched++;
+            }
+        }
+        long missingSource = target.rows.keySet().stream().filter(key -> !sourceMatches.containsKey(key)).count();
+
+        long sourceRows = context.getEstimatedSourceRows();
+        long targetRows = context.getEstimatedTargetRows();
+        preview.setSourceRowsSampled(source.rows.size());
+        preview.setTargetRowsSampled(target.rows.size());
+        preview.setMismatched(estimate(mismatched, source.rows.size(), sourceRows));
+        preview.setMissingTarget(estimate(missingTarget, source.rows.size(), sourceRows));
+        preview.setMissingSource(estimate(missingSource, target.rows.size(), targetRows));
+        preview.setEstimatedDistinctSourceKeys(distinctKeys(preview.getSamplingMethod(), source, sourceRows, preview.getSourceSampleFraction()));
+        preview.setEstimatedDistinctTargetKeys(distinctKeys(preview.getSamplingMethod(), target, targetRows, preview.getTargetSampleFraction()));
+
+        // Key columns always agree within a pair, so only value columns are listed
+        Map<String, Double> columnRates = new LinkedHashMap<>();
+        for (int i = keyCount; i < columns.size(); i++) {
+            columnRates.put(columns.get(i), paired == 0 ? 0.0 : (double) columnMismatches[i] / paired);
+        }
+        preview.setColumnMismatchRates(columnRates);
+    }
+
+    // The samples hold their keys to pair rows, so distinct keys are counted exactly and only scaled up. Page
+    // samples return a varying share of the table, so their share of distinct keys is scaled by its size instead.
+    private static long distinctKeys(String samplingMethod, Sample sample, long tableRows, double fraction) {
+        if (samplingMethod.equals("tablesample") && tableRows >= 0) {
+            return sample.rowsRead == 0 ? 0 : Math.round((double) tableRows * sample.rows.size() / sample.rowsRead);
+        }
+        return Math.round(sample.rows.size() / fraction);
+    }
+
+    // Wilson score interval, which stays within [0, 1] and behaves for rates near zero
+    private static ComparisonPreview.RateEstimate estimate(long observed, long sampled, long tableRows) {
+        ComparisonPreview.RateEstimate estimate = new ComparisonPreview.RateEstimate();
+        estimate.setSampled(sampled);
+        estimate.setObserved(observed);
+        if (sampled == 0) {
+            estimate.setUpper(1);
+        } else {
+            double n = sampled;
+            double rate = observed / n;
+            double z2 = Z_95 * Z_95;
+            double centre = (rate + z2 / (2 * n)) / (1 + z2 / n);
+            double margin = Z_95 / (1 + z2 / n) * Math.sqrt(rate * (1 - rate) / n + z2 / (4 * n * n));
+            estimate.setRate(rate);
+            estimate.setLower(Math.max(0, centre - margin));
+            estimate.setUpper(Math.min(1, centre + margin));
+        }
+        if (tableRows >= 0) {
+            estimate.setEstimatedRows(Math.round(estimate.getRate() * tableRows));
+            estimate.setEstimatedRowsLower(Math.round(estimate.getLower() * tableRows));
+            estimate.setEstimatedRowsUpper(Math.round(estimate.getUpper() * tableRows));
+        }
+        return estimate;
+    }
+
+    private static long count(Connection conn, String table, ComparisonContext context) throws SQLException {
+        try (PreparedStatement stmt = context.track(conn.prepareStatement("SELECT COUNT(*) FROM " + table));
+             ResultSet rs = context.executeQuery(stmt)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    // Share of a table, in percent, that yields about the requested rows; all of it when its size is unknown
+    private static double percent(int sampleRows, long estimatedRows) {
+        return estimatedRows <= 0 ? 100 : Math.min(100, 100.0 * sampleRows / estimatedRows);
+    }
+
+    private static Sample sample(
+        Connection conn,
+        SqlDialect dialect,
+        String query,
+        KeyCodec codec,
+        int cap,
+        boolean fromSource,
+        ComparisonContext context
+    ) throws SQLException {
+        Sample sample = new Sample();
+        int columnCount = fromSource ? context.getSourceColumns().size() : context.getTargetColumns().size();
+        try (PreparedStatement stmt = context.track(dialect.prepareStreaming(conn, query))) {
+            stmt.setMaxRows(cap);
+            try (ResultSet rs = context.executeQuery(stmt)) {
+                while (rs.next()) {
+                    context.checkCancelled();
+                    Object[] key = codec.values(rs, 1);
+                    RowKey rowKey = codec.encode(key);
+                    String[] row = new String[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        row[i] = rs.getString(i + 1);
+                    }
+                    if (sample.rows.putIfAbsent(rowKey, row) == null) {
+                        sample.keys.add(key);
+                    }
+                    sample.rowsRead++;
+                }
+            }
+        }
+        if (fromSource) {
+            context.sourceRowsRead(sample.rowsRead);
+        } else {
+            context.targetRowsRead(sample.rowsRead);
+        }
+        return sample;
+    }
+
+    // Rows of a sample by key; rows sharing a key count once, as a keyed comparison pairs only one of them
+    private static final class Sample {
+        private final Map<RowKey, String[]> rows = new HashMap<>();
+        private final List<Object[]> keys = new ArrayList<>();
+        private long rowsRead;
+    }
+}
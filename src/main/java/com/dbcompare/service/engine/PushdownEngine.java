@@ -0,0 +1,165 @@
+package com.dbcompare.service.engine;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+/**
+ * Compares two tables that one database server can read together with a single diff query, so only
+ * the rows that differ leave the database. The query joins both tables on the key, comparing text
+ * keys by their binary order rather than the column collation, and keeps rows
+ * missing on either side or differing as text in any column; the returned pairs are compared again
+ * as the other engines compare them before they are reported. Rows with NULL keys never join, so
+ * they are reported as missing on both sides.
+ */
+@Slf4j
+@Service
+public class PushdownEngine {
+    private static final String ROW_MARKER = "dbcompare_row";
+
+    // Whether the target table can be read through a source connection
+    public boolean supports(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws SQLException {
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+            return targetTable(sourceConn, targetConn, context.getOptions().getTargetTable()) != null;
+        }
+    }
+
+    public void compare(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws SQLException {
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+            String targetTable = targetTable(sourceConn, targetConn, context.getOptions().getTargetTable());
+            if (targetTable == null) {
+                throw new IllegalArgumentException("Source and target tables are not on the same database server");
+            }
+
+            SqlDialect dialect = SqlDialect.of(sourceConn);
+            KeyType[] sourceKeys = KeyType.probe(sourceConn, context.getOptions().getSourceTable(), context.getSourceKeyColumns(),
+                context.getSourceColumnTypes());
+            KeyType[] targetKeys = KeyType.probe(targetConn, context.getOptions().getTargetTable(), context.getTargetKeyColumns(),
+                context.getTargetColumnTypes());
+            String query = buildDiffQuery(dialect, context.getOptions().getSourceTable(), targetTable, sourceKeys, targetKeys, context);
+            log.debug("Pushdown diff query: {}", query);
+
+            int columnCount = context.getSourceColumns().size();
+            try (PreparedStatement stmt = context.track(dialect.prepareStreaming(sourceConn, query));
+                 ResultSet rs = context.executeQuery(stmt)) {
+                while (rs.next()) {
+                    context.checkCancelled();
+                    boolean hasSource = rs.getObject(1) != null;
+                    boolean hasTarget = rs.getObject(columnCount + 2) != null;
+                    String[] sourceRow = hasSource ? readRow(rs, 2, columnCount) : null;
+                    String[] targetRow = hasTarget ? readRow(rs, columnCount + 3, columnCount) : null;
+
+                    if (hasSource && hasTarget) {
+                        context.compareRows(sourceRow, targetRow);
+                    } else if (hasSource) {
+                        context.missingTarget(sourceRow);
+                    } else {
+                        context.missingSource(targetRow);
+                    }
+                    context.sourceRowsRead(hasSource ? 1 : 0);
+                    context.targetRowsRead(hasTarget ? 1 : 0);
+                }
+            }
+        }
+    }
+
+    // Selects a marker and the columns of each side; without FULL OUTER JOIN both outer joins are combined
+    static String buildDiffQuery(
+        SqlDialect dialect,
+        String sourceTable,
+        String targetTable,
+        KeyType[] sourceKeys,
+        KeyType[] targetKeys,
+        ComparisonContext context
+    ) {
+        List<String> sourceColumns = context.getSourceColumns();
+        List<String> targetColumns = context.getTargetColumns();
+
+        StringJoiner select = new StringJoiner(", ");
+        select.add("s." + ROW_MARKER);
+        sourceColumns.forEach(column -> select.add("s." + column));
+        select.add("t." + ROW_MARKER);
+        targetColumns.forEach(column -> select.add("t." + column));
+
+        // A case- or accent-insensitive collation would otherwise join keys the other engines tell apart
+        StringJoiner join = new StringJoiner(" AND ");
+        for (int i = 0; i < context.getKeyColumnCount(); i++) {
+            join.add(exactKey(dialect, "s." + sourceColumns.get(i), sourceKeys[i]) + " = "
+                + exactKey(dialect, "t." + targetColumns.get(i), targetKeys[i]));
+        }
+
+        StringJoiner differs = new StringJoiner(" OR ");
+        for (int i = context.getKeyColumnCount(); i < sourceColumns.size(); i++) {
+            differs.add(dialect.differsAsText("s." + sourceColumns.get(i), "t." + targetColumns.get(i)));
+        }
+
+        String source = String.format("(SELECT 1 AS %s, %s FROM %s) s", ROW_MARKER, String.join(", ", sourceColumns), sourceTable);
+        String target = String.format("(SELECT 1 AS %s, %s FROM %s) t", ROW_MARKER, String.join(", ", targetColumns), targetTable);
+        String changed = differs.length() == 0 ? "" : " OR " + differs;
+
+        if (dialect.supportsFullOuterJoin()) {
+            return String.format(
+                "SELECT %s FROM %s FULL OUTER JOIN %s ON %s WHERE s.%s IS NULL OR t.%s IS NULL%s",
+                select, source, target, join, ROW_MARKER, ROW_MARKER, changed
+            );
+        }
+        return String.format(
+            "SELECT %s FROM %s LEFT JOIN %s ON %s WHERE t.%s IS NULL%s UNION ALL SELECT %s FROM %s RIGHT JOIN %s ON %s WHERE s.%s IS NULL",
+            select, source, target, join, ROW_MARKER, changed,
+            select, source, target, join, ROW_MARKER
+        );
+    }
+
+    private static String exactKey(SqlDialect dialect, String column, KeyType type) {
+        return type == KeyType.STRING ? dialect.binaryOrder(column) : column;
+    }
+
+    // The target table as the source connection can name it, or null when that connection cannot reach it
+    private static String targetTable(Connection sourceConn, Connection targetConn, String table) throws SQLException {
+        SqlDialect dialect = SqlDialect.of(sourceConn);
+        if (dialect == SqlDialect.GENERIC || dialect != SqlDialect.of(targetConn)
+            || !server(sourceConn).equals(server(targetConn))) {
+            return null;
+        }
+
+        String catalog = targetConn.getCatalog();
+        if (Objects.equals(catalog, sourceConn.getCatalog())) {
+            return table;
+        }
+        long dots = table.chars().filter(c -> c == '.').count();
+        return switch (dialect) {
+            case MYSQL -> dots == 0 ? catalog + "." + table : table;
+            case SQLSERVER -> dots == 0 ? catalog + ".." + table : dots == 1 ? catalog + "." + table : table;
+            // PostgreSQL and H2 cannot query across databases
+            case POSTGRESQL, H2, GENERIC -> null;
+        };
+    }
+
+    // Host and port from the connection URL, with the user, since a query runs with the source user's rights
+    private static String server(Connection conn) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        String url = metaData.getURL();
+        int start = url.indexOf("//");
+        String address = start < 0 ? url : url.substring(start + 2).split("[/;?]", 2)[0];
+        return address.toLowerCase() + " " + metaData.getUserName();
+    }
+
+    private static String[] readRow(ResultSet rs, int firstColumn, int columnCount) throws SQLException {
+        String[] row = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            row[i] = rs.getString(firstColumn + i);
+        }
+        return row;
+    }
+}
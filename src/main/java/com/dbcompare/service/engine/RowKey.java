@@ -0,0 +1,78 @@
+package com.dbcompare.service.engine;
+
+import java.util.Arrays;
+
+/**
+ * Compact, typed encoding of a row's key. A single non-NULL integer key is held as a plain long;
+ * anything else is an order-preserving byte sequence built by {@link KeyCodec}, so hashing, equality
+ * and merge ordering never touch strings.
+ */
+public final class RowKey implements Comparable<RowKey> {
+    // A NULL single-column key; its encoding sorts before every value, like the 0x00 marker of composite keys
+    static final RowKey NULL = new RowKey(0, new byte[]{0});
+
+    private final long value;
+    private final byte[] bytes;
+    private final int hash;
+
+    private RowKey(long value, byte[] bytes) {
+        this.value = value;
+        this.bytes = bytes;
+        this.hash = bytes == null ? longHash(value) : Arrays.hashCode(bytes);
+    }
+
+    // Spill readers hash keys in place with this and Arrays.hashCode, so they agree with hashCode()
+    static int longHash(long value) {
+        return Long.hashCode(value * 0x9E3779B97F4A7C15L);
+    }
+
+    static RowKey of(long value) {
+        return new RowKey(value, null);
+    }
+
+    static RowKey of(byte[] bytes) {
+        return new RowKey(0, bytes);
+    }
+
+    boolean isLong() {
+        return bytes == null;
+    }
+
+    long longValue() {
+        return value;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public int compareTo(RowKey other) {
+        if (bytes == null && other.bytes == null) {
+            return Long.compare(value, other.value);
+        }
+        return Arrays.compareUnsigned(encoded(), other.encoded());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RowKey other) || hash != other.hash) {
+            return false;
+        }
+        return bytes == null ? other.bytes == null && value == other.value : Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return bytes == null ? Long.toString(value) : KeyCodec.describe(bytes);
+    }
+
+    private byte[] encoded() {
+        return bytes != null ? bytes : KeyCodec.encodeLong(value);
+    }
+}
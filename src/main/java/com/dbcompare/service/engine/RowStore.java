@@ -0,0 +1,221 @@
+package com.dbcompare.service.engine;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * In-memory build side of a hash join, stored by column. Integer columns live in long arrays with a
+ * null bitmap; all other columns are packed per row as length-prefixed UTF-8 into one buffer, which
+ * can be off-heap. Rows are found by key through an open-addressing index and compared against spill
+ * records by column index, so a matching row costs no allocation.
+ */
+final class RowStore {
+    private static final int INITIAL_ROWS = 1024;
+
+    private final KeyType[] columnTypes;
+    private final int[] longColumn;
+    private final int longColumnCount;
+    private final boolean offHeap;
+
+    private RowKey[] keys = new RowKey[INITIAL_ROWS];
+    private int[] hashes = new int[INITIAL_ROWS];
+    private final long[][] longs;
+    private final BitSet longNulls = new BitSet();
+    private int[] textStart = new int[INITIAL_ROWS];
+    private ByteBuffer text;
+    private final BitSet matched = new BitSet();
+    private int[] slots = new int[INITIAL_ROWS * 2];
+    private int size;
+
+    RowStore(KeyType[] columnTypes, boolean offHeap) {
+        this.columnTypes = columnTypes;
+        this.offHeap = offHeap;
+        this.longColumn = new int[columnTypes.length];
+
+        int count = 0;
+        for (int i = 0; i < columnTypes.length; i++) {
+            longColumn[i] = columnTypes[i] == KeyType.LONG ? count++ : -1;
+        }
+        this.longColumnCount = count;
+        this.longs = new long[count][INITIAL_ROWS];
+        this.text = allocate(64 * 1024);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void add(SpillFile.Reader reader) {
+        if (size == keys.length) {
+            growRows();
+        }
+        int row = size++;
+        keys[row] = reader.key();
+        hashes[row] = reader.keyHash();
+        textStart[row] = text.position();
+
+        for (int i = 0; i < columnTypes.length; i++) {
+            int longIndex = longColumn[i];
+            if (longIndex >= 0) {
+                if (reader.isNull(i)) {
+                    longNulls.set(row * longColumnCount + longIndex);
+                } else {
+                    longs[longIndex][row] = reader.longValue(i);
+                }
+            } else if (reader.isNull(i)) {
+                reserve(Integer.BYTES);
+                text.putInt(-1);
+            } else {
+                int length = reader.textLength(i);
+                reserve(Integer.BYTES + length);
+                text.putInt(length).put(reader.array(), reader.textOffset(i), length);
+            }
+        }
+
+        if (size * 2 > slots.length) {
+            rehash(slots.length * 2);
+        } else {
+            insert(row);
+        }
+    }
+
+    // Claims the first unmatched row with the reader's key and returns it, or -1 when there is none
+    int match(SpillFile.Reader reader) {
+        int hash = reader.keyHash();
+        int mask = slots.length - 1;
+
+        for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int row = slots[slot] - 1;
+            if (hashes[row] == hash && !matched.get(row) && reader.keyEquals(keys[row])) {
+                matched.set(row);
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    int nextUnmatched(int from) {
+        int row = matched.nextClearBit(from);
+        return row < size ? row : -1;
+    }
+
+    // Compares every column of a stored row with the reader's current record
+    boolean sameValues(int row, SpillFile.Reader reader) {
+        int position = textStart[row];
+
+        for (int i = 0; i < columnTypes.length; i++) {
+            int longIndex = longColumn[i];
+            if (longIndex >= 0) {
+                boolean isNull = longNulls.get(row * longColumnCount + longIndex);
+                if (isNull != reader.isNull(i) || (!isNull && longs[longIndex][row] != reader.longValue(i))) {
+                    return false;
+                }
+                continue;
+            }
+
+            int length = text.getInt(position);
+            position += Integer.BYTES;
+            if (length < 0) {
+                if (!reader.isNull(i)) {
+                    return false;
+                }
+                continue;
+            }
+            if (reader.isNull(i) || reader.textLength(i) != length || !textEquals(position, reader.array(), reader.textOffset(i), length)) {
+                return false;
+            }
+            position += length;
+        }
+        return true;
+    }
+
+    String[] row(int row) {
+        String[] values = new String[columnTypes.length];
+        int position = textStart[row];
+
+        for (int i = 0; i < columnTypes.length; i++) {
+            int longIndex = longColumn[i];
+            if (longIndex >= 0) {
+                if (!longNulls.get(row * longColumnCount + longIndex)) {
+                    values[i] = Long.toString(longs[longIndex][row]);
+                }
+                continue;
+            }
+
+            int length = text.getInt(position);
+            position += Integer.BYTES;
+            if (length >= 0) {
+                byte[] bytes = new byte[length];
+                text.get(position, bytes);
+                values[i] = new String(bytes, StandardCharsets.UTF_8);
+                position += length;
+            }
+        }
+        return values;
+    }
+
+    private boolean textEquals(int position, byte[] other, int offset, int length) {
+        if (text.hasArray()) {
+            int from = text.arrayOffset() + position;
+            return Arrays.equals(text.array(), from, from + length, other, offset, offset + length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (text.get(position + i) != other[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void insert(int row) {
+        int mask = slots.length - 1;
+        int slot = mix(hashes[row]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = row + 1;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        for (int row = 0; row < size; row++) {
+            insert(row);
+        }
+    }
+
+    private void growRows() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+        textStart = Arrays.copyOf(textStart, capacity);
+        for (int i = 0; i < longColumnCount; i++) {
+            longs[i] = Arrays.copyOf(longs[i], capacity);
+        }
+    }
+
+    private void reserve(int bytes) {
+        if (text.remaining() >= bytes) {
+            return;
+        }
+        long required = (long) text.position() + bytes;
+        if (required > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Hash partition is too large to hold in memory; raise app.comparison.hash-partitions");
+        }
+        ByteBuffer larger = allocate((int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, text.capacity() * 2L)));
+        text.flip();
+        larger.put(text);
+        text = larger;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    // Spreads key hashes, which are weak in their low bits for short byte keys
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,285 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Incremental comparison against a snapshot of per-key row hashes kept from the previous run. The
+ * first run, or one whose snapshot no longer fits the comparison, merges both tables in full like the
+ * merge engine and records every key. Later runs only read the rows changed since then: those past
+ * each side's watermark column, plus any keys the caller names, which is how deletions are picked up.
+ * Their hashes replace the snapshot entries. Unchanged keys that differ are reported from the rows
+ * the snapshot keeps for them, so each run still returns the full current diff.
+ */
+@Slf4j
+@Service
+public class SnapshotEngine {
+
+    @Value("${app.comparison.snapshot-directory:${java.io.tmpdir}}")
+    private String snapshotDirectory;
+
+    public void compare(DataSource sourceDs, DataSource targetDs, ComparisonContext context) throws SQLException, IOException {
+        ComparisonOptions options = context.getOptions();
+        String watermarkColumn = options.getWatermarkColumn();
+        boolean hasChangedKeys = options.getChangedKeys() != null && !options.getChangedKeys().isEmpty();
+        Path directory = Paths.get(snapshotDirectory);
+        Files.createDirectories(directory);
+
+        try (Connection sourceConn = sourceDs.getConnection();
+             Connection targetConn = targetDs.getConnection()) {
+            String fingerprint = fingerprint(sourceConn, targetConn, context);
+            String name = "snapshot-" + digest(fingerprint);
+            Path snapshot = directory.resolve(name + ".dbcs");
+            Path next = directory.resolve(name + "." + UUID.randomUUID() + ".tmp");
+            KeyCodec codec = KeyCodec.probe(sourceConn, targetConn, context, true);
+
+            // Watermarks are taken before reading, so rows changed during this run are read again next time
+            SnapshotFile.Header header = new SnapshotFile.Header(
+                fingerprint,
+                keyTypes(codec),
+                watermarkColumn == null ? null : SnapshotFile.Watermark.max(sourceConn, options.getSourceTable(), watermarkColumn),
+                watermarkColumn == null ? null : SnapshotFile.Watermark.max(targetConn, options.getTargetTable(), targetWatermarkColumn(context))
+            );
+            SnapshotFile.Header previous = readHeader(snapshot);
+            boolean incremental = previous != null && previous.compatible(fingerprint, codec) && (watermarkColumn != null || hasChangedKeys);
+
+            try (SnapshotFile.Writer writer = new SnapshotFile.Writer(next, header)) {
+                if (incremental) {
+                    log.debug("Updating snapshot {} incrementally", snapshot);
+                    update(sourceConn, targetConn, context, codec, snapshot, previous, writer);
+                } else {
+                    log.debug("Building snapshot {} from a full comparison", snapshot);
+                    build(sourceConn, targetConn, context, codec, writer);
+                }
+                writer.finish();
+            } catch (IOException | SQLException | RuntimeException e) {
+                Files.deleteIfExists(next);
+                throw e;
+            }
+            Files.move(next, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private void build(Connection sourceConn, Connection targetConn, ComparisonContext context, KeyCodec codec, SnapshotFile.Writer writer)
+        throws SQLException, IOException {
+        // Rows are read as text, so they hash the same way as the rows of earlier snapshots
+        try (PreparedStatement sourceStmt = context.track(MergeJoinEngine.prepareOrderedQuery(
+                 sourceConn, context.getOptions().getSourceTable(), context.getSourceColumns(), codec, KeyRange.ALL));
+             PreparedStatement targetStmt = context.track(MergeJoinEngine.prepareOrderedQuery(
+                 targetConn, context.getOptions().getTargetTable(), context.getTargetColumns(), codec, KeyRange.ALL));
+             KeyedCursor source = new KeyedCursor(sourceStmt, codec, context.getSourceColumns().size(), null, "snapshot-source-reader", context);
+             KeyedCursor target = new KeyedCursor(targetStmt, codec, context.getTargetColumns().size(), null, "snapshot-target-reader", context)) {
+
+            boolean hasSource = source.next();
+            boolean hasTarget = target.next();
+
+            while (hasSource || hasTarget) {
+                context.checkCancelled();
+                int cmp = !hasSource ? 1 : !hasTarget ? -1 : source.key().compareTo(target.key());
+
+                if (cmp < 0) {
+                    writer.write(source.key(), (String[]) source.row(), null);
+                    context.missingTarget(source.row());
+                    context.sourceRowsRead(1);
+                    hasSource = source.next();
+                } else if (cmp > 0) {
+                    writer.write(target.key(), null, (String[]) target.row());
+                    context.missingSource(target.row());
+                    context.targetRowsRead(1);
+                    hasTarget = target.next();
+                } else {
+                    writer.write(source.key(), (String[]) source.row(), (String[]) target.row());
+                    context.compareRows(source.row(), target.row());
+                    context.sourceRowsRead(1);
+                    context.targetRowsRead(1);
+                    hasSource = source.next();
+                    hasTarget = target.next();
+                }
+            }
+        }
+    }
+
+    private void update(
+        Connection sourceConn,
+        Connection targetConn,
+        ComparisonContext context,
+        KeyCodec codec,
+        Path snapshot,
+        SnapshotFile.Header previous,
+        SnapshotFile.Writer writer
+    ) throws SQLException, IOException {
+        ComparisonOptions options = context.getOptions();
+        TreeMap<RowKey, Object[]> changed = new TreeMap<>();
+        if (options.getWatermarkColumn() != null) {
+            collectChanged(sourceConn, options.getSourceTable(), context.getSourceKeyColumns(), options.getWatermarkColumn(),
+                previous.source(), codec, changed, context);
+            collectChanged(targetConn, options.getTargetTable(), context.getTargetKeyColumns(), targetWatermarkColumn(context),
+                previous.target(), codec, changed, context);
+        }
+        if (options.getChangedKeys() != null) {
+            for (List<String> values : options.getChangedKeys()) {
+                Object[] key = codec.parse(values);
+                changed.put(codec.encode(key), key);
+            }
+        }
+        log.debug("{} keys changed since the last snapshot", changed.size());
+
+        Map<RowKey, String[]> sourceRows = KeyLookup.fetchRows(
+            sourceConn, options.getSourceTable(), context.getSourceColumns(), codec, changed.values(), context);
+        Map<RowKey, String[]> targetRows = KeyLookup.fetchRows(
+            targetConn, options.getTargetTable(), context.getTargetColumns(), codec, changed.values(), context);
+        context.sourceRowsRead(sourceRows.size());
+        context.targetRowsRead(targetRows.size());
+
+        Iterator<RowKey> changedKeys = changed.keySet().iterator();
+        RowKey nextChanged = changedKeys.hasNext() ? changedKeys.next() : null;
+
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(snapshot)) {
+            boolean hasEntry = reader.next();
+            while (hasEntry || nextChanged != null) {
+                context.checkCancelled();
+                int cmp = !hasEntry ? 1 : nextChanged == null ? -1 : reader.key().compareTo(nextChanged);
+
+                if (cmp < 0) {
+                    writer.copy(reader);
+                    if (reader.differs()) {
+                        emit(context, reader.sourceRow(), reader.targetRow());
+                    }
+                    hasEntry = reader.next();
+                    continue;
+                }
+
+                String[] sourceRow = sourceRows.get(nextChanged);
+                String[] targetRow = targetRows.get(nextChanged);
+                if (sourceRow != null || targetRow != null) {
+                    writer.write(nextChanged, sourceRow, targetRow);
+                    emit(context, sourceRow, targetRow);
+                }
+                if (cmp == 0) {
+                    hasEntry = reader.next();
+                }
+                nextChanged = changedKeys.hasNext() ? changedKeys.next() : null;
+            }
+        }
+    }
+
+    // Keys of rows whose watermark is past the one recorded; all rows with a watermark when none was
+    private void collectChanged(
+        Connection conn,
+        String table,
+        List<String> keyColumns,
+        String watermarkColumn,
+        SnapshotFile.Watermark watermark,
+        KeyCodec codec,
+        Map<RowKey, Object[]> changed,
+        ComparisonContext context
+    ) throws SQLException {
+        boolean since = watermark != null && watermark.value() != null;
+        String query = String.format(
+            "SELECT %s FROM %s WHERE %s",
+            String.join(", ", keyColumns),
+            table,
+            watermarkColumn + (since ? " > ?" : " IS NOT NULL")
+        );
+
+        try (PreparedStatement stmt = context.track(SqlDialect.of(conn).prepareStreaming(conn, query))) {
+            if (since) {
+                watermark.bind(stmt, 1);
+            }
+            try (ResultSet rs = context.executeQuery(stmt)) {
+                while (rs.next()) {
+                    context.checkCancelled();
+                    RowKey key = codec.read(rs, 1);
+                    changed.computeIfAbsent(key, codec::decode);
+                }
+            }
+        }
+    }
+
+    private static void emit(ComparisonContext context, String[] sourceRow, String[] targetRow) {
+        if (sourceRow != null && targetRow != null) {
+            context.compareRows(sourceRow, targetRow);
+        } else if (sourceRow != null) {
+            context.missingTarget(sourceRow);
+        } else if (targetRow != null) {
+            context.missingSource(targetRow);
+        }
+    }
+
+    // A snapshot that cannot be read is rebuilt rather than failing the comparison
+    private static SnapshotFile.Header readHeader(Path snapshot) {
+        if (!Files.exists(snapshot)) {
+            return null;
+        }
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(snapshot)) {
+            return reader.header();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable snapshot {}: {}", snapshot, e.getMessage());
+            return null;
+        }
+    }
+
+    private static String targetWatermarkColumn(ComparisonContext context) {
+        String column = context.getOptions().getWatermarkColumn();
+        return context.getColumnMap().entrySet().stream()
+            .filter(entry -> entry.getKey().equalsIgnoreCase(column))
+            .map(Map.Entry::getValue)
+            .findFirst()
+            .orElse(column);
+    }
+
+    // Everything a snapshot's hashes depend on; a change in any of it starts a new snapshot
+    // Tables of the same name in other databases, or seen through other users, get snapshots of their own
+    private static String fingerprint(Connection sourceConn, Connection targetConn, ComparisonContext context) throws SQLException {
+        return String.join("\n",
+            database(sourceConn),
+            database(targetConn),
+            context.getOptions().getSourceTable(),
+            context.getOptions().getTargetTable(),
+            String.join(",", context.getSourceColumns()),
+            String.join(",", context.getTargetColumns()),
+            Integer.toString(context.getKeyColumnCount()),
+            String.valueOf(context.getOptions().getWatermarkColumn())
+        );
+    }
+
+    private static String database(Connection conn) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        return metaData.getURL() + " " + conn.getCatalog() + " " + metaData.getUserName();
+    }
+
+    private static KeyType[] keyTypes(KeyCodec codec) {
+        KeyType[] types = new KeyType[codec.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = codec.type(i);
+        }
+        return types;
+    }
+
+    private static String digest(String fingerprint) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(fingerprint.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
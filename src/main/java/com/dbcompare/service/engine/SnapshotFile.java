@@ -0,0 +1,385 @@
+package com.dbcompare.service.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * Per-key row hashes of both sides of a comparison, as of its last run. The file starts with "DBCS",
+ * a version, the comparison fingerprint, the key types and the watermark of each side. Entries follow
+ * in key order: the key as -2 and a long or as a length and its encoding, a flags byte for which sides
+ * have the row, and the source and target row hashes. Entries whose sides differ also keep the rows,
+ * each value as a length and UTF-8 with -1 for NULL, so unchanged differences can be reported again
+ * without reading them. A key length of -1 ends the file.
+ */
+final class SnapshotFile {
+    static final int VERSION = 1;
+    static final int SOURCE = 1;
+    static final int TARGET = 2;
+    private static final int ROWS = 4;
+    private static final byte[] MAGIC = {'D', 'B', 'C', 'S'};
+    private static final int LONG_KEY = -2;
+    private static final int END = -1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    // 64-bit hash of a row's values as read; FNV-1a per value, mixed in column order
+    static long rowHash(String[] row) {
+        long hash = 0x6A09E667F3BCC909L;
+        for (String value : row) {
+            long valueHash = 0x9E3779B97F4A7C15L;
+            if (value != null) {
+                valueHash = 0xCBF29CE484222325L;
+                for (int i = 0; i < value.length(); i++) {
+                    valueHash = (valueHash ^ value.charAt(i)) * 0x100000001B3L;
+                }
+            }
+            hash = MinHashIndex.mix(hash + valueHash);
+        }
+        return hash;
+    }
+
+    static boolean differs(int flags, long sourceHash, long targetHash) {
+        return flags != (SOURCE | TARGET) || sourceHash != targetHash;
+    }
+
+    record Header(String fingerprint, KeyType[] keyTypes, Watermark source, Watermark target) {
+
+        boolean compatible(String fingerprint, KeyCodec codec) {
+            if (!this.fingerprint.equals(fingerprint) || keyTypes.length != codec.size()) {
+                return false;
+            }
+            for (int i = 0; i < keyTypes.length; i++) {
+                if (keyTypes[i] != codec.type(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Highest value of a side's watermark column, kept with its JDBC type so it can be bound back
+     * as a parameter of that type. A null value means the side had no rows with a watermark.
+     */
+    record Watermark(int sqlType, String value) {
+
+        static Watermark max(Connection conn, String table, String column) throws SQLException {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT MAX(" + column + ") FROM " + table)) {
+                rs.next();
+                int sqlType = rs.getMetaData().getColumnType(1);
+                String value = switch (sqlType) {
+                    case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> {
+                        Timestamp timestamp = rs.getTimestamp(1);
+                        yield timestamp == null ? null : timestamp.toString();
+                    }
+                    case Types.DATE -> {
+                        Date date = rs.getDate(1);
+                        yield date == null ? null : date.toString();
+                    }
+                    case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT, Types.DECIMAL, Types.NUMERIC -> {
+                        BigDecimal number = rs.getBigDecimal(1);
+                        yield number == null ? null : number.toPlainString();
+                    }
+                    default -> rs.getString(1);
+                };
+                return new Watermark(sqlType, value);
+            }
+        }
+
+        void bind(PreparedStatement stmt, int index) throws SQLException {
+            switch (sqlType) {
+                case Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> stmt.setTimestamp(index, Timestamp.valueOf(value));
+                case Types.DATE -> stmt.setDate(index, Date.valueOf(value));
+                case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT, Types.DECIMAL, Types.NUMERIC ->
+                    stmt.setBigDecimal(index, new BigDecimal(value));
+                default -> stmt.setString(index, value);
+            }
+        }
+    }
+
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        Writer(Path path, Header header) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            buffer.put(MAGIC).putInt(VERSION);
+            putString(header.fingerprint());
+            buffer.putInt(header.keyTypes().length);
+            for (KeyType type : header.keyTypes()) {
+                buffer.put((byte) type.ordinal());
+            }
+            putWatermark(header.source());
+            putWatermark(header.target());
+        }
+
+        // Either row may be null when that side has no row with the key
+        void write(RowKey key, String[] sourceRow, String[] targetRow) throws IOException {
+            long sourceHash = sourceRow == null ? 0 : rowHash(sourceRow);
+            long targetHash = targetRow == null ? 0 : rowHash(targetRow);
+            int flags = (sourceRow != null ? SOURCE : 0) | (targetRow != null ? TARGET : 0);
+            boolean keepRows = differs(flags, sourceHash, targetHash);
+
+            putKey(key);
+            ensure(1 + 2 * Long.BYTES);
+            buffer.put((byte) (keepRows ? flags | ROWS : flags)).putLong(sourceHash).putLong(targetHash);
+            if (keepRows) {
+                putRow(sourceRow);
+                putRow(targetRow);
+            }
+        }
+
+        // Copies the reader's current entry as it is
+        void copy(Reader reader) throws IOException {
+            putKey(reader.key());
+            ensure(1 + 2 * Long.BYTES);
+            buffer.put((byte) reader.rawFlags).putLong(reader.sourceHash).putLong(reader.targetHash);
+            if ((reader.rawFlags & ROWS) != 0) {
+                putRow(reader.sourceRow);
+                putRow(reader.targetRow);
+            }
+        }
+
+        // Ends the entries; a file without the end marker is treated as unusable
+        void finish() throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(END);
+            flush();
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private void putKey(RowKey key) throws IOException {
+            if (key.isLong()) {
+                ensure(Integer.BYTES + Long.BYTES);
+                buffer.putInt(LONG_KEY).putLong(key.longValue());
+            } else {
+                ensure(Integer.BYTES);
+                buffer.putInt(key.bytes().length);
+                putBytes(key.bytes());
+            }
+        }
+
+        private void putRow(String[] row) throws IOException {
+            if (row == null) {
+                ensure(Integer.BYTES);
+                buffer.putInt(-1);
+                return;
+            }
+            ensure(Integer.BYTES);
+            buffer.putInt(row.length);
+            for (String value : row) {
+                putString(value);
+            }
+        }
+
+        private void putWatermark(Watermark watermark) throws IOException {
+            if (watermark == null) {
+                ensure(Integer.BYTES);
+                buffer.putInt(Integer.MIN_VALUE);
+                return;
+            }
+            ensure(Integer.BYTES);
+            buffer.putInt(watermark.sqlType());
+            putString(watermark.value());
+        }
+
+        private void putString(String value) throws IOException {
+            if (value == null) {
+                ensure(Integer.BYTES);
+                buffer.putInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(Integer.BYTES);
+            buffer.putInt(bytes.length);
+            putBytes(bytes);
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int chunk = Math.min(bytes.length - offset, buffer.remaining());
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final Header header;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private RowKey key;
+        private int rawFlags;
+        private long sourceHash;
+        private long targetHash;
+        private String[] sourceRow;
+        private String[] targetRow;
+
+        Reader(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                require(MAGIC.length + Integer.BYTES);
+                byte[] magic = new byte[MAGIC.length];
+                buffer.get(magic);
+                if (!Arrays.equals(magic, MAGIC) || buffer.getInt() != VERSION) {
+                    throw new IOException("Not a snapshot file of this version: " + path);
+                }
+                String fingerprint = readString();
+                require(Integer.BYTES);
+                KeyType[] keyTypes = new KeyType[buffer.getInt()];
+                require(keyTypes.length);
+                for (int i = 0; i < keyTypes.length; i++) {
+                    keyTypes[i] = KeyType.values()[buffer.get()];
+                }
+                this.header = new Header(fingerprint, keyTypes, readWatermark(), readWatermark());
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        Header header() {
+            return header;
+        }
+
+        // Moves to the next entry; false at the end marker, and an IOException if the file ends before it
+        boolean next() throws IOException {
+            require(Integer.BYTES);
+            int keyLength = buffer.getInt();
+            if (keyLength == END) {
+                return false;
+            }
+            if (keyLength == LONG_KEY) {
+                require(Long.BYTES);
+                key = RowKey.of(buffer.getLong());
+            } else {
+                require(keyLength);
+                byte[] bytes = new byte[keyLength];
+                buffer.get(bytes);
+                key = RowKey.of(bytes);
+            }
+            require(1 + 2 * Long.BYTES);
+            rawFlags = buffer.get();
+            sourceHash = buffer.getLong();
+            targetHash = buffer.getLong();
+            boolean hasRows = (rawFlags & ROWS) != 0;
+            sourceRow = hasRows ? readRow() : null;
+            targetRow = hasRows ? readRow() : null;
+            return true;
+        }
+
+        boolean differs() {
+            return SnapshotFile.differs(rawFlags & (SOURCE | TARGET), sourceHash, targetHash);
+        }
+
+        // The rows of an entry whose sides differ, as of the run that recorded them
+        String[] sourceRow() {
+            return sourceRow;
+        }
+
+        String[] targetRow() {
+            return targetRow;
+        }
+
+        RowKey key() {
+            return key;
+        }
+
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private String[] readRow() throws IOException {
+            require(Integer.BYTES);
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            String[] row = new String[length];
+            for (int i = 0; i < length; i++) {
+                row[i] = readString();
+            }
+            return row;
+        }
+
+        private Watermark readWatermark() throws IOException {
+            require(Integer.BYTES);
+            int sqlType = buffer.getInt();
+            return sqlType == Integer.MIN_VALUE ? null : new Watermark(sqlType, readString());
+        }
+
+        private String readString() throws IOException {
+            require(Integer.BYTES);
+            int length = buffer.getInt();
+            if (length < 0) {
+                return null;
+            }
+            require(length);
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            if (buffer.capacity() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(bytes);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Truncated snapshot file");
+                }
+            }
+            buffer.flip();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.dbcompare.service.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Append-only temp file of keyed rows, written and read through a FileChannel with a fixed-size buffer.
+ * Each record is length-prefixed and starts with its key, either -2 and a long or a length-prefixed
+ * encoding. Integer columns follow as a NULL flag byte and a long, other columns as length-prefixed
+ * UTF-8 with a length of -1 for NULL.
+ */
+final class SpillFile implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int LONG_KEY = -2;
+
+    private final Path path;
+    private final KeyType[] columnTypes;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer record = ByteBuffer.allocate(1024);
+    private long rows;
+
+    SpillFile(Path path, KeyType[] columnTypes) throws IOException {
+        this.path = path;
+        this.columnTypes = columnTypes;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    // Writes the key and columns 1..n of the current result set row
+    void write(RowKey key, ResultSet rs) throws IOException, SQLException {
+        record.clear();
+        if (key.isLong()) {
+            reserve(Integer.BYTES + Long.BYTES);
+            record.putInt(LONG_KEY).putLong(key.longValue());
+        } else {
+            putBytes(key.bytes());
+        }
+
+        for (int i = 0; i < columnTypes.length; i++) {
+            if (columnTypes[i] == KeyType.LONG) {
+                long value = rs.getLong(i + 1);
+                reserve(1 + Long.BYTES);
+                if (rs.wasNull()) {
+                    record.put((byte) 0).putLong(0);
+                } else {
+                    record.put((byte) 1).putLong(value);
+                }
+            } else {
+                String value = rs.getString(i + 1);
+                if (value == null) {
+                    reserve(Integer.BYTES);
+                    record.putInt(-1);
+                } else {
+                    putBytes(value.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        record.flip();
+        append(record, 0, record.limit());
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    long size() throws IOException {
+        return channel.position() + buffer.position();
+    }
+
+    Path path() {
+        return path;
+    }
+
+    // Flushes pending writes; the file can be read once this returns
+    Reader reader() throws IOException {
+        flush();
+        return new Reader(FileChannel.open(path, StandardOpenOption.READ), columnTypes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void append(ByteBuffer source, int offset, int length) throws IOException {
+        ensureSpace(Integer.BYTES);
+        buffer.putInt(length);
+
+        if (length > buffer.capacity()) {
+            flush();
+            writeFully(source.duplicate().position(offset).limit(offset + length));
+        } else {
+            ensureSpace(length);
+            buffer.put(buffer.position(), source, offset, length);
+            buffer.position(buffer.position() + length);
+        }
+        rows++;
+    }
+
+    private void putBytes(byte[] bytes) {
+        reserve(Integer.BYTES + bytes.length);
+        record.putInt(bytes.length).put(bytes);
+    }
+
+    private void reserve(int bytes) {
+        if (record.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+            record.flip();
+            larger.put(record);
+            record = larger;
+        }
+    }
+
+    private void ensureSpace(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    /**
+     * Cursor over the records of a spill file. The current record stays in the read buffer, so keys
+     * and values can be hashed, compared and copied without decoding them.
+     */
+    static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final KeyType[] columnTypes;
+        private final int[] offsets;
+        private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private int recordStart;
+        private int recordLength;
+        private int keyLength;
+
+        private Reader(FileChannel channel, KeyType[] columnTypes) {
+            this.channel = channel;
+            this.columnTypes = columnTypes;
+            this.offsets = new int[columnTypes.length];
+        }
+
+        // Moves to the next record; false once the file is exhausted
+        boolean next() throws IOException {
+            buffer.position(recordStart + recordLength);
+            if (!ensure(Integer.BYTES)) {
+                return false;
+            }
+            int length = buffer.getInt();
+            if (!ensure(length)) {
+                throw new IOException("Truncated spill file");
+            }
+            recordStart = buffer.position();
+            recordLength = length;
+
+            keyLength = buffer.getInt(recordStart);
+            int position = recordStart + Integer.BYTES + (keyLength == LONG_KEY ? Long.BYTES : keyLength);
+            for (int i = 0; i < columnTypes.length; i++) {
+                offsets[i] = position;
+                position += columnTypes[i] == KeyType.LONG ? 1 + Long.BYTES : Integer.BYTES + Math.max(0, buffer.getInt(position));
+            }
+            return true;
+        }
+
+        int keyHash() {
+            if (keyLength == LONG_KEY) {
+                return RowKey.longHash(buffer.getLong(recordStart + Integer.BYTES));
+            }
+            int hash = 1;
+            for (int i = 0; i < keyLength; i++) {
+                hash = 31 * hash + buffer.get(recordStart + Integer.BYTES + i);
+            }
+            return hash;
+        }
+
+        boolean keyEquals(RowKey key) {
+            if (keyLength == LONG_KEY) {
+                return key.isLong() && key.longValue() == buffer.getLong(recordStart + Integer.BYTES);
+            }
+            int from = recordStart + Integer.BYTES;
+            return !key.isLong() && Arrays.equals(key.bytes(), 0, key.bytes().length, buffer.array(), from, from + keyLength);
+        }
+
+        RowKey key() {
+            if (keyLength == LONG_KEY) {
+                return RowKey.of(buffer.getLong(recordStart + Integer.BYTES));
+            }
+            int from = recordStart + Integer.BYTES;
+            return RowKey.of(Arrays.copyOfRange(buffer.array(), from, from + keyLength));
+        }
+
+        boolean isNull(int column) {
+            return columnTypes[column] == KeyType.LONG ? buffer.get(offsets[column]) == 0 : buffer.getInt(offsets[column]) < 0;
+        }
+
+        long longValue(int column) {
+            return buffer.getLong(offsets[column] + 1);
+        }
+
+        // Text columns only: length in bytes, and the offset of those bytes in array()
+        int textLength(int column) {
+            return buffer.getInt(offsets[column]);
+        }
+
+        int textOffset(int column) {
+            return offsets[column] + Integer.BYTES;
+        }
+
+        byte[] array() {
+            return buffer.array();
+        }
+
+        String value(int column) {
+            if (isNull(column)) {
+                return null;
+            }
+            if (columnTypes[column] == KeyType.LONG) {
+                return Long.toString(longValue(column));
+            }
+            return new String(buffer.array(), textOffset(column), textLength(column), StandardCharsets.UTF_8);
+        }
+
+        String[] row() {
+            String[] row = new String[columnTypes.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = value(i);
+            }
+            return row;
+        }
+
+        // Appends the current record to another spill file of the same layout as-is
+        void copyTo(SpillFile file) throws IOException {
+            file.append(buffer, recordStart, recordLength);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private boolean ensure(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return true;
+            }
+            if (buffer.capacity() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocate(bytes);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+            recordStart = 0;
+            recordLength = 0;
+
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    buffer.flip();
+                    return false;
+                }
+            }
+            buffer.flip();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ColumnInfo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * SQL flavours of the databases we connect to, detected from the JDBC driver.
+ */
+public enum SqlDialect {
+    MYSQL,
+    POSTGRESQL,
+    SQLSERVER,
+    H2,
+    GENERIC;
+
+    // Rows fetched per round trip by streaming reads
+    private static final int FETCH_SIZE = 10_000;
+
+    public static SqlDialect of(Connection conn) throws SQLException {
+        String product = conn.getMetaData().getDatabaseProductName().toLowerCase();
+
+        if (product.contains("mysql") || product.contains("mariadb")) {
+            return MYSQL;
+        }
+        if (product.contains("postgresql")) {
+            return POSTGRESQL;
+        }
+        if (product.contains("sql server")) {
+            return SQLSERVER;
+        }
+        if (product.equals("h2")) {
+            return H2;
+        }
+        return GENERIC;
+    }
+
+    // Forward-only, read-only statement whose rows the driver fetches in batches instead of buffering them all.
+    // PostgreSQL only reads through a cursor inside a transaction; MySQL cursor fetch and SQL Server adaptive
+    // buffering are switched on in the connection URL.
+    public PreparedStatement prepareStreaming(Connection conn, String query) throws SQLException {
+        if (this == POSTGRESQL && conn.getAutoCommit()) {
+            conn.setAutoCommit(false);
+        }
+        PreparedStatement stmt = conn.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        stmt.setFetchSize(FETCH_SIZE);
+        return stmt;
+    }
+
+    // Character keys are sorted by code point so every database agrees with the order we merge in.
+    // H2 without a database collation already compares by character, which only differs for surrogate pairs.
+    public String binaryOrder(String column) {
+        return switch (this) {
+            case MYSQL -> String.format("CAST(%s AS BINARY)", column);
+            case POSTGRESQL -> String.format("%s COLLATE \"C\"", column);
+            case SQLSERVER -> String.format("%s COLLATE Latin1_General_BIN2", column);
+            case H2, GENERIC -> column;
+        };
+    }
+
+    // Row count from the optimizer statistics, or -1 when the catalog has no estimate
+    public long estimatedRowCount(Connection conn, String table) throws SQLException {
+        String query = switch (this) {
+            case MYSQL -> table.contains(".")
+                ? "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE CONCAT(TABLE_SCHEMA, '.', TABLE_NAME) = ?"
+                : "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+            case POSTGRESQL -> "SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass(?)";
+            case SQLSERVER -> "SELECT SUM(rows) FROM sys.partitions WHERE object_id = OBJECT_ID(?) AND index_id IN (0, 1)";
+            case H2 -> table.contains(".")
+                ? "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES WHERE UPPER(CONCAT(TABLE_SCHEMA, '.', TABLE_NAME)) = UPPER(?)"
+                : "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = SCHEMA() AND UPPER(TABLE_NAME) = UPPER(?)";
+            case GENERIC -> null;
+        };
+        if (query == null) {
+            return -1;
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(query)) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    long rows = rs.getLong(1);
+                    return rs.wasNull() || rows < 0 ? -1 : rows;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Null-safe test of whether two values differ as text, compared exactly rather than under the column collation
+    public String differsAsText(String left, String right) {
+        return switch (this) {
+            case MYSQL -> String.format("NOT (CAST(%s AS BINARY) <=> CAST(%s AS BINARY))", left, right);
+            case POSTGRESQL -> String.format("CAST(%s AS TEXT) IS DISTINCT FROM CAST(%s AS TEXT)", left, right);
+            case H2 -> String.format("CAST(%s AS VARCHAR) IS DISTINCT FROM CAST(%s AS VARCHAR)", left, right);
+            case SQLSERVER -> String.format(
+                "EXISTS (SELECT CAST(%s AS NVARCHAR(MAX)) COLLATE Latin1_General_BIN2 EXCEPT SELECT CAST(%s AS NVARCHAR(MAX)) COLLATE Latin1_General_BIN2)",
+                left, right
+            );
+            case GENERIC -> throw unsupported("comparison");
+        };
+    }
+
+    // Page-level sample of about the given percentage of a table, or null when the database has no TABLESAMPLE
+    public String tableSample(String table, double percent) {
+        return switch (this) {
+            case POSTGRESQL -> String.format(Locale.ROOT, "%s TABLESAMPLE SYSTEM (%.6f)", table, percent);
+            case SQLSERVER -> String.format(Locale.ROOT, "%s TABLESAMPLE (%.6f PERCENT)", table, percent);
+            case MYSQL, H2, GENERIC -> null;
+        };
+    }
+
+    // Keeps one key in every modulus by a hash of its text, so both sides keep the same keys
+    public String keySample(List<String> keyColumns, Map<String, ColumnInfo> types, long modulus) {
+        return String.format("MOD(%s, %d) = 0", rowHash(keyColumns, types), modulus);
+    }
+
+    // Whether rowHash gives the same hash on both dialects for the same values
+    public boolean hashesLike(SqlDialect other) {
+        return (this == SQLSERVER) == (other == SQLSERVER);
+    }
+
+    public boolean supportsFullOuterJoin() {
+        return this == POSTGRESQL || this == SQLSERVER;
+    }
+
+    // 56 bits of the MD5 of a row, summable without overflow. Identical across dialects for identical text,
+    // except SQL Server, which hashes its text as UTF-16.
+    public String rowHash(List<String> columns, Map<String, ColumnInfo> types) {
+        return hash56(encodedText(columns, types));
+    }
+
+    // Non-NULL text that tells apart every combination of values, NULLs included
+    public String encodedText(List<String> columns, Map<String, ColumnInfo> types) {
+        if (columns.size() == 1) {
+            return encodeValue(columns.get(0), types.get(columns.get(0)));
+        }
+        return columns.stream()
+            .map(column -> encodeValue(column, types.get(column)))
+            .collect(Collectors.joining(", ", "CONCAT(", ")"));
+    }
+
+    public String sumOfHashes(String hashExpression) {
+        return String.format("SUM(CAST(%s AS DECIMAL(38,0)))", hashExpression);
+    }
+
+    public String md5Hex(String expression) {
+        return switch (this) {
+            case MYSQL, POSTGRESQL -> String.format("MD5(%s)", expression);
+            case SQLSERVER -> String.format("LOWER(CONVERT(VARCHAR(32), HASHBYTES('MD5', %s), 2))", expression);
+            case H2 -> String.format("LOWER(RAWTOHEX(HASH('MD5', %s)))", expression);
+            case GENERIC -> throw unsupported("hashing");
+        };
+    }
+
+    // Type may be null when unknown. SQL Server's default conversions drop seconds from datetimes, digits from
+    // floats and cents from money, and VARCHAR loses characters outside the code page, so it is told the style.
+    public String text(String column, ColumnInfo type) {
+        return switch (this) {
+            case MYSQL -> String.format("CAST(%s AS CHAR)", column);
+            case POSTGRESQL -> String.format("CAST(%s AS TEXT)", column);
+            case SQLSERVER -> sqlServerText(column, type);
+            case H2 -> String.format("CAST(%s AS VARCHAR)", column);
+            case GENERIC -> throw unsupported("hashing");
+        };
+    }
+
+    private static String sqlServerText(String column, ColumnInfo type) {
+        String typeName = type == null || type.getTypeName() == null ? "" : type.getTypeName().toLowerCase(Locale.ROOT);
+        return switch (typeName) {
+            case "datetime", "datetime2", "smalldatetime", "date", "time", "datetimeoffset" ->
+                String.format("CONVERT(NVARCHAR(MAX), %s, 121)", column);
+            case "float", "real" -> String.format("CONVERT(NVARCHAR(MAX), %s, 3)", column);
+            case "money", "smallmoney" -> String.format("CONVERT(NVARCHAR(MAX), %s, 2)", column);
+            default -> String.format("CAST(%s AS NVARCHAR(MAX))", column);
+        };
+    }
+
+    // Length-prefixed so that no two distinct rows concatenate to the same text
+    private String encodeValue(String column, ColumnInfo type) {
+        String text = text(column, type);
+        String length = this == SQLSERVER ? String.format("DATALENGTH(%s)", text) : String.format("CHAR_LENGTH(%s)", text);
+        return String.format("CASE WHEN %s IS NULL THEN '-' ELSE CONCAT(%s, ':', %s, ';') END", column, length, text);
+    }
+
+    private String hash56(String expression) {
+        return switch (this) {
+            case MYSQL -> String.format("CAST(CONV(SUBSTRING(MD5(%s), 1, 14), 16, 10) AS UNSIGNED)", expression);
+            case POSTGRESQL -> String.format("('x' || SUBSTRING(MD5(%s), 1, 14))::bit(56)::bigint", expression);
+            case SQLSERVER -> String.format("CAST(SUBSTRING(HASHBYTES('MD5', %s), 1, 7) AS BIGINT)", expression);
+            case H2 -> String.format("CAST(X'00' || SUBSTRING(HASH('MD5', %s), 1, 7) AS BIGINT)", expression);
+            case GENERIC -> throw unsupported("hashing");
+        };
+    }
+
+    private IllegalArgumentException unsupported(String feature) {
+        return new IllegalArgumentException("Database does not support in-database " + feature);
+    }
+}
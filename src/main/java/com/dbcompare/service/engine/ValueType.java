@@ -0,0 +1,260 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ColumnInfo;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How a value column is read and compared. Numbers and temporal values are read through their typed
+ * getters rather than as text, compared by value, and only turned into text when a difference is
+ * reported. Engines that read text still compare by type: their values are parsed when compared.
+ */
+enum ValueType {
+    INTEGER,
+    DECIMAL,
+    FLOAT,
+    TIMESTAMP,
+    DATE,
+    TIME,
+    TEXT;
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = new DateTimeFormatterBuilder()
+        .appendPattern("yyyy-MM-dd HH:mm:ss")
+        .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+        .toFormatter();
+
+    static ValueType of(int sqlType) {
+        return switch (sqlType) {
+            case Types.TINYINT, Types.SMALLINT, Types.INTEGER, Types.BIGINT -> INTEGER;
+            case Types.NUMERIC, Types.DECIMAL -> DECIMAL;
+            case Types.REAL, Types.FLOAT, Types.DOUBLE -> FLOAT;
+            case Types.TIMESTAMP -> TIMESTAMP;
+            case Types.DATE -> DATE;
+            case Types.TIME -> TIME;
+            default -> TEXT;
+        };
+    }
+
+    // Unsigned BIGINTs can exceed a long
+    static ValueType of(ResultSetMetaData metaData, int column) throws SQLException {
+        if (metaData.getColumnType(column) == Types.BIGINT && !metaData.isSigned(column)) {
+            return DECIMAL;
+        }
+        return of(metaData.getColumnType(column));
+    }
+
+    static ValueType of(ColumnInfo column) {
+        if (column.getSqlType() == Types.BIGINT && column.getTypeName() != null && column.getTypeName().toUpperCase().contains("UNSIGNED")) {
+            return DECIMAL;
+        }
+        return of(column.getSqlType());
+    }
+
+    // Types of the given columns, from known metadata when it covers them all and otherwise from an empty query
+    static ValueType[] probe(Connection conn, String table, List<String> columns, Map<String, ColumnInfo> known) throws SQLException {
+        if (columns.stream().allMatch(known::containsKey)) {
+            return columns.stream().map(column -> of(known.get(column))).toArray(ValueType[]::new);
+        }
+        String query = String.format("SELECT %s FROM %s WHERE 1 = 0", String.join(", ", columns), table);
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            ValueType[] types = new ValueType[columns.size()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = of(rs.getMetaData(), i + 1);
+            }
+            return types;
+        }
+    }
+
+    // Metadata of the given columns by name, the known metadata when it covers them all and otherwise from an empty query
+    static Map<String, ColumnInfo> describe(Connection conn, String table, List<String> columns, Map<String, ColumnInfo> known)
+        throws SQLException {
+        if (columns.stream().allMatch(known::containsKey)) {
+            return known;
+        }
+        String query = String.format("SELECT %s FROM %s WHERE 1 = 0", String.join(", ", columns), table);
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(query)) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            Map<String, ColumnInfo> types = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < columns.size(); i++) {
+                ColumnInfo column = new ColumnInfo();
+                column.setName(columns.get(i));
+                column.setTypeName(metaData.getColumnTypeName(i + 1));
+                column.setSqlType(metaData.getColumnType(i + 1));
+                column.setSize(metaData.getPrecision(i + 1));
+                column.setDecimalDigits(metaData.getScale(i + 1));
+                column.setNullable(metaData.isNullable(i + 1) != ResultSetMetaData.columnNoNulls);
+                types.put(columns.get(i), column);
+            }
+            return types;
+        }
+    }
+
+    static ValueType[] common(ValueType[] source, ValueType[] target) {
+        ValueType[] types = new ValueType[source.length];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = common(source[i], target[i]);
+        }
+        return types;
+    }
+
+    // Numbers meet at the wider kind and timestamps absorb dates; anything else mixed is compared as text
+    static ValueType common(ValueType source, ValueType target) {
+        if (source == target) {
+            return source;
+        }
+        if (source.isNumeric() && target.isNumeric()) {
+            return source == FLOAT || target == FLOAT ? FLOAT : DECIMAL;
+        }
+        if ((source == TIMESTAMP && target == DATE) || (source == DATE && target == TIMESTAMP)) {
+            return TIMESTAMP;
+        }
+        return TEXT;
+    }
+
+    boolean isNumeric() {
+        return this == INTEGER || this == DECIMAL || this == FLOAT;
+    }
+
+    // Long, BigDecimal, Double, LocalDateTime, LocalDate, LocalTime or String, or null for NULL
+    Object read(ResultSet rs, int column) throws SQLException {
+        switch (this) {
+            case INTEGER -> {
+                long value = rs.getLong(column);
+                return rs.wasNull() ? null : value;
+            }
+            case DECIMAL -> {
+                return rs.getBigDecimal(column);
+            }
+            case FLOAT -> {
+                double value = rs.getDouble(column);
+                return rs.wasNull() ? null : value;
+            }
+            case TIMESTAMP -> {
+                Timestamp value = rs.getTimestamp(column);
+                return value == null ? null : value.toLocalDateTime();
+            }
+            case DATE -> {
+                Date value = rs.getDate(column);
+                return value == null ? null : value.toLocalDate();
+            }
+            case TIME -> {
+                Time value = rs.getTime(column);
+                return value == null ? null : value.toLocalTime();
+            }
+            default -> {
+                return rs.getString(column);
+            }
+        }
+    }
+
+    // Text as the database reported it stays as it is; typed values are written the way databases print them
+    static String format(Object value) {
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        if (value instanceof BigDecimal decimal) {
+            return decimal.toPlainString();
+        }
+        if (value instanceof LocalDateTime timestamp) {
+            return TIMESTAMP_FORMAT.format(timestamp);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Whether two values are the same for this type. Numbers may differ by up to the tolerance, and
+     * timestamps and times are rounded half up to the given number of fractional second digits, as
+     * databases round them when storing, or compared in full when that is null. Values that do not
+     * parse as this type are compared as text.
+     */
+    boolean same(Object source, Object target, double tolerance, Integer precision) {
+        if (source == null || target == null) {
+            return source == target;
+        }
+        if (source.equals(target)) {
+            return true;
+        }
+        Object left = coerce(source);
+        Object right = coerce(target);
+        if (left == null || right == null) {
+            return format(source).equals(format(target));
+        }
+
+        return switch (this) {
+            case INTEGER -> tolerance > 0
+                ? Math.abs((double) (Long) left - (Long) right) <= tolerance
+                : ((Long) left).longValue() == (Long) right;
+            case DECIMAL -> tolerance > 0
+                ? ((BigDecimal) left).subtract((BigDecimal) right).abs().compareTo(BigDecimal.valueOf(tolerance)) <= 0
+                : ((BigDecimal) left).compareTo((BigDecimal) right) == 0;
+            case FLOAT -> tolerance > 0
+                ? Math.abs((Double) left - (Double) right) <= tolerance
+                : Double.compare((Double) left, (Double) right) == 0;
+            case TIMESTAMP -> round((LocalDateTime) left, precision).equals(round((LocalDateTime) right, precision));
+            case TIME -> round((LocalTime) left, precision).equals(round((LocalTime) right, precision));
+            default -> left.equals(right);
+        };
+    }
+
+    // The value as this type, parsing text read by engines that do not read typed; null when it does not parse
+    private Object coerce(Object value) {
+        try {
+            return switch (this) {
+                case INTEGER -> value instanceof Long ? value : Long.valueOf(value.toString().trim());
+                case DECIMAL -> value instanceof BigDecimal ? value : new BigDecimal(value.toString().trim());
+                case FLOAT -> value instanceof Double ? value : Double.valueOf(value.toString().trim());
+                case TIMESTAMP -> value instanceof LocalDateTime ? value
+                    : value instanceof LocalDate date ? date.atStartOfDay()
+                    : Timestamp.valueOf(value.toString().trim()).toLocalDateTime();
+                case DATE -> value instanceof LocalDate ? value : LocalDate.parse(value.toString().trim());
+                case TIME -> value instanceof LocalTime ? value : LocalTime.parse(value.toString().trim());
+                case TEXT -> format(value);
+            };
+        } catch (IllegalArgumentException | DateTimeException e) {
+            return null;
+        }
+    }
+
+    // Adding half a unit before cutting carries a rounded-up fraction into the seconds, and on into the date
+    private static LocalDateTime round(LocalDateTime value, Integer precision) {
+        if (precision == null) {
+            return value;
+        }
+        LocalDateTime rounded = value.plusNanos(unit(precision) / 2);
+        return rounded.withNano(rounded.getNano() - rounded.getNano() % unit(precision));
+    }
+
+    private static LocalTime round(LocalTime value, Integer precision) {
+        if (precision == null) {
+            return value;
+        }
+        LocalTime rounded = value.plusNanos(unit(precision) / 2);
+        return rounded.withNano(rounded.getNano() - rounded.getNano() % unit(precision));
+    }
+
+    // Nanoseconds in one unit of the last fractional second digit kept
+    private static int unit(int digits) {
+        return (int) Math.pow(10, 9 - digits);
+    }
+}
@@ -0,0 +1,110 @@
+package com.dbcompare.service.export;
+
+import com.dbcompare.model.ComparisonResult;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary columnar export, all integers big-endian. The file starts with "DBCX", a version and the
+ * column names, each as a length and UTF-8 bytes. Results follow in row groups of up to 4096: the
+ * row count, the ids as longs, a dictionary of status names with one code byte per row, then for
+ * every column its source and its target values, each stored as a length per row (-1 for NULL)
+ * followed by the concatenated UTF-8 bytes. A row count of 0 and the total row count end the file.
+ */
+class ColumnarResultExporter extends ResultExporter {
+    static final int VERSION = 1;
+    private static final byte[] MAGIC = {'D', 'B', 'C', 'X'};
+    private static final int ROW_GROUP_SIZE = 4096;
+
+    private final List<ComparisonResult> group = new ArrayList<>(ROW_GROUP_SIZE);
+    private final byte[][] cells = new byte[ROW_GROUP_SIZE][];
+    private long totalRows;
+
+    ColumnarResultExporter(WritableByteChannel channel, List<String> columns) throws IOException {
+        super(channel, columns);
+
+        put(MAGIC);
+        putInt(VERSION);
+        putInt(columns.size());
+        for (String column : columns) {
+            putString(column);
+        }
+    }
+
+    @Override
+    protected void write(ComparisonResult result) throws IOException {
+        group.add(result);
+        if (group.size() == ROW_GROUP_SIZE) {
+            writeGroup();
+        }
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        writeGroup();
+        putInt(0);
+        putLong(totalRows);
+    }
+
+    private void writeGroup() throws IOException {
+        int rows = group.size();
+        if (rows == 0) {
+            return;
+        }
+
+        putInt(rows);
+        for (ComparisonResult result : group) {
+            putLong(result.getId() == null ? 0 : result.getId());
+        }
+
+        List<String> statuses = new ArrayList<>();
+        byte[] codes = new byte[rows];
+        for (int i = 0; i < rows; i++) {
+            String status = String.valueOf(group.get(i).getStatus());
+            int code = statuses.indexOf(status);
+            if (code < 0) {
+                code = statuses.size();
+                statuses.add(status);
+            }
+            codes[i] = (byte) code;
+        }
+        putByte(statuses.size());
+        for (String status : statuses) {
+            putString(status);
+        }
+        put(codes);
+
+        for (String column : columns) {
+            writeValues(column, true);
+            writeValues(column, false);
+        }
+
+        totalRows += rows;
+        group.clear();
+    }
+
+    private void writeValues(String column, boolean source) throws IOException {
+        int rows = group.size();
+        for (int i = 0; i < rows; i++) {
+            String value = value(group.get(i), column, source);
+            cells[i] = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+            putInt(cells[i] == null ? -1 : cells[i].length);
+        }
+        for (int i = 0; i < rows; i++) {
+            if (cells[i] != null) {
+                put(cells[i]);
+                cells[i] = null;
+            }
+        }
+    }
+
+    private void putString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        put(bytes);
+    }
+}
@@ -0,0 +1,68 @@
+package com.dbcompare.service.export;
+
+import com.dbcompare.model.ComparisonResult;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * RFC 4180 CSV with one row per result: id, status, then a source and a target cell per column.
+ * Cells of columns that matched are left empty, except key columns, which identify the row. NULL is
+ * an empty cell too, so an empty string is written quoted to tell the two apart.
+ */
+class CsvResultExporter extends ResultExporter {
+
+    CsvResultExporter(WritableByteChannel channel, List<String> columns) throws IOException {
+        super(channel, columns);
+
+        put("id,status");
+        for (String column : columns) {
+            putByte(',');
+            putCell(column + "_source");
+            putByte(',');
+            putCell(column + "_target");
+        }
+        put("\r\n");
+    }
+
+    @Override
+    protected void write(ComparisonResult result) throws IOException {
+        put(String.valueOf(result.getId()));
+        putByte(',');
+        putCell(result.getStatus());
+        for (String column : columns) {
+            putByte(',');
+            putCell(value(result, column, true));
+            putByte(',');
+            putCell(value(result, column, false));
+        }
+        put("\r\n");
+    }
+
+    private void putCell(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (!needsQuotes(value)) {
+            put(value);
+            return;
+        }
+        putByte('"');
+        put(value.replace("\"", "\"\""));
+        putByte('"');
+    }
+
+    private static boolean needsQuotes(String value) {
+        if (value.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,49 @@
+package com.dbcompare.service.export;
+
+import java.util.Locale;
+
+public enum ExportFormat {
+    CSV("csv", "text/csv"),
+    JSON("json", "application/json"),
+    JSONL("jsonl", "application/x-ndjson"),
+    COLUMNAR("dbcx", "application/octet-stream");
+
+    private final String extension;
+    private final String mediaType;
+
+    ExportFormat(String extension, String mediaType) {
+        this.extension = extension;
+        this.mediaType = mediaType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    public String getMediaType() {
+        return mediaType;
+    }
+
+    // Excel has no streaming writer here, so it is exported as CSV, which Excel opens directly
+    public static ExportFormat of(String name) {
+        if (name == null) {
+            return JSON;
+        }
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "csv", "excel" -> CSV;
+            case "json" -> JSON;
+            case "jsonl", "ndjson" -> JSONL;
+            case "columnar", "binary", "dbcx" -> COLUMNAR;
+            default -> throw new IllegalArgumentException("Unsupported export format: " + name);
+        };
+    }
+
+    static ExportFormat ofExtension(String extension) {
+        for (ExportFormat format : values()) {
+            if (format.extension.equals(extension)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("Unknown export file type: " + extension);
+    }
+}
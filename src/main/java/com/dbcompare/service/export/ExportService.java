@@ -0,0 +1,105 @@
+package com.dbcompare.service.export;
+
+import com.dbcompare.model.ComparisonOptions;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Export files live in the export directory as {@code <id>.<extension>}, plus {@code .gz} when
+ * compressed, so an id is all that is needed to find one again.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ExportService {
+    private static final Pattern EXPORT_ID = Pattern.compile("[A-Za-z0-9-]+");
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.comparison.export-directory:${java.io.tmpdir}}")
+    private String exportDirectory;
+
+    public ResultExporter open(String exportId, ComparisonOptions options, List<String> columns) throws IOException {
+        checkId(exportId);
+        ExportFormat format = ExportFormat.of(options.getExportFormat());
+        boolean gzip = Boolean.TRUE.equals(options.getExportGzip());
+
+        Path directory = Paths.get(exportDirectory);
+        Files.createDirectories(directory);
+        Path path = directory.resolve(exportId + "." + format.getExtension() + (gzip ? ".gz" : ""));
+
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        WritableByteChannel channel = file;
+        try {
+            if (gzip) {
+                channel = Channels.newChannel(new GZIPOutputStream(Channels.newOutputStream(file), GZIP_BUFFER_SIZE));
+            }
+            return switch (format) {
+                case CSV -> new CsvResultExporter(channel, columns);
+                case JSON -> new JsonResultExporter(channel, columns, objectMapper.writer(), false);
+                case JSONL -> new JsonResultExporter(channel, columns, objectMapper.writer(), true);
+                case COLUMNAR -> new ColumnarResultExporter(channel, columns);
+            };
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    public Optional<Path> find(String exportId) {
+        if (!EXPORT_ID.matcher(exportId).matches() || !Files.isDirectory(Paths.get(exportDirectory))) {
+            return Optional.empty();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(exportDirectory), exportId + ".*")) {
+            for (Path file : files) {
+                return Optional.of(file);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to look up export {}", exportId, e);
+        }
+        return Optional.empty();
+    }
+
+    public String mediaType(Path file) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".gz")) {
+            return "application/gzip";
+        }
+        return ExportFormat.ofExtension(name.substring(name.lastIndexOf('.') + 1)).getMediaType();
+    }
+
+    public void delete(String exportId) {
+        find(exportId).ifPresent(file -> {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                log.warn("Failed to delete export {}", file, e);
+            }
+        });
+    }
+
+    private static void checkId(String exportId) {
+        if (!EXPORT_ID.matcher(exportId).matches()) {
+            throw new IllegalArgumentException("Invalid export id: " + exportId);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.dbcompare.service.export;
+
+import com.dbcompare.model.ComparisonResult;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Results serialized the way the API returns them, either as one JSON array or as JSON Lines.
+ * The array is written incrementally, so it never exists in memory as a whole.
+ */
+class JsonResultExporter extends ResultExporter {
+    private final ObjectWriter writer;
+    private final boolean lines;
+    private boolean first = true;
+
+    JsonResultExporter(WritableByteChannel channel, List<String> columns, ObjectWriter writer, boolean lines) throws IOException {
+        super(channel, columns);
+        this.writer = writer;
+        this.lines = lines;
+
+        if (!lines) {
+            putByte('[');
+        }
+    }
+
+    @Override
+    protected void write(ComparisonResult result) throws IOException {
+        if (!lines && !first) {
+            putByte(',');
+        }
+        first = false;
+        put(writer.writeValueAsBytes(result));
+        if (lines) {
+            putByte('\n');
+        }
+    }
+
+    @Override
+    protected void finish() throws IOException {
+        if (!lines) {
+            putByte(']');
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.dbcompare.service.export;
+
+import com.dbcompare.model.ComparisonResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Writes comparison results to a channel as the engine emits them. Output is staged in a fixed-size
+ * buffer and handed to the channel in large writes; nothing is kept per result once it is encoded.
+ * Columns are laid out by source column name, the same names results use for their differences.
+ */
+public abstract class ResultExporter implements Consumer<ComparisonResult>, Closeable {
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    protected final List<String> columns;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long bytesWritten;
+    private boolean closed;
+
+    protected ResultExporter(WritableByteChannel channel, List<String> columns) {
+        this.channel = channel;
+        this.columns = columns;
+    }
+
+    @Override
+    public synchronized void accept(ComparisonResult result) {
+        try {
+            write(result);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write comparison export", e);
+        }
+    }
+
+    // Size of the encoded output so far, before compression
+    public synchronized long bytesWritten() {
+        return bytesWritten + buffer.position();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            finish();
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    protected abstract void write(ComparisonResult result) throws IOException;
+
+    protected void finish() throws IOException {
+    }
+
+    protected void put(byte[] bytes) throws IOException {
+        put(bytes, 0, bytes.length);
+    }
+
+    protected void put(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    protected void put(String text) throws IOException {
+        put(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    protected void putByte(int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    protected void putInt(int value) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    protected void putLong(long value) throws IOException {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    // Value of a column on one side: its difference if it differs, otherwise the key value, which both sides share
+    protected static String value(ComparisonResult result, String column, boolean source) {
+        ComparisonResult.ValueDifference difference = result.getDifferences() == null ? null : result.getDifferences().get(column);
+        if (difference != null) {
+            return source ? difference.getSourceValue() : difference.getTargetValue();
+        }
+        Map<String, String> key = result.getKey();
+        return key == null ? null : key.get(column);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,236 @@
+package com.dbcompare.service.results;
+
+import com.dbcompare.model.ComparisonResult;
+import com.dbcompare.model.ResultPage;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Results of one comparison on disk, so that only the page being served is ever in memory. Results
+ * are appended as JSON to a data file; an index file holds one fixed-size entry per result with its
+ * offset and length in the data file, its status and a bitmask of the columns that differ. Unfiltered
+ * pages are read straight from their position in the index; filtered pages scan the index only.
+ * Pages can be read while results are still being appended.
+ */
+public final class ResultLog implements Closeable {
+    static final List<String> STATUSES = List.of("matched", "mismatched", "missing_source", "missing_target");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int HEADER_BYTES = Long.BYTES + Integer.BYTES + 1;
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final Map<String, Integer> columnIndexes = new HashMap<>();
+    private final ObjectWriter writer;
+    private final ObjectReader reader;
+    private final int entrySize;
+    private final FileChannel data;
+    private final FileChannel index;
+    private final ByteBuffer dataBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer indexBuffer;
+    private long dataSize;
+    private long results;
+    private long flushedResults;
+
+    ResultLog(Path dataPath, Path indexPath, List<String> columns, ObjectWriter writer, ObjectReader reader) throws IOException {
+        this.dataPath = dataPath;
+        this.indexPath = indexPath;
+        this.writer = writer;
+        this.reader = reader;
+        for (int i = 0; i < columns.size(); i++) {
+            columnIndexes.put(columns.get(i), i);
+        }
+        this.entrySize = HEADER_BYTES + (columns.size() + 7) / 8;
+        this.indexBuffer = ByteBuffer.allocate(BUFFER_SIZE / entrySize * entrySize);
+        this.data = FileChannel.open(dataPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            this.index = FileChannel.open(indexPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            data.close();
+            Files.deleteIfExists(dataPath);
+            throw e;
+        }
+    }
+
+    public synchronized void append(ComparisonResult result) throws IOException {
+        byte[] json = writer.writeValueAsBytes(result);
+        if (dataBuffer.remaining() < json.length) {
+            flushData();
+        }
+        if (json.length > dataBuffer.capacity()) {
+            writeFully(data, ByteBuffer.wrap(json));
+        } else {
+            dataBuffer.put(json);
+        }
+
+        if (indexBuffer.remaining() < entrySize) {
+            flushIndex();
+        }
+        int start = indexBuffer.position();
+        indexBuffer.putLong(dataSize).putInt(json.length).put((byte) STATUSES.indexOf(result.getStatus()));
+        for (int i = HEADER_BYTES; i < entrySize; i++) {
+            indexBuffer.put((byte) 0);
+        }
+        if (result.getDifferences() != null) {
+            for (String column : result.getDifferences().keySet()) {
+                Integer i = columnIndexes.get(column);
+                if (i != null) {
+                    int at = start + HEADER_BYTES + i / 8;
+                    indexBuffer.put(at, (byte) (indexBuffer.get(at) | 1 << (i % 8)));
+                }
+            }
+        }
+        dataSize += json.length;
+        results++;
+    }
+
+    public synchronized long size() {
+        return results;
+    }
+
+    public synchronized long bytesWritten() {
+        return dataSize + results * entrySize;
+    }
+
+    /**
+     * One page of results, optionally only those with the given status and those where the given column
+     * differs. Missing rows differ in every column, so a column filter alone also returns them.
+     */
+    public ResultPage page(String status, String column, int page, int size) throws IOException {
+        int statusCode = status == null ? -1 : STATUSES.indexOf(status);
+        if (status != null && statusCode < 0) {
+            throw new IllegalArgumentException("Unknown result status: " + status);
+        }
+        Integer columnIndex = column == null ? null : columnIndexes.get(column);
+        if (column != null && columnIndex == null) {
+            throw new IllegalArgumentException("Unknown column: " + column);
+        }
+
+        // Everything up to the flushed count is on disk and never changes, so it is read without holding the lock
+        long available = flush();
+        long first = (long) page * size;
+        List<long[]> entries = new ArrayList<>(size);
+        long total;
+        try (FileChannel indexReader = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            if (status == null && column == null) {
+                total = available;
+                readEntries(indexReader, first, Math.min(available, first + size), -1, null, 0, size, entries);
+            } else {
+                total = readEntries(indexReader, 0, available, statusCode, columnIndex, first, size, entries);
+            }
+        }
+
+        List<ComparisonResult> pageResults = new ArrayList<>(entries.size());
+        try (FileChannel dataReader = FileChannel.open(dataPath, StandardOpenOption.READ)) {
+            for (long[] entry : entries) {
+                ByteBuffer json = ByteBuffer.allocate((int) entry[1]);
+                while (json.hasRemaining()) {
+                    if (dataReader.read(json, entry[0] + json.position()) < 0) {
+                        throw new IOException("Truncated result log " + dataPath);
+                    }
+                }
+                pageResults.add(reader.readValue(json.array()));
+            }
+        }
+
+        ResultPage result = new ResultPage();
+        result.setPage(page);
+        result.setSize(size);
+        result.setTotalResults(total);
+        result.setResults(pageResults);
+        return result;
+    }
+
+    // Finishes writing; pages can still be read until the files are deleted
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            data.close();
+            index.close();
+        }
+    }
+
+    public void delete() throws IOException {
+        Files.deleteIfExists(dataPath);
+        Files.deleteIfExists(indexPath);
+    }
+
+    // Scans index entries [from, to), counting those that match and keeping the offsets and lengths of the wanted slice
+    private long readEntries(
+        FileChannel channel,
+        long from,
+        long to,
+        int statusCode,
+        Integer columnIndex,
+        long first,
+        int size,
+        List<long[]> entries
+    ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(indexBuffer.capacity());
+        long matched = 0;
+        long position = from * entrySize;
+        long end = to * entrySize;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Truncated result index " + indexPath);
+                }
+            }
+            position += buffer.limit();
+            for (int at = 0; at < buffer.limit(); at += entrySize) {
+                if (statusCode >= 0 && buffer.get(at + Long.BYTES + Integer.BYTES) != statusCode) {
+                    continue;
+                }
+                if (columnIndex != null && (buffer.get(at + HEADER_BYTES + columnIndex / 8) & 1 << (columnIndex % 8)) == 0) {
+                    continue;
+                }
+                if (matched >= first && matched < first + size) {
+                    entries.add(new long[] {buffer.getLong(at), buffer.getInt(at + Long.BYTES)});
+                }
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    private synchronized long flush() throws IOException {
+        if (flushedResults < results && data.isOpen()) {
+            flushData();
+            flushIndex();
+            flushedResults = results;
+        }
+        return flushedResults;
+    }
+
+    private void flushData() throws IOException {
+        dataBuffer.flip();
+        writeFully(data, dataBuffer);
+        dataBuffer.clear();
+    }
+
+    private void flushIndex() throws IOException {
+        indexBuffer.flip();
+        writeFully(index, indexBuffer);
+        indexBuffer.clear();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.dbcompare.service.results;
+
+import com.dbcompare.model.ComparisonResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Result logs live in the result directory as {@code <id>.results} and {@code <id>.index}. They are
+ * working files of the comparisons that are still kept, not exports, and are deleted along with them.
+ */
+@Service
+@RequiredArgsConstructor
+public class ResultStore {
+    private static final Pattern RESULT_ID = Pattern.compile("[A-Za-z0-9-]+");
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.comparison.result-directory:${java.io.tmpdir}}")
+    private String resultDirectory;
+
+    // Columns are the source columns of the comparison, which name the differences of every result
+    public ResultLog open(String resultId, List<String> columns) throws IOException {
+        if (!RESULT_ID.matcher(resultId).matches()) {
+            throw new IllegalArgumentException("Invalid result id: " + resultId);
+        }
+        Path directory = Paths.get(resultDirectory);
+        Files.createDirectories(directory);
+        return new ResultLog(
+            directory.resolve(resultId + ".results"),
+            directory.resolve(resultId + ".index"),
+            columns,
+            objectMapper.writer(),
+            objectMapper.readerFor(ComparisonResult.class)
+        );
+    }
+}
@@ -0,0 +1,64 @@
+package com.dbcompare.controller;
+
+import com.dbcompare.model.ComparisonResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NdjsonResultWriterTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void firstResultIsAWholeLineBeforeTheStreamEnds() throws Exception {
+        PipedInputStream in = new PipedInputStream(1 << 16);
+        NdjsonResultWriter writer = new NdjsonResultWriter(new PipedOutputStream(in), objectMapper);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+        writer.accept(result(1, "missing_target"));
+        String line = CompletableFuture.supplyAsync(() -> {
+            try {
+                return reader.readLine();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(5, TimeUnit.SECONDS);
+
+        assertThat(objectMapper.readTree(line).path("id").asLong()).isEqualTo(1);
+        writer.close();
+    }
+
+    @Test
+    void everyLineEndsWithANewline() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NdjsonResultWriter writer = new NdjsonResultWriter(out, objectMapper);
+        writer.accept(result(1, "mismatched"));
+        writer.accept(result(2, "missing_source"));
+        writer.error("Comparison timed out");
+        writer.close();
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n", -1);
+        assertThat(lines).hasSize(4);
+        assertThat(lines[3]).isEmpty();
+        assertThat(objectMapper.readTree(lines[1]).path("status").asText()).isEqualTo("missing_source");
+        assertThat(objectMapper.readValue(lines[2], Map.class)).isEqualTo(Map.of("error", "Comparison timed out"));
+    }
+
+    private static ComparisonResult result(long id, String status) {
+        ComparisonResult result = new ComparisonResult();
+        result.setId(id);
+        result.setStatus(status);
+        result.setKey(Map.of("id", Long.toString(id)));
+        return result;
+    }
+}
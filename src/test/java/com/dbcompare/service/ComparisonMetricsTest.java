@@ -0,0 +1,47 @@
+package com.dbcompare.service;
+
+import com.dbcompare.model.ColumnMapping;
+import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.service.engine.ComparisonContext;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ComparisonMetricsTest {
+
+    @Test
+    void tagsOnlyListedTablesByName() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ComparisonMetrics metrics = new ComparisonMetrics(registry);
+        ReflectionTestUtils.setField(metrics, "taggedTables", Set.of("orders"));
+
+        metrics.finished(context("orders"), "merge", "completed", 1_000);
+        metrics.finished(context("customers"), "merge", "completed", 1_000);
+        metrics.finished(context("invoices"), "merge", "completed", 1_000);
+
+        List<String> tags = registry.find("dbcompare.comparison").timers().stream()
+            .map(timer -> timer.getId().getTag("source_table"))
+            .sorted()
+            .toList();
+        assertThat(tags).containsExactly("orders", "other");
+        Timer other = registry.find("dbcompare.comparison").tag("source_table", "other").timer();
+        assertThat(other.count()).isEqualTo(2);
+    }
+
+    private static ComparisonContext context(String table) {
+        ColumnMapping mapping = new ColumnMapping();
+        mapping.setSourceColumn("id");
+        mapping.setTargetColumn("id");
+        ComparisonOptions options = new ComparisonOptions();
+        options.setSourceTable(table);
+        options.setTargetTable(table);
+        options.setColumnMappings(List.of(mapping));
+        return new ComparisonContext(options, result -> { });
+    }
+}
@@ -0,0 +1,82 @@
+package com.dbcompare.service;
+
+import com.dbcompare.model.DatabaseComparisonRequest;
+import com.dbcompare.model.DatabaseComparisonStatus;
+import com.dbcompare.model.TableComparisonSummary;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+class DatabaseComparisonServiceTest {
+
+    @Autowired
+    private DatabaseComparisonService databaseComparisonService;
+
+    @Test
+    void comparesEveryTableTheDatabasesShare() throws Exception {
+        DataSource source = database("src",
+            "CREATE TABLE orders (id BIGINT PRIMARY KEY, total DECIMAL(10, 2))",
+            "INSERT INTO orders SELECT X, X * 1.5 FROM SYSTEM_RANGE(1, 100)",
+            "CREATE TABLE customers (id BIGINT PRIMARY KEY, name VARCHAR(20))",
+            "INSERT INTO customers SELECT X, 'c' || X FROM SYSTEM_RANGE(1, 50)",
+            "CREATE TABLE only_source (id BIGINT PRIMARY KEY)",
+            "CREATE SCHEMA sales",
+            "CREATE TABLE sales.refunds (id BIGINT PRIMARY KEY, amount DECIMAL(10, 2))",
+            "INSERT INTO sales.refunds VALUES (1, 5), (2, 7)"
+        );
+        DataSource target = database("tgt",
+            "CREATE TABLE orders (id BIGINT PRIMARY KEY, total DECIMAL(10, 2))",
+            "INSERT INTO orders SELECT X, X * 1.5 FROM SYSTEM_RANGE(1, 100)",
+            "UPDATE orders SET total = 0 WHERE id = 3",
+            "CREATE TABLE customers (id BIGINT PRIMARY KEY, name VARCHAR(20))",
+            "INSERT INTO customers SELECT X, 'c' || X FROM SYSTEM_RANGE(1, 50)",
+            "CREATE SCHEMA sales",
+            "CREATE TABLE sales.refunds (id BIGINT PRIMARY KEY, amount DECIMAL(10, 2))",
+            "INSERT INTO sales.refunds VALUES (1, 5)"
+        );
+        DatabaseComparisonRequest request = new DatabaseComparisonRequest();
+        request.setSourceDatabase("src");
+        request.setTargetDatabase("tgt");
+
+        DatabaseComparisonStatus status = databaseComparisonService.submit(source, target, request);
+        for (int i = 0; i < 200 && status.getFinishedAt() == null; i++) {
+            Thread.sleep(50);
+            status = databaseComparisonService.getStatus(status.getComparisonId()).orElseThrow();
+        }
+
+        assertThat(status.getStatus()).isEqualTo("completed");
+        assertThat(status.getUnmatchedSourceTables()).containsExactly("ONLY_SOURCE");
+        Map<String, TableComparisonSummary> tables = status.getTables().stream()
+            .collect(Collectors.toMap(TableComparisonSummary::getSourceTable, table -> table));
+        // Tables of another schema are named with it, and those of the database's own schema without
+        assertThat(tables).containsOnlyKeys("ORDERS", "CUSTOMERS", "SALES.REFUNDS");
+        assertThat(tables.get("ORDERS").getStatus()).isEqualTo("completed");
+        assertThat(tables.get("ORDERS").getDifferences()).isEqualTo(1);
+        assertThat(tables.get("CUSTOMERS").getStatus()).isEqualTo("completed");
+        assertThat(tables.get("CUSTOMERS").getDifferences()).isZero();
+        assertThat(tables.get("SALES.REFUNDS").getStatus()).isEqualTo("completed");
+        assertThat(tables.get("SALES.REFUNDS").getDifferencesByStatus()).isEqualTo(Map.of("missing_target", 1L));
+    }
+
+    private static DataSource database(String name, String... statements) throws Exception {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:tables_" + name + ";DB_CLOSE_DELAY=-1");
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String statement : statements) {
+                stmt.execute(statement);
+            }
+        }
+        return dataSource;
+    }
+}
@@ -0,0 +1,52 @@
+package com.dbcompare.service.engine;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BloomFilterTest {
+
+    @Test
+    void holdsEveryValueAdded() {
+        BloomFilter filter = BloomFilter.create(10_000, 1.0e-6, 1 << 20);
+        for (long i = 0; i < 10_000; i++) {
+            filter.put(MinHashIndex.mix(i));
+        }
+        for (long i = 0; i < 10_000; i++) {
+            assertThat(filter.mightContain(MinHashIndex.mix(i))).isTrue();
+        }
+    }
+
+    @Test
+    void reachesTheRequestedRateForTheExpectedEntries() {
+        BloomFilter filter = BloomFilter.create(100_000, 1.0e-4, 1 << 20);
+        for (long i = 0; i < 100_000; i++) {
+            filter.put(MinHashIndex.mix(i));
+        }
+
+        int falsePositives = 0;
+        for (long i = 100_000; i < 1_100_000; i++) {
+            if (filter.mightContain(MinHashIndex.mix(i))) {
+                falsePositives++;
+            }
+        }
+        assertThat(filter.falsePositiveRate(100_000)).isLessThan(2.0e-4);
+        assertThat(falsePositives).isLessThan(300);
+    }
+
+    @Test
+    void reportsSaturationOfAnUndersizedFilter() {
+        BloomFilter filter = BloomFilter.create(0, 1.0e-9, 1 << 20);
+
+        assertThat(filter.sizeBytes()).isEqualTo(8);
+        assertThat(filter.falsePositiveRate(1000)).isGreaterThan(0.99);
+    }
+
+    @Test
+    void neverExceedsTheMemoryCap() {
+        BloomFilter filter = BloomFilter.create(100_000_000, 1.0e-9, 1024);
+
+        assertThat(filter.sizeBytes()).isEqualTo(1024);
+        assertThat(filter.falsePositiveRate(100_000_000)).isGreaterThan(0.5);
+    }
+}
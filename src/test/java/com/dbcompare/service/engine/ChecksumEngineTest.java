@@ -0,0 +1,93 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChecksumEngineTest {
+
+    @Test
+    void pairsKeysThatEachDatabaseWritesDifferently() throws Exception {
+        // The source writes 1.50 where the target writes 1.5000, so every key digests into a different bucket on each side
+        DataSource db = TestTables.database(
+            "CREATE TABLE s (id DECIMAL(10, 2) PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO s SELECT X + 0.5, 'v' || X FROM SYSTEM_RANGE(1, 200)",
+            "CREATE TABLE t (id DECIMAL(10, 4) PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO t SELECT * FROM s",
+            "UPDATE t SET v = 'changed' WHERE id = 7.5",
+            "DELETE FROM t WHERE id = 50.5",
+            "INSERT INTO t VALUES (999.25, 'extra')"
+        );
+        List<ComparisonResult> results = new ArrayList<>();
+
+        ComparisonContext context = TestTables.context(TestTables.options("s", "t", "id", "v"), results);
+        try (Connection conn = db.getConnection()) {
+            context.resolveValueTypes(conn, conn);
+        }
+
+        // One leaf row per batch, so the two buckets of a key are always resolved apart
+        engine(1).compare(db, db, context);
+
+        assertThat(TestTables.statuses(results)).isEqualTo(Map.of(
+            "7.50", "mismatched",
+            "50.50", "missing_target",
+            "999.2500", "missing_source"
+        ));
+    }
+
+    @Test
+    void resolvesManyDifferingDigestBucketsInOneLastScan() throws Exception {
+        DataSource db = TestTables.database(
+            "CREATE TABLE s (id VARCHAR(20) PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO s SELECT 'k' || X, 'v' || X FROM SYSTEM_RANGE(1, 3000)",
+            "CREATE TABLE t (id VARCHAR(20) PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO t SELECT * FROM s",
+            "UPDATE t SET v = 'changed' WHERE MOD(CAST(SUBSTRING(id, 2) AS INT), 30) = 0"
+        );
+        List<ComparisonResult> results = new ArrayList<>();
+
+        // One leaf row per batch would take a scan per differing key without the cap
+        engine(1).compare(db, db, TestTables.context(TestTables.options("s", "t", "id", "v"), results));
+
+        assertThat(results).hasSize(100);
+        assertThat(TestTables.statuses(results)).containsEntry("k30", "mismatched").containsEntry("k3000", "mismatched");
+    }
+
+    @Test
+    void bucketsIntegerKeysByRange() throws Exception {
+        DataSource db = TestTables.database(
+            "CREATE TABLE s (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO s SELECT X, 'v' || X FROM SYSTEM_RANGE(1, 5000)",
+            "CREATE TABLE t (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO t SELECT * FROM s",
+            "UPDATE t SET v = 'changed' WHERE id = 4321",
+            "DELETE FROM t WHERE id = 17",
+            "INSERT INTO t VALUES (7000, 'extra'), (-3, 'extra')"
+        );
+        List<ComparisonResult> results = new ArrayList<>();
+
+        engine(10).compare(db, db, TestTables.context(TestTables.options("s", "t", "id", "v"), results));
+
+        assertThat(TestTables.statuses(results)).isEqualTo(Map.of(
+            "4321", "mismatched",
+            "17", "missing_target",
+            "7000", "missing_source",
+            "-3", "missing_source"
+        ));
+    }
+
+    private static ChecksumEngine engine(int leafRows) {
+        ChecksumEngine engine = new ChecksumEngine();
+        ReflectionTestUtils.setField(engine, "bucketCount", 16);
+        ReflectionTestUtils.setField(engine, "leafRows", leafRows);
+        return engine;
+    }
+}
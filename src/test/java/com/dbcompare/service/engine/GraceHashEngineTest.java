@@ -0,0 +1,69 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.model.ComparisonResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GraceHashEngineTest {
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void joinsInMemoryWithinTheBudget() throws Exception {
+        assertThat(compare(256)).isEqualTo(expected());
+    }
+
+    @Test
+    void repartitionsUntilTheDepthLimitWhenNothingFits() throws Exception {
+        // A zero budget splits every partition again with a new seed, down to the deepest level
+        assertThat(compare(0)).isEqualTo(expected());
+        assertThat(spillDirectory).isEmptyDirectory();
+    }
+
+    private Map<String, String> compare(int budgetMb) throws Exception {
+        DataSource db = TestTables.database(
+            "CREATE TABLE s (code VARCHAR(20), v VARCHAR(20), n BIGINT)",
+            "INSERT INTO s SELECT 'k' || X, 'v' || X, X FROM SYSTEM_RANGE(1, 2000)",
+            "CREATE TABLE t AS SELECT * FROM s",
+            "UPDATE t SET v = 'changed' WHERE code = 'k7'",
+            "UPDATE t SET n = NULL WHERE code = 'k1234'",
+            "DELETE FROM t WHERE code = 'k500'",
+            "INSERT INTO t VALUES ('k9999', 'extra', 1), (NULL, 'null key', 2)"
+        );
+        GraceHashEngine engine = new GraceHashEngine();
+        ReflectionTestUtils.setField(engine, "partitionCount", 4);
+        ReflectionTestUtils.setField(engine, "spillDirectory", spillDirectory.toString());
+
+        ComparisonOptions options = TestTables.options("s", "t", "code", "v", "n");
+        options.setMemoryBudgetMb(budgetMb);
+        List<ComparisonResult> results = new ArrayList<>();
+        ComparisonContext context = TestTables.context(options, results);
+
+        engine.compare(db, db, context);
+
+        assertThat(context.getSourceRowsRead()).isEqualTo(2000);
+        assertThat(context.getTargetRowsRead()).isEqualTo(2001);
+        return TestTables.statuses(results);
+    }
+
+    private static Map<String, String> expected() {
+        return Map.of(
+            "k7", "mismatched",
+            "k1234", "mismatched",
+            "k500", "missing_target",
+            "k9999", "missing_source",
+            "null", "missing_source"
+        );
+    }
+}
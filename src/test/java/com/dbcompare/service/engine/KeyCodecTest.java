@@ -0,0 +1,136 @@
+package com.dbcompare.service.engine;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeyCodecTest {
+
+    private static final KeyCodec COMPOSITE = new KeyCodec(new KeyType[]{KeyType.LONG, KeyType.DECIMAL, KeyType.STRING});
+
+    @Test
+    void ordersKeysLikeMergeQueries() {
+        // NULLs first, then numbers by value and text by code point, column by column
+        List<Object[]> ordered = List.of(
+            new Object[]{null, null, null},
+            new Object[]{null, new BigDecimal("-1"), "a"},
+            new Object[]{Long.MIN_VALUE, null, "a"},
+            new Object[]{-1L, new BigDecimal("-100.5"), "a"},
+            new Object[]{-1L, new BigDecimal("-2"), "a"},
+            new Object[]{-1L, new BigDecimal("-0.01"), "a"},
+            new Object[]{-1L, BigDecimal.ZERO, "a"},
+            new Object[]{-1L, new BigDecimal("0.0001"), "a"},
+            new Object[]{-1L, new BigDecimal("9.99"), "a"},
+            new Object[]{-1L, new BigDecimal("10"), null},
+            new Object[]{-1L, new BigDecimal("10"), ""},
+            new Object[]{-1L, new BigDecimal("10"), "a"},
+            new Object[]{-1L, new BigDecimal("10"), "a\u0000"},
+            new Object[]{-1L, new BigDecimal("10"), "a\u0000b"},
+            new Object[]{-1L, new BigDecimal("10"), "ab"},
+            new Object[]{-1L, new BigDecimal("10"), "b"},
+            new Object[]{-1L, new BigDecimal("10"), "é"},
+            new Object[]{-1L, new BigDecimal("10"), "😀"},
+            new Object[]{0L, null, null},
+            new Object[]{Long.MAX_VALUE, null, null}
+        );
+        List<RowKey> expected = ordered.stream().map(COMPOSITE::encode).toList();
+
+        List<RowKey> shuffled = new ArrayList<>(expected);
+        Collections.shuffle(shuffled, new Random(7));
+        Collections.sort(shuffled);
+
+        assertThat(shuffled).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void ordersSingleIntegerKeysHeldAsLongsWithEncodedOnes() {
+        KeyCodec codec = new KeyCodec(new KeyType[]{KeyType.LONG});
+        List<RowKey> keys = new ArrayList<>(List.of(
+            codec.encode(new Object[]{5L}), RowKey.NULL, codec.encode(new Object[]{-5L}), RowKey.of(KeyCodec.encodeLong(0))));
+        Collections.sort(keys);
+
+        assertThat(keys).extracting(RowKey::toString)
+            .containsExactly(RowKey.NULL.toString(), "-5", KeyCodec.describe(KeyCodec.encodeLong(0)), "5");
+    }
+
+    @Test
+    void encodesEqualDecimalsOfAnyScaleEqually() {
+        KeyCodec codec = new KeyCodec(new KeyType[]{KeyType.DECIMAL});
+
+        assertThat(codec.encode(new Object[]{new BigDecimal("1.50")})).isEqualTo(codec.encode(new Object[]{new BigDecimal("1.5000")}));
+        assertThat(codec.encode(new Object[]{new BigDecimal("100")})).isEqualTo(codec.encode(new Object[]{new BigDecimal("1E+2")}));
+        assertThat(codec.encode(new Object[]{new BigDecimal("0.00")})).isEqualTo(codec.encode(new Object[]{BigDecimal.ZERO}));
+        assertThat(codec.encode(new Object[]{new BigDecimal("1.5")})).isNotEqualTo(codec.encode(new Object[]{new BigDecimal("-1.5")}));
+    }
+
+    @Test
+    void decodesWhatItEncodes() {
+        Object[] values = {-42L, new BigDecimal("-123.0450"), "a\u0000bé"};
+        Object[] decoded = COMPOSITE.decode(COMPOSITE.encode(values));
+
+        assertThat(decoded[0]).isEqualTo(-42L);
+        assertThat((BigDecimal) decoded[1]).isEqualByComparingTo("-123.045");
+        assertThat(decoded[2]).isEqualTo("a\u0000bé");
+        assertThat(COMPOSITE.decode(COMPOSITE.encode(new Object[3]))).containsExactly(null, null, null);
+        assertThat(COMPOSITE.parse(Arrays.asList("7", "1.50", null))).containsExactly(7L, new BigDecimal("1.50"), null);
+    }
+
+    @Test
+    void readsTheKeysEncodeBuilds() throws Exception {
+        DataSource db = TestTables.database(
+            "CREATE TABLE k (a BIGINT, b DECIMAL(10, 3), c VARCHAR(10))",
+            "INSERT INTO k VALUES (3, 1.5, 'x'), (NULL, NULL, NULL)"
+        );
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT a, b, c FROM k ORDER BY a NULLS FIRST")) {
+            rs.next();
+            assertThat(COMPOSITE.read(rs, 1)).isEqualTo(COMPOSITE.encode(new Object[3]));
+            rs.next();
+            assertThat(COMPOSITE.read(rs, 1)).isEqualTo(COMPOSITE.encode(new Object[]{3L, new BigDecimal("1.5"), "x"}));
+            assertThat(COMPOSITE.values(rs, 1)).containsExactly(3L, new BigDecimal("1.500"), "x");
+        }
+    }
+
+    @Test
+    void meetsMixedNumberAndTextKeysAsText() throws Exception {
+        // Unordered engines compare a number with text by its digits; merging would need one order for both
+        assertThat(KeyType.common(KeyType.LONG, KeyType.STRING, false)).isEqualTo(KeyType.STRING);
+        assertThat(KeyType.common(KeyType.LONG, KeyType.DECIMAL, true)).isEqualTo(KeyType.DECIMAL);
+        assertThatThrownBy(() -> KeyType.common(KeyType.DECIMAL, KeyType.STRING, true))
+            .isInstanceOf(IllegalArgumentException.class);
+
+        DataSource db = TestTables.database(
+            "CREATE TABLE n (id BIGINT, amount DECIMAL(10, 2))",
+            "INSERT INTO n VALUES (42, 42.00)",
+            "CREATE TABLE s (id VARCHAR(10))",
+            "INSERT INTO s VALUES ('42')"
+        );
+        KeyCodec text = new KeyCodec(new KeyType[]{KeyType.STRING});
+        KeyCodec decimal = new KeyCodec(new KeyType[]{KeyType.DECIMAL});
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement()) {
+            try (ResultSet number = stmt.executeQuery("SELECT id, amount FROM n")) {
+                number.next();
+                assertThat(decimal.read(number, 1)).isEqualTo(decimal.read(number, 2));
+                assertThat(text.read(number, 1)).isEqualTo(text.encode(new Object[]{"42"}));
+            }
+            try (ResultSet string = stmt.executeQuery("SELECT id FROM s")) {
+                string.next();
+                assertThat(text.read(string, 1)).isEqualTo(text.encode(new Object[]{"42"}));
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonResult;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyPrepassEngineTest {
+
+    @Test
+    void findsEveryDifferenceWhenEstimatesAreZero() throws Exception {
+        DataSource db = database(1000);
+        List<ComparisonResult> results = new ArrayList<>();
+        ComparisonContext context = TestTables.context(TestTables.options("s", "t", "id", "v"), results);
+        // A never analyzed table has an estimate of 0, which used to size the filters to 64 bits
+        context.estimateRows(0, 0);
+
+        assertThat(engine(256).compare(db, db, context)).isTrue();
+
+        assertThat(TestTables.statuses(results)).isEqualTo(Map.of(
+            "7", "mismatched",
+            "500", "missing_target",
+            "2000", "missing_source"
+        ));
+    }
+
+    @Test
+    void declinesWhenTheBudgetCannotHoldPreciseFilters() throws Exception {
+        DataSource db = database(100_000);
+        List<ComparisonResult> results = new ArrayList<>();
+        KeyPrepassEngine engine = engine(0);
+
+        assertThat(engine.compare(db, db, TestTables.context(TestTables.options("s", "t", "id", "v"), results))).isFalse();
+        assertThat(results).isEmpty();
+    }
+
+    private static KeyPrepassEngine engine(long budgetMb) {
+        KeyPrepassEngine engine = new KeyPrepassEngine();
+        ReflectionTestUtils.setField(engine, "defaultMemoryBudgetMb", budgetMb);
+        ReflectionTestUtils.setField(engine, "falsePositiveRate", 1.0e-9);
+        return engine;
+    }
+
+    // Source and target hold the same rows but for one changed value, one row only in the source and one only in the target
+    private static DataSource database(int rows) throws Exception {
+        return TestTables.database(
+            "CREATE TABLE s (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO s SELECT X, 'v' || X FROM SYSTEM_RANGE(1, " + rows + ")",
+            "CREATE TABLE t (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO t SELECT * FROM s",
+            "UPDATE t SET v = 'changed' WHERE id = 7",
+            "DELETE FROM t WHERE id = 500",
+            "INSERT INTO t VALUES (" + (rows + 1000) + ", 'extra')"
+        );
+    }
+}
@@ -0,0 +1,35 @@
+package com.dbcompare.service.engine;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KeyedCursorTest {
+
+    @Test
+    void closeWaitsForTheReader() throws Exception {
+        DataSource db = TestTables.database(
+            "CREATE TABLE s (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO s SELECT X, 'v' || X FROM SYSTEM_RANGE(1, 100000)"
+        );
+        ComparisonContext context = TestTables.context(TestTables.options("s", "s", "id", "v"), new ArrayList<>());
+        KeyCodec codec = new KeyCodec(new KeyType[]{KeyType.LONG});
+
+        try (Connection conn = db.getConnection();
+             PreparedStatement stmt = conn.prepareStatement("SELECT id, v FROM s ORDER BY id")) {
+            KeyedCursor cursor = new KeyedCursor(stmt, codec, 2, null, "cursor-close-reader", context);
+            assertThat(cursor.next()).isTrue();
+
+            // The reader is blocked on a full queue of batches, and would otherwise keep the connection busy after close
+            cursor.close();
+
+            assertThat(Thread.getAllStackTraces().keySet()).noneMatch(thread -> thread.getName().equals("cursor-close-reader"));
+            assertThat(conn.isClosed()).isFalse();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonResult;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MergeJoinEngineTest {
+
+    @Test
+    void concurrentComparisonsShareASmallPool() throws Exception {
+        DataSource db = TestTables.database(
+            "CREATE TABLE s (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "CREATE TABLE t (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO s SELECT X, 'v' || X FROM SYSTEM_RANGE(1, 1000)",
+            "INSERT INTO t SELECT X, 'v' || X FROM SYSTEM_RANGE(2, 1000)",
+            "UPDATE t SET v = 'changed' WHERE id = 7"
+        );
+        MergeJoinEngine engine = new MergeJoinEngine();
+        ReflectionTestUtils.setField(engine, "defaultParallelism", 4);
+        ReflectionTestUtils.setField(engine, "chunkSize", 100L);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        // Taking the source and target connections one at a time, comparisons each held one and waited on the pool for the other
+        try (HikariDataSource pool = new HikariDataSource()) {
+            pool.setDataSource(db);
+            pool.setMaximumPoolSize(2);
+            pool.setConnectionTimeout(2000);
+            List<Future<List<ComparisonResult>>> comparisons = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                comparisons.add(executor.submit(() -> {
+                    List<ComparisonResult> results = new ArrayList<>();
+                    engine.compare(pool, pool, TestTables.context(TestTables.options("s", "t", "id", "v"), results));
+                    return results;
+                }));
+            }
+
+            for (Future<List<ComparisonResult>> comparison : comparisons) {
+                assertThat(TestTables.statuses(comparison.get())).isEqualTo(Map.of("1", "missing_target", "7", "mismatched"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
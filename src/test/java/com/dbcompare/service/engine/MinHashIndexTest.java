@@ -0,0 +1,66 @@
+package com.dbcompare.service.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MinHashIndexTest {
+
+    @Test
+    void tunesBandsToTheThreshold() {
+        MinHashIndex loose = new MinHashIndex(0.3);
+        MinHashIndex strict = new MinHashIndex(0.9);
+
+        assertThat(loose.bands() * loose.rowsPerBand()).isLessThanOrEqualTo(128);
+        assertThat(strict.bands() * strict.rowsPerBand()).isLessThanOrEqualTo(128);
+        // Longer bands only collide for more similar sets
+        assertThat(strict.rowsPerBand()).isGreaterThan(loose.rowsPerBand());
+        assertThat(strict.bands()).isLessThan(loose.bands());
+    }
+
+    @Test
+    void findsSimilarSetsAndSkipsDissimilarOnes() {
+        MinHashIndex index = new MinHashIndex(0.8);
+        index.add(0, index.bandKeys(shingles(0, 100), 1));
+        index.add(1, index.bandKeys(shingles(1000, 1100), 1));
+        index.add(2, index.bandKeys(shingles(2, 102), 1));
+
+        // Jaccard similarity 100 / 102 with set 0 and 98 / 104 with set 2; none with set 1
+        int[] candidates = index.candidates(index.bandKeys(shingles(0, 100, 5000, 5001), 1), 10, new BitSet());
+
+        assertThat(candidates).containsExactly(0, 2);
+    }
+
+    @Test
+    void keepsBlocksApart() {
+        MinHashIndex index = new MinHashIndex(0.8);
+        index.add(0, index.bandKeys(shingles(0, 100), 1));
+
+        assertThat(index.candidates(index.bandKeys(shingles(0, 100), 2), 10, new BitSet())).isEmpty();
+        assertThat(index.candidates(index.bandKeys(shingles(0, 100), 1), 10, new BitSet())).containsExactly(0);
+    }
+
+    @Test
+    void ranksByCollisionsAndHonoursLimitAndExclusions() {
+        MinHashIndex index = new MinHashIndex(0.5);
+        long[] probe = index.bandKeys(shingles(0, 100), 1);
+        index.add(0, index.bandKeys(shingles(40, 140), 1));
+        index.add(1, probe);
+        index.add(2, index.bandKeys(shingles(10, 110), 1));
+
+        // Identical sets collide in every band, so they rank first
+        assertThat(index.candidates(probe, 3, new BitSet())).containsExactly(1, 2, 0);
+        assertThat(index.candidates(probe, 1, new BitSet())).containsExactly(1);
+
+        BitSet excluded = new BitSet();
+        excluded.set(1);
+        assertThat(index.candidates(probe, 3, excluded)).containsExactly(2, 0);
+    }
+
+    private static long[] shingles(long from, long to, long... extra) {
+        return LongStream.concat(LongStream.range(from, to), LongStream.of(extra)).map(MinHashIndex::mix).toArray();
+    }
+}
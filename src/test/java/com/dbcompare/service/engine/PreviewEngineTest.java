@@ -0,0 +1,60 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.model.ComparisonPreview;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PreviewEngineTest {
+
+    @Test
+    void readsSmallTablesWhole() throws Exception {
+        DataSource db = database(30);
+        ComparisonContext context = context(10);
+        context.estimateRows(-1, -1);
+
+        ComparisonPreview preview = new PreviewEngine().preview(db, db, context);
+
+        assertThat(preview.getSamplingMethod()).isEqualTo("full");
+        assertThat(preview.getSourceRowsSampled()).isEqualTo(30);
+        assertThat(preview.getMismatched().getObserved()).isEqualTo(1);
+    }
+
+    @Test
+    void countsAndSamplesTablesLargerThanEstimated() throws Exception {
+        DataSource db = database(1000);
+        ComparisonContext context = context(10);
+        // Without an estimate the tables look small enough to read whole, which stops at the cap
+        context.estimateRows(0, 0);
+
+        ComparisonPreview preview = new PreviewEngine().preview(db, db, context);
+
+        assertThat(preview.getSamplingMethod()).isEqualTo("key_hash");
+        assertThat(preview.getEstimatedSourceRows()).isEqualTo(1000);
+        assertThat(preview.getEstimatedTargetRows()).isEqualTo(1000);
+        assertThat(preview.getSourceSampleFraction()).isEqualTo(0.01);
+        assertThat(preview.getSourceRowsSampled()).isLessThan(40);
+        assertThat(preview.getMissingTarget().getObserved()).isZero();
+    }
+
+    private static ComparisonContext context(int sampleRows) {
+        ComparisonOptions options = TestTables.options("s", "t", "id", "v");
+        options.setSampleRows(sampleRows);
+        return TestTables.context(options, new ArrayList<>());
+    }
+
+    // Source and target hold the same rows but for one changed value
+    private static DataSource database(int rows) throws Exception {
+        return TestTables.database(
+            "CREATE TABLE s (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "CREATE TABLE t (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO s SELECT X, 'v' || X FROM SYSTEM_RANGE(1, " + rows + ")",
+            "INSERT INTO t SELECT * FROM s",
+            "UPDATE t SET v = 'changed' WHERE id = 7"
+        );
+    }
+}
@@ -0,0 +1,52 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.model.ComparisonResult;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PushdownEngineTest {
+
+    @Test
+    void joinsTextKeysByBinaryOrder() {
+        ComparisonOptions options = TestTables.options("s", "t", "code", "n", "v");
+        options.setKeyColumns(List.of("code", "n"));
+        ComparisonContext context = TestTables.context(options, new ArrayList<>());
+        KeyType[] keys = {KeyType.STRING, KeyType.LONG};
+
+        assertThat(PushdownEngine.buildDiffQuery(SqlDialect.POSTGRESQL, "s", "t", keys, keys, context))
+            .contains("ON s.code COLLATE \"C\" = t.code COLLATE \"C\" AND s.n = t.n ");
+        assertThat(PushdownEngine.buildDiffQuery(SqlDialect.MYSQL, "s", "t", keys, keys, context))
+            .contains("ON CAST(s.code AS BINARY) = CAST(t.code AS BINARY) AND s.n = t.n ");
+        assertThat(PushdownEngine.buildDiffQuery(SqlDialect.SQLSERVER, "s", "t", keys, keys, context))
+            .contains("ON s.code COLLATE Latin1_General_BIN2 = t.code COLLATE Latin1_General_BIN2 AND s.n = t.n ");
+    }
+
+    @Test
+    void reportsKeysDifferingInCaseAsMissing() throws Exception {
+        DataSource db = TestTables.database(
+            "CREATE TABLE s (code VARCHAR(20) PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO s VALUES ('a', 'x'), ('b', 'x'), ('c', 'x')",
+            "CREATE TABLE t (code VARCHAR(20) PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO t VALUES ('a', 'x'), ('B', 'x'), ('c', 'y')"
+        );
+        PushdownEngine engine = new PushdownEngine();
+        List<ComparisonResult> results = new ArrayList<>();
+        ComparisonContext context = TestTables.context(TestTables.options("s", "t", "code", "v"), results);
+
+        assertThat(engine.supports(db, db, context)).isTrue();
+        engine.compare(db, db, context);
+
+        assertThat(TestTables.statuses(results)).isEqualTo(Map.of(
+            "b", "missing_target",
+            "B", "missing_source",
+            "c", "mismatched"
+        ));
+    }
+}
@@ -0,0 +1,53 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ComparisonResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SnapshotEngineTest {
+
+    @TempDir
+    Path snapshots;
+
+    @Test
+    void keepsSnapshotsOfSameNamedTablesInOtherDatabasesApart() throws Exception {
+        SnapshotEngine engine = new SnapshotEngine();
+        ReflectionTestUtils.setField(engine, "snapshotDirectory", snapshots.toString());
+        DataSource first = database("'a'");
+        DataSource second = database("'b'");
+
+        assertThat(compare(engine, first)).isEqualTo(Map.of("2", "mismatched"));
+        assertThat(compare(engine, second)).isEqualTo(Map.of("2", "mismatched"));
+        assertThat(compare(engine, first)).isEqualTo(Map.of("2", "mismatched"));
+
+        try (Stream<Path> files = Files.list(snapshots)) {
+            assertThat(files.filter(file -> file.toString().endsWith(".dbcs"))).hasSize(2);
+        }
+    }
+
+    private static Map<String, String> compare(SnapshotEngine engine, DataSource db) throws Exception {
+        List<ComparisonResult> results = new ArrayList<>();
+        engine.compare(db, db, TestTables.context(TestTables.options("s", "t", "id", "v"), results));
+        return TestTables.statuses(results);
+    }
+
+    private static DataSource database(String changed) throws Exception {
+        return TestTables.database(
+            "CREATE TABLE s (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO s VALUES (1, 'x'), (2, 'x'), (3, 'x')",
+            "CREATE TABLE t (id BIGINT PRIMARY KEY, v VARCHAR(20))",
+            "INSERT INTO t VALUES (1, 'x'), (2, " + changed + "), (3, 'x')"
+        );
+    }
+}
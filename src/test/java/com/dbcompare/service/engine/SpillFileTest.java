@@ -0,0 +1,142 @@
+package com.dbcompare.service.engine;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SpillFileTest {
+
+    private static final KeyType[] COLUMNS = {KeyType.LONG, KeyType.STRING, KeyType.LONG};
+    private static final KeyCodec KEY = new KeyCodec(new KeyType[]{KeyType.LONG});
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackWhatWasWritten() throws Exception {
+        List<String[]> expected = new ArrayList<>();
+        try (SpillFile file = spill("rows", expected)) {
+            assertThat(file.rows()).isEqualTo(expected.size());
+
+            try (SpillFile.Reader reader = file.reader()) {
+                for (String[] row : expected) {
+                    assertThat(reader.next()).isTrue();
+                    assertThat(reader.key()).isEqualTo(RowKey.of(Long.parseLong(row[0])));
+                    assertThat(reader.keyHash()).isEqualTo(reader.key().hashCode());
+                    assertThat(reader.row()).containsExactly(row);
+                }
+                assertThat(reader.next()).isFalse();
+            }
+        }
+    }
+
+    @Test
+    void copiesRecordsAsTheyAre() throws Exception {
+        List<String[]> expected = new ArrayList<>();
+        try (SpillFile file = spill("rows", expected);
+             SpillFile copy = new SpillFile(directory.resolve("copy"), COLUMNS)) {
+            try (SpillFile.Reader reader = file.reader()) {
+                while (reader.next()) {
+                    reader.copyTo(copy);
+                }
+            }
+
+            List<String[]> copied = new ArrayList<>();
+            try (SpillFile.Reader reader = copy.reader()) {
+                while (reader.next()) {
+                    copied.add(reader.row());
+                }
+            }
+            assertThat(copied).containsExactlyElementsOf(expected);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void storesAndMatchesRowsByKey(boolean offHeap) throws Exception {
+        List<String[]> expected = new ArrayList<>();
+        try (SpillFile file = spill("rows", expected)) {
+            RowStore store = new RowStore(COLUMNS, offHeap);
+            try (SpillFile.Reader reader = file.reader()) {
+                while (reader.next()) {
+                    store.add(reader);
+                }
+            }
+            assertThat(store.size()).isEqualTo(expected.size());
+
+            try (SpillFile.Reader reader = file.reader()) {
+                for (String[] row : expected) {
+                    reader.next();
+                    int stored = store.match(reader);
+                    assertThat(stored).isNotNegative();
+                    assertThat(store.sameValues(stored, reader)).isTrue();
+                    assertThat(store.row(stored)).containsExactly(row);
+                    // A matched row is claimed, so the same key finds nothing more
+                    assertThat(store.match(reader)).isEqualTo(-1);
+                }
+            }
+            assertThat(store.nextUnmatched(0)).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void tellsChangedAndMissingRowsApart() throws Exception {
+        try (SpillFile build = spill("build", new ArrayList<>());
+             SpillFile probe = spill("probe", new ArrayList<>(), "UPDATE r SET v = 'changed' WHERE id = 3",
+                 "UPDATE r SET n = NULL WHERE id = 4", "DELETE FROM r WHERE id = 5")) {
+            RowStore store = new RowStore(COLUMNS, false);
+            try (SpillFile.Reader reader = build.reader()) {
+                while (reader.next()) {
+                    store.add(reader);
+                }
+            }
+
+            List<Long> changed = new ArrayList<>();
+            try (SpillFile.Reader reader = probe.reader()) {
+                while (reader.next()) {
+                    if (!store.sameValues(store.match(reader), reader)) {
+                        changed.add(reader.key().longValue());
+                    }
+                }
+            }
+            assertThat(changed).containsExactly(3L, 4L);
+
+            int unmatched = store.nextUnmatched(0);
+            assertThat(store.row(unmatched)[0]).isEqualTo("5");
+            assertThat(store.nextUnmatched(unmatched + 1)).isEqualTo(-1);
+        }
+    }
+
+    // Rows with NULLs, multi-byte text and a value larger than the write buffer, keyed on the first column
+    private SpillFile spill(String name, List<String[]> rows, String... changes) throws Exception {
+        DataSource db = TestTables.database(
+            "CREATE TABLE r (id BIGINT, v VARCHAR(200000), n BIGINT)",
+            "INSERT INTO r SELECT X, CASE WHEN MOD(X, 7) = 0 THEN NULL ELSE 'vé' || X END, "
+                + "CASE WHEN MOD(X, 5) = 0 THEN NULL ELSE X * 10 END FROM SYSTEM_RANGE(1, 3000)",
+            "UPDATE r SET v = REPEAT('x', 100000) WHERE id = 2000"
+        );
+        TestTables.execute(db, changes);
+
+        SpillFile file = new SpillFile(directory.resolve(name), COLUMNS);
+        try (Connection conn = db.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT id, v, n FROM r ORDER BY id")) {
+            while (rs.next()) {
+                file.write(KEY.read(rs, 1), rs);
+                rows.add(new String[]{rs.getString(1), rs.getString(2), rs.getString(3)});
+            }
+        }
+        return file;
+    }
+}
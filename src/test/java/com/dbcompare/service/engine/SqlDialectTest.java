@@ -0,0 +1,106 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ColumnInfo;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlDialectTest {
+    private Connection conn;
+
+    @BeforeEach
+    void openDatabase() throws SQLException {
+        conn = DriverManager.getConnection("jdbc:h2:mem:dialect");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE t (id BIGINT PRIMARY KEY, ts TIMESTAMP(3), f DOUBLE PRECISION, n NVARCHAR(20))");
+            stmt.execute("INSERT INTO t VALUES (1, '2024-03-01 10:15:30.000', 1.234567, 'a')");
+            stmt.execute("INSERT INTO t VALUES (2, '2024-03-01 10:15:31.000', 1.234567, 'a')");
+            stmt.execute("INSERT INTO t VALUES (3, '2024-03-01 10:15:30.000', 1.234568, 'a')");
+            stmt.execute("INSERT INTO t VALUES (4, '2024-03-01 10:15:30.000', 1.234567, 'a')");
+        }
+    }
+
+    @AfterEach
+    void closeDatabase() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP ALL OBJECTS");
+        }
+        conn.close();
+    }
+
+    @Test
+    void detectsH2() throws SQLException {
+        assertThat(SqlDialect.of(conn)).isEqualTo(SqlDialect.H2);
+    }
+
+    @Test
+    void rowHashTellsApartSecondsAndSeventhDigit() throws SQLException {
+        List<String> columns = List.of("ts", "f", "n");
+        Map<String, ColumnInfo> types = ValueType.describe(conn, "t", columns, Map.of());
+        long[] hashes = new long[4];
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT " + SqlDialect.H2.rowHash(columns, types) + " FROM t ORDER BY id")) {
+            for (int i = 0; rs.next(); i++) {
+                hashes[i] = rs.getLong(1);
+            }
+        }
+
+        assertThat(hashes[0]).isNotEqualTo(hashes[1]).isNotEqualTo(hashes[2]).isEqualTo(hashes[3]);
+        assertThat(hashes[0]).isBetween(0L, (1L << 56) - 1);
+    }
+
+    @Test
+    void checksumsDifferWhenOneValueDiffers() throws SQLException {
+        String rowHash = SqlDialect.H2.rowHash(List.of("ts", "f"), ValueType.describe(conn, "t", List.of("ts", "f"), Map.of()));
+        String checksum = "SELECT " + SqlDialect.H2.sumOfHashes(rowHash) + " FROM t WHERE id IN ";
+        try (Statement stmt = conn.createStatement()) {
+            assertThat(single(stmt, checksum + "(1, 2)")).isNotEqualTo(single(stmt, checksum + "(1, 4)"));
+            assertThat(single(stmt, checksum + "(1, 3)")).isNotEqualTo(single(stmt, checksum + "(1, 4)"));
+        }
+    }
+
+    @Test
+    void sqlServerConvertsEachTypeWithAnExactStyle() {
+        assertThat(SqlDialect.SQLSERVER.text("c", type("datetime", Types.TIMESTAMP))).isEqualTo("CONVERT(NVARCHAR(MAX), c, 121)");
+        assertThat(SqlDialect.SQLSERVER.text("c", type("datetime2", Types.TIMESTAMP))).isEqualTo("CONVERT(NVARCHAR(MAX), c, 121)");
+        assertThat(SqlDialect.SQLSERVER.text("c", type("float", Types.DOUBLE))).isEqualTo("CONVERT(NVARCHAR(MAX), c, 3)");
+        assertThat(SqlDialect.SQLSERVER.text("c", type("real", Types.REAL))).isEqualTo("CONVERT(NVARCHAR(MAX), c, 3)");
+        assertThat(SqlDialect.SQLSERVER.text("c", type("money", Types.DECIMAL))).isEqualTo("CONVERT(NVARCHAR(MAX), c, 2)");
+        assertThat(SqlDialect.SQLSERVER.text("c", type("nvarchar", Types.NVARCHAR))).isEqualTo("CAST(c AS NVARCHAR(MAX))");
+        assertThat(SqlDialect.SQLSERVER.text("c", null)).isEqualTo("CAST(c AS NVARCHAR(MAX))");
+    }
+
+    @Test
+    void sqlServerHashesNeverNarrowToVarchar() {
+        Map<String, ColumnInfo> types = Map.of("a", type("datetime", Types.TIMESTAMP), "b", type("float", Types.DOUBLE));
+        String hash = SqlDialect.SQLSERVER.rowHash(List.of("a", "b"), types);
+
+        assertThat(hash).doesNotContainPattern("[^N]VARCHAR");
+        assertThat(hash).contains("CONVERT(NVARCHAR(MAX), a, 121)").contains("CONVERT(NVARCHAR(MAX), b, 3)");
+    }
+
+    private static long single(Statement stmt, String query) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(query)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static ColumnInfo type(String name, int sqlType) {
+        ColumnInfo column = new ColumnInfo();
+        column.setTypeName(name);
+        column.setSqlType(sqlType);
+        return column;
+    }
+}
@@ -0,0 +1,78 @@
+package com.dbcompare.service.engine;
+
+import com.dbcompare.model.ColumnMapping;
+import com.dbcompare.model.ComparisonOptions;
+import com.dbcompare.model.ComparisonResult;
+import org.h2.jdbcx.JdbcDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory H2 databases for engine tests, each with a name of its own so tests do not share
+ * tables, and the options and context that compare two tables column by column.
+ */
+final class TestTables {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private TestTables() {
+    }
+
+    static DataSource database(String... statements) throws SQLException {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:test" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+        execute(dataSource, statements);
+        return dataSource;
+    }
+
+    static void execute(DataSource dataSource, String... statements) throws SQLException {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String statement : statements) {
+                stmt.execute(statement);
+            }
+        }
+    }
+
+    // Options comparing the given columns of both tables under the same names, keyed on the first
+    static ComparisonOptions options(String sourceTable, String targetTable, String... columns) {
+        List<ColumnMapping> mappings = new ArrayList<>();
+        for (String column : columns) {
+            ColumnMapping mapping = new ColumnMapping();
+            mapping.setSourceColumn(column);
+            mapping.setTargetColumn(column);
+            mappings.add(mapping);
+        }
+
+        ComparisonOptions options = new ComparisonOptions();
+        options.setSourceTable(sourceTable);
+        options.setTargetTable(targetTable);
+        options.setColumnMappings(mappings);
+        options.setKeyColumns(List.of(columns[0]));
+        options.setMatchingAlgorithm("exact");
+        options.setExportFormat("json");
+        return options;
+    }
+
+    static ComparisonContext context(ComparisonOptions options, List<ComparisonResult> results) {
+        ComparisonContext context = new ComparisonContext(options, results::add);
+        context.useKeyColumns(options.getKeyColumns());
+        return context;
+    }
+
+    // Status of every result by the text of its key
+    static Map<String, String> statuses(List<ComparisonResult> results) {
+        Map<String, String> statuses = new TreeMap<>();
+        for (ComparisonResult result : results) {
+            statuses.put(String.join(",", result.getKey().values()), result.getStatus());
+        }
+        return statuses;
+    }
+}
@@ -0,0 +1,53 @@
+package com.dbcompare.service.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ValueTypeTest {
+
+    @Test
+    void roundsFractionalSecondsLikeTheDatabase() {
+        // MySQL and SQL Server round when storing, so 0.7 seconds in a DATETIME(0) column is read back as a whole second
+        LocalDateTime stored = LocalDateTime.parse("2024-03-01T10:15:31");
+
+        assertThat(ValueType.TIMESTAMP.same(LocalDateTime.parse("2024-03-01T10:15:30.7"), stored, 0, 0)).isTrue();
+        assertThat(ValueType.TIMESTAMP.same(LocalDateTime.parse("2024-03-01T10:15:30.5"), stored, 0, 0)).isTrue();
+        assertThat(ValueType.TIMESTAMP.same(LocalDateTime.parse("2024-03-01T10:15:30.4"), stored, 0, 0)).isFalse();
+        assertThat(ValueType.TIMESTAMP.same(LocalDateTime.parse("2024-03-01T10:15:31.4"), stored, 0, 0)).isTrue();
+        assertThat(ValueType.TIMESTAMP.same(LocalDateTime.parse("2024-03-01T10:15:30.7"), stored, 0, null)).isFalse();
+    }
+
+    @Test
+    void carriesRoundingIntoTheDate() {
+        assertThat(ValueType.TIMESTAMP.same(
+            LocalDateTime.parse("2024-12-31T23:59:59.96"), LocalDateTime.parse("2025-01-01T00:00:00"), 0, 1)).isTrue();
+        assertThat(ValueType.TIME.same(LocalTime.parse("10:59:59.6"), LocalTime.parse("11:00:00"), 0, 0)).isTrue();
+    }
+
+    @Test
+    void matchesSqlServerDatetimeTicksAtTwoDigits() {
+        // DATETIME keeps 1/300 second ticks, which the driver reads back rounded to milliseconds: .005 becomes .007
+        LocalDateTime second = LocalDateTime.parse("2024-03-01T10:15:30");
+        for (int millis = 0; millis < 1000; millis++) {
+            long ticks = Math.round(millis * 0.3);
+            long storedMillis = Math.round(ticks / 0.3);
+            LocalDateTime written = second.plusNanos(millis * 1_000_000L);
+            LocalDateTime stored = second.plusNanos(storedMillis * 1_000_000L);
+
+            assertThat(ValueType.TIMESTAMP.same(written, stored, 0, 2)).as("%d ms stored as %d ms", millis, storedMillis).isTrue();
+        }
+        assertThat(ValueType.TIMESTAMP.same(second.plusNanos(5_000_000), second.plusNanos(3_000_000), 0, 3)).isFalse();
+    }
+
+    @Test
+    void comparesTextAsTheType() {
+        assertThat(ValueType.DECIMAL.same("1.50", "1.5000", 0, null)).isTrue();
+        assertThat(ValueType.DECIMAL.same("1.50", "1.51", 0.01, null)).isTrue();
+        assertThat(ValueType.TIMESTAMP.same("2024-03-01 10:15:30.7", LocalDateTime.parse("2024-03-01T10:15:31"), 0, 0)).isTrue();
+        assertThat(ValueType.INTEGER.same("12", "twelve", 0, null)).isFalse();
+    }
+}
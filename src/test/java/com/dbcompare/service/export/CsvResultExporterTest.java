@@ -0,0 +1,39 @@
+package com.dbcompare.service.export;
+
+import com.dbcompare.model.ComparisonResult;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvResultExporterTest {
+
+    @Test
+    void tellsEmptyStringsFromNulls() throws Exception {
+        ComparisonResult.ValueDifference difference = new ComparisonResult.ValueDifference();
+        difference.setSourceValue("");
+        difference.setTargetValue(null);
+        ComparisonResult result = new ComparisonResult();
+        result.setId(1L);
+        result.setStatus("mismatched");
+        result.setKey(Map.of("id", "7"));
+        Map<String, ComparisonResult.ValueDifference> differences = new HashMap<>();
+        differences.put("name", difference);
+        result.setDifferences(differences);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CsvResultExporter exporter = new CsvResultExporter(Channels.newChannel(out), List.of("id", "name", "note"))) {
+            exporter.accept(result);
+        }
+
+        assertThat(out.toString(StandardCharsets.UTF_8)).isEqualTo(
+            "id,status,id_source,id_target,name_source,name_target,note_source,note_target\r\n"
+                + "1,mismatched,7,7,\"\",,,\r\n");
+    }
+}
@@ -5,6 +5,9 @@ export interface DatabaseConnection {
   password: string;
   databaseType: string;
   databaseName: string;
+  maxPoolSize?: number;
+  minIdle?: number;
+  connectionTimeoutSeconds?: number;
 }
 
 export interface DatabaseContext {
@@ -26,11 +29,151 @@ export interface ComparisonOptions {
   skipColumns: string[];
   matchingAlgorithm: 'exact' | 'fuzzy';
   fuzzyThreshold: number;
-  exportFormat: 'json' | 'excel' | 'csv';
+  exportFormat: 'json' | 'jsonl' | 'csv' | 'excel' | 'columnar';
+  exportGzip?: boolean;
+  numericTolerance?: number;
+  timestampPrecision?: number;
+  sampleRows?: number;
+}
+
+export interface RateEstimate {
+  sampled: number;
+  observed: number;
+  rate: number;
+  lower: number;
+  upper: number;
+  estimatedRows: number | null;
+  estimatedRowsLower: number | null;
+  estimatedRowsUpper: number | null;
+}
+
+export interface ComparisonPreview {
+  samplingMethod: 'full' | 'tablesample' | 'key_hash';
+  sourceSampleFraction: number;
+  targetSampleFraction: number;
+  sourceRowsSampled: number;
+  targetRowsSampled: number;
+  estimatedSourceRows: number;
+  estimatedTargetRows: number;
+  mismatched: RateEstimate;
+  missingTarget: RateEstimate;
+  missingSource: RateEstimate;
+  estimatedDistinctSourceKeys: number;
+  estimatedDistinctTargetKeys: number;
+  columnMismatchRates: Record<string, number>;
+  durationMillis: number;
 }
 
 export interface ComparisonResult {
   id: number;
   status: 'matched' | 'mismatched' | 'missing_source' | 'missing_target';
+  key: Record<string, string | null> | null;
+  similarity?: number | null;
   differences: Record<string, { sourceValue: string; targetValue: string }>;
-}
\ No newline at end of file
+}
+
+export interface SampleDifference {
+  status: ComparisonResult['status'];
+  key: Record<string, string | null> | null;
+  // Differing columns of a mismatched row; null for missing rows
+  columns: string[] | null;
+}
+
+export interface ComparisonSummary {
+  differences: number;
+  differencesByStatus: Record<string, number>;
+  columnMismatches: Record<string, number>;
+  sampleDifferences: SampleDifference[];
+  sourceRowsRead: number;
+  targetRowsRead: number;
+  durationMillis: number;
+}
+
+export interface ResultPage {
+  page: number;
+  size: number;
+  totalResults: number;
+  results: ComparisonResult[];
+}
+
+export interface ResultFilter {
+  status?: ComparisonResult['status'];
+  column?: string;
+}
+
+export interface JobStatus {
+  jobId: string;
+  status: 'queued' | 'running' | 'completed' | 'failed' | 'cancelled' | 'timed_out';
+  message: string | null;
+  sourceRowsRead: number;
+  targetRowsRead: number;
+  estimatedSourceRows: number;
+  estimatedTargetRows: number;
+  differences: number;
+  progress: number | null;
+  etaSeconds: number | null;
+  exportBytes: number;
+  submittedAt: string;
+  startedAt: string | null;
+  finishedAt: string | null;
+}
+
+export interface PoolStats {
+  key: string;
+  open: boolean;
+  activeConnections: number;
+  idleConnections: number;
+  threadsAwaitingConnection: number;
+  totalConnections: number;
+  maxPoolSize: number;
+  idleSeconds: number;
+}
+
+export interface DatabaseComparisonRequest {
+  sourceDatabase: string;
+  targetDatabase: string;
+  tableMappings?: Record<string, string>;
+  sourcePrefix?: string;
+  targetPrefix?: string;
+  caseSensitive?: boolean;
+  includePattern?: string;
+  excludePattern?: string;
+  skipColumns?: string[];
+  comparisonMode?: 'hash' | 'merge' | 'checksum' | 'incremental' | 'pushdown' | 'keys';
+  parallelism?: number;
+  numericTolerance?: number;
+  timestampPrecision?: number;
+}
+
+export interface TableComparisonSummary {
+  sourceTable: string;
+  targetTable: string;
+  status: 'queued' | 'running' | 'completed' | 'failed' | 'cancelled' | 'timed_out' | 'skipped';
+  message: string | null;
+  estimatedRows: number;
+  sourceRowsRead: number;
+  targetRowsRead: number;
+  differences: number;
+  differencesByStatus: Record<string, number> | null;
+  columnMismatches: Record<string, number> | null;
+  sampleDifferences: SampleDifference[] | null;
+  startedAt: string | null;
+  finishedAt: string | null;
+}
+
+export interface DatabaseComparisonStatus {
+  comparisonId: string;
+  status: 'queued' | 'running' | 'completed' | 'cancelled';
+  sourceDatabase: string;
+  targetDatabase: string;
+  tablesTotal: number;
+  tablesFinished: number;
+  tablesWithDifferences: number;
+  tablesFailed: number;
+  differences: number;
+  tables: TableComparisonSummary[];
+  unmatchedSourceTables: string[];
+  unmatchedTargetTables: string[];
+  submittedAt: string;
+  finishedAt: string | null;
+}